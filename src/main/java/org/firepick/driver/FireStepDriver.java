@@ -291,13 +291,18 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
             // find the smallest home angle step count
             int hascMin = Math.min(rs.x, Math.min(rs.y, rs.z));
             
-            sendJsonCommand(String.format("{'hom':{'x':%d,'y':%d,'z':%d}}",
-                    -hascMin,
-                    -hascMin,
-                    -hascMin), 10000);
+            sendJsonCommand(commandBuffer.clear()
+                    .append("{\"hom\":{\"x\":").append(-hascMin)
+                    .append(",\"y\":").append(-hascMin)
+                    .append(",\"z\":").append(-hascMin)
+                    .append("}}"), 10000);
         }
         else {
-            sendJsonCommand(String.format("{'hom':{'x':%d,'y':%d,'z':%d}}", -rs.x, -rs.y, -rs.z), 10000);
+            sendJsonCommand(commandBuffer.clear()
+                    .append("{\"hom\":{\"x\":").append(-rs.x)
+                    .append(",\"y\":").append(-rs.y)
+                    .append(",\"z\":").append(-rs.z)
+                    .append("}}"), 10000);
         }
         setLocation(getFireStepLocation());
         homed = true;
@@ -429,18 +434,32 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
             if (moveRot){ // Cartesian move with rotation.  Feedrate is (TBD)
                 logger.trace(String.format("moveTo: Cartesian move with rotation, feedrate=%d steps/second",rawFeedrate));
                 setRotMotorEnable(true);
-                sendJsonCommand(String.format("{'mov':{'x':%d,'y':%d,'z':%d, 'a':%d,'mv':%d}}",rs.x, rs.y, rs.z, rotSteps, rawFeedrate), 10000);
+                sendJsonCommand(commandBuffer.clear()
+                        .append("{\"mov\":{\"x\":").append(rs.x)
+                        .append(",\"y\":").append(rs.y)
+                        .append(",\"z\":").append(rs.z)
+                        .append(",\"a\":").append(rotSteps)
+                        .append(",\"mv\":").append(rawFeedrate)
+                        .append("}}"), 10000);
             }
             else{         // Cartesian move with no rotation.  Feedrate is just the cartesian feedrate
                 logger.trace(String.format("moveTo: Cartesian move, feedrate=%d steps/second",rawFeedrate));
-                sendJsonCommand(String.format("{'mov':{'x':%d,'y':%d,'z':%d,'mv':%d}}",rs.x, rs.y, rs.z, rawFeedrate), 10000);
+                sendJsonCommand(commandBuffer.clear()
+                        .append("{\"mov\":{\"x\":").append(rs.x)
+                        .append(",\"y\":").append(rs.y)
+                        .append(",\"z\":").append(rs.z)
+                        .append(",\"mv\":").append(rawFeedrate)
+                        .append("}}"), 10000);
             }
         }
         else {
             if (moveRot){ // Rotation, no Cartesian move.  Feedrate is just the rotation feedrate
                 setRotMotorEnable(true);
                 logger.trace(String.format("moveTo: Rotation move, feedrate=%d steps/second",rawFeedrate));
-                sendJsonCommand(String.format("{'mov':{'a':%d,'mv':%d}}",rotSteps, rawFeedrate), 10000);
+                sendJsonCommand(commandBuffer.clear()
+                        .append("{\"mov\":{\"a\":").append(rotSteps)
+                        .append(",\"mv\":").append(rawFeedrate)
+                        .append("}}"), 10000);
             }
             else{         // No move, nothing to do
                 logger.trace("moveTo: No move, nothing to do");
@@ -450,13 +469,13 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
     
     public void moveToFireStepKinematics(ReferenceHeadMountable hm, Location location, double speed)
             throws Exception {
-        sendJsonCommand(String.format("{'mov':{'x':%f,'y':%f,'z':%f,'a':%f,'mv':%d}}", 
-                -location.getX(), 
-                -location.getY(), 
-                location.getZ(),
-                location.getRotation() * nozzleStepsPerDegree,
-                rawFeedrate
-                ), 10000);
+        sendJsonCommand(commandBuffer.clear()
+                .append("{\"mov\":{\"x\":").append(-location.getX(), 6)
+                .append(",\"y\":").append(-location.getY(), 6)
+                .append(",\"z\":").append(location.getZ(), 6)
+                .append(",\"a\":").append(location.getRotation() * nozzleStepsPerDegree, 6)
+                .append(",\"mv\":").append(rawFeedrate)
+                .append("}}"), 10000);
     }
     
 	@Override
@@ -1234,7 +1253,7 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
 
     /**
      * Send a command and wait 5 seconds for a response. This is just a
-     * shortcut for {@link #sendJsonCommand(String, long)} with a default
+     * shortcut for {@link #sendJsonCommand(CharSequence, long)} with a default
      * timeout.
      * @param command
      * @return
@@ -1244,18 +1263,19 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
         return sendJsonCommand(command, 5000);
     }
 	
-    public List<JsonObject> sendJsonCommand(String command, long timeout) throws Exception {
+    public List<JsonObject> sendJsonCommand(CharSequence command, long timeout) throws Exception {
         return sendJsonCommand(command, timeout, true);
     }
 
         /**
 	 * Send a command and wait timeout milliseconds for it to return.
+	 * Commands built in a CommandBuffer must already use double quotes.
 	 * @param command
 	 * @param timeout
 	 * @return
 	 * @throws Exception
 	 */
-    public List<JsonObject> sendJsonCommand(String command, long timeout, boolean checkStatus) throws Exception {
+    public List<JsonObject> sendJsonCommand(CharSequence command, long timeout, boolean checkStatus) throws Exception {
         List<JsonObject> responses = new ArrayList<>();
         
         // Read any responses that might be queued up so that when we wait
@@ -1267,10 +1287,11 @@ public class FireStepDriver extends AbstractSerialPortDriver implements Runnable
             // write the commands in code without having to constantly escape
             // double quotes. We need the double quotes so it will parse
             // correctly.
-            command = command.replaceAll("'", "\"");
+            if (command instanceof String) {
+                command = ((String) command).replaceAll("'", "\"");
+            }
             logger.trace("sendCommand({}, {})", command, timeout);
-            output.write(command.getBytes());
-            output.write("\n".getBytes());
+            writeLine(command);
         }
         
         // Wait up to timeout milliseconds for the a response to return from
@@ -28,7 +28,6 @@ package org.firepick.driver;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
@@ -43,6 +42,7 @@ import org.openpnp.machine.reference.ReferenceHead;
 import org.openpnp.machine.reference.ReferenceHeadMountable;
 import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.driver.AbstractSerialPortDriver;
+import org.openpnp.machine.reference.driver.CommandBuffer;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.PropertySheetHolder;
@@ -65,6 +65,7 @@ public class MarlinDriver extends AbstractSerialPortDriver implements Runnable {
 	private Thread readerThread;
 	private boolean disconnectRequested;
 	private Object commandLock = new Object();
+	private long responseCount;
 	private boolean connected;
 	private double connectedVersion;
 	private Queue<String> responseQueue = new ConcurrentLinkedQueue<String>();
@@ -141,22 +142,23 @@ public class MarlinDriver extends AbstractSerialPortDriver implements Runnable {
         double z = location.getZ();
         double c = location.getRotation();
         
-        StringBuffer sb = new StringBuffer();
+        CommandBuffer command = commandBuffer.clear().append("G1 ");
+        int empty = command.length();
         if (!Double.isNaN(x) && x != this.x) {
-            sb.append(String.format(Locale.US, "X%2.2f ", x));
+            command.append('X', x, 2);
         }
         if (!Double.isNaN(y) && y != this.y) {
-            sb.append(String.format(Locale.US, "Y%2.2f ", y));
+            command.append('Y', y, 2);
         }
         if (!Double.isNaN(z) && z != this.z) {
-            sb.append(String.format(Locale.US, "Z%2.2f ", z));
+            command.append('Z', z, 2);
         }
         if (!Double.isNaN(c) && c != this.c) {
-            sb.append(String.format(Locale.US, "E%2.2f ", c));
+            command.append('E', c, 2);
         }
-        if (sb.length() > 0) {
-            sb.append(String.format(Locale.US, "F%2.2f", feedRateMmPerMinute * speed));
-            sendCommand("G1 " + sb.toString());
+        if (command.length() > empty) {
+            command.append('F').append(feedRateMmPerMinute * speed, 2);
+            sendCommand(command);
         }
 
         if (!Double.isNaN(x)) {
@@ -250,7 +252,13 @@ public class MarlinDriver extends AbstractSerialPortDriver implements Runnable {
 		processConnectionResponses(responses);
 
 		for (int i = 0; i < 5 && !connected; i++) {
-			responses = sendCommand("M115", 5000);
+			try {
+				responses = sendCommand("M115", 5000);
+			}
+			catch (TimeoutException e) {
+				// The firmware may have missed the command while starting up.
+				continue;
+			}
 			processConnectionResponses(responses);
 		}
 		
@@ -311,22 +319,32 @@ public class MarlinDriver extends AbstractSerialPortDriver implements Runnable {
 	}
 
 
-	private List<String> sendCommand(String command) throws Exception {
-		return sendCommand(command, -1);
+	private List<String> sendCommand(CharSequence command) throws Exception {
+		return sendCommand(command, commandTimeoutMs);
 	}
 	
-	private List<String> sendCommand(String command, long timeout) throws Exception {
+	private List<String> sendCommand(CharSequence command, long timeout) throws Exception {
 		synchronized (commandLock) {
+			long expected = responseCount + 1;
 			if (command != null) {
 				logger.debug("sendCommand({}, {})", command, timeout);
-				output.write(command.getBytes());
-				output.write("\n".getBytes());
-			}
-			if (timeout == -1) {
-				commandLock.wait();
+				writeLine(command);
 			}
-			else {
-				commandLock.wait(timeout);
+			long deadline = System.currentTimeMillis() + timeout;
+			while (responseCount < expected) {
+				if (timeout <= 0) {
+					commandLock.wait();
+					continue;
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					if (command == null) {
+						// Nothing was sent, so there is nothing to time out.
+						break;
+					}
+					throw new TimeoutException(String.format("No response to %s within %d ms", command, timeout));
+				}
+				commandLock.wait(remaining);
 			}
 		}
 		List<String> responses = drainResponseQueue();
@@ -353,6 +371,7 @@ public class MarlinDriver extends AbstractSerialPortDriver implements Runnable {
 			if (line.equals("ok") || line.startsWith("error: ")) {
 				// This is the end of processing for a command
 				synchronized (commandLock) {
+					responseCount++;
 					commandLock.notify();
 				}
 			}
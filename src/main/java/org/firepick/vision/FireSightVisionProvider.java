@@ -23,6 +23,7 @@ package org.firepick.vision;
 
 import java.awt.image.BufferedImage;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.firepick.vision.FireSight.FireSightResult;
 import org.opencv.core.RotatedRect;
@@ -110,5 +111,21 @@ public class FireSightVisionProvider extends OpenCvVisionProvider {
         // Return to Safe-Z just to be safe.
         nozzle.moveToSafeZ(1.0);
         return offsets;
-    } 
+    }
+    
+    /**
+     * FireSight moves the Nozzle between each analysis pass, so the whole
+     * operation has to happen here on the machine thread.
+     */
+    @Override
+    public Callable<Location> capturePartBottom(Part part, Nozzle nozzle)
+            throws Exception {
+        final Location offsets = getPartBottomOffsets(part, nozzle);
+        return new Callable<Location>() {
+            @Override
+            public Location call() throws Exception {
+                return offsets;
+            }
+        };
+    }
 }
@@ -30,6 +30,8 @@ import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.concurrent.Future;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -47,6 +49,7 @@ import org.openpnp.model.Location;
 import org.openpnp.spi.Actuator;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.Machine;
+import org.openpnp.spi.MachineListener;
 import org.openpnp.spi.PasteDispenser;
 
 /**
@@ -95,9 +98,34 @@ public class JogControlsPanel extends JPanel {
 		}
 	}
 
-	private void jog(final int x, final int y, final int z, final int c) {
-		machineControlsPanel.submitMachineTask(new Runnable() {
+	/**
+	 * Jog increments per axis, X, Y, Z and C, that have been requested but
+	 * not yet moved. Jog tasks are coalesced, so a burst of jog requests
+	 * made while the machine is busy results in a single move covering all
+	 * of them.
+	 */
+	private final int[] pendingJog = new int[4];
+
+	private void jog(int x, int y, int z, int c) {
+		synchronized (pendingJog) {
+			pendingJog[0] += x;
+			pendingJog[1] += y;
+			pendingJog[2] += z;
+			pendingJog[3] += c;
+		}
+		Future<Object> future = machineControlsPanel.submitMachineTask(new Runnable() {
 			public void run() {
+				int x, y, z, c;
+				synchronized (pendingJog) {
+					x = pendingJog[0];
+					y = pendingJog[1];
+					z = pendingJog[2];
+					c = pendingJog[3];
+					Arrays.fill(pendingJog, 0);
+				}
+				if (x == 0 && y == 0 && z == 0 && c == 0) {
+					return;
+				}
 				try {
 				    Location l = machineControlsPanel.getSelectedNozzle().getLocation().convertToUnits(Configuration.get().getSystemUnits());
 					double xPos = l.getX();
@@ -109,33 +137,10 @@ public class JogControlsPanel extends JPanel {
 							.getJogIncrement(), configuration.getSystemUnits())
 							.getValue();
 
-					if (x > 0) {
-						xPos += jogIncrement;
-					}
-					else if (x < 0) {
-						xPos -= jogIncrement;
-					}
-
-					if (y > 0) {
-						yPos += jogIncrement;
-					}
-					else if (y < 0) {
-						yPos -= jogIncrement;
-					}
-
-					if (z > 0) {
-						zPos += jogIncrement;
-					}
-					else if (z < 0) {
-						zPos -= jogIncrement;
-					}
-
-					if (c > 0) {
-						cPos += jogIncrement;
-					}
-					else if (c < 0) {
-						cPos -= jogIncrement;
-					}
+					xPos += x * jogIncrement;
+					yPos += y * jogIncrement;
+					zPos += z * jogIncrement;
+					cPos += c * jogIncrement;
 					
 					machineControlsPanel.getSelectedNozzle().moveTo(new Location(l.getUnits(), xPos, yPos, zPos, cPos), 1.0);
 				}
@@ -143,7 +148,13 @@ public class JogControlsPanel extends JPanel {
 					MessageBoxes.errorBox(frame, "Jog Failed", e.getMessage());
 				}
 			}
-		});
+		}, Machine.TaskPriority.Jog, pendingJog);
+		if (future == null) {
+			// Not submitted, so forget about the increments.
+			synchronized (pendingJog) {
+				Arrays.fill(pendingJog, 0);
+			}
+		}
 	}
 
 	private void createUi() {
@@ -402,6 +413,8 @@ public class JogControlsPanel extends JPanel {
 			panelActuators.removeAll();
 
 			Machine machine = Configuration.get().getMachine();
+			machine.removeListener(machineListener);
+			machine.addListener(machineListener);
 			
 			for (final Head head : machine.getHeads()) {
                 for (Actuator actuator : head.getActuators()) {
@@ -461,4 +474,15 @@ public class JogControlsPanel extends JPanel {
 			setEnabled(machineControlsPanel.isEnabled());
 		}
 	};
+	
+	private MachineListener machineListener = new MachineListener.Adapter() {
+		@Override
+		public void machineDisabled(Machine machine, String reason) {
+			// Stopping the machine cancels the queued jog task, so its
+			// increments must not be moved once the machine is started again.
+			synchronized (pendingJog) {
+				Arrays.fill(pendingJog, 0);
+			}
+		}
+	};
 }
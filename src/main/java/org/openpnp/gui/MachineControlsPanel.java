@@ -38,6 +38,8 @@ import java.awt.event.MouseEvent;
 import java.util.Hashtable;
 import java.util.Locale;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -136,6 +138,23 @@ public class MachineControlsPanel extends JPanel {
 		Configuration.get().getMachine().submit(runnable);
 	}
 	
+	/**
+	 * Like submitMachineTask(Runnable), but with a priority and coalesce key,
+	 * see {@link Machine#submit(Callable, FutureCallback, boolean, Machine.TaskPriority, Object)}.
+	 * @param runnable
+	 * @param priority
+	 * @param coalesceKey
+	 * @return The Future for the task, or null if the machine is not
+	 * started and the task was not submitted.
+	 */
+	public Future<Object> submitMachineTask(Runnable runnable, Machine.TaskPriority priority, Object coalesceKey) {
+		if (!Configuration.get().getMachine().isEnabled()) {
+			MessageBoxes.errorBox(getTopLevelAncestor(), "Machine Error", "Machine is not started.");
+			return null;
+		}
+		return Configuration.get().getMachine().submit(Executors.callable(runnable), null, false, priority, coalesceKey);
+	}
+	
 	public void setSelectedNozzle(Nozzle nozzle) {
 	    selectedNozzle = nozzle;
 	    comboBoxNozzles.setSelectedItem(selectedNozzle);
@@ -491,7 +510,7 @@ public class MachineControlsPanel extends JPanel {
 					MessageBoxes.errorBox(MachineControlsPanel.this, "Stop Failed", t.getMessage());
 					setEnabled(true);
 				}
-			}, true);
+			}, true, Machine.TaskPriority.Immediate, null);
 		}
 	};
 	
@@ -517,7 +536,7 @@ public class MachineControlsPanel extends JPanel {
 					MessageBoxes.errorBox(MachineControlsPanel.this, "Start Failed", t.getMessage());
 					setEnabled(true);
 				}
-			}, true);
+			}, true, Machine.TaskPriority.Immediate, null);
 		}
 	};
 	
@@ -771,7 +790,8 @@ public class MachineControlsPanel extends JPanel {
 			setSelectedNozzle(((NozzleItem) comboBoxNozzles.getItemAt(0)).getNozzle());
 			
 			setUnits(configuration.getSystemUnits());
-			machine.addListener(machineListener);
+			// The DROs don't need to update faster than this.
+			machine.addListener(machineListener, 20);
 			
 			btnStartStop.setAction(machine.isEnabled() ? stopMachineAction : startMachineAction);
 			btnStartStop.setForeground(machine.isEnabled() ? stopColor : startColor);
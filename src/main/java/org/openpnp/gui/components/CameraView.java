@@ -27,8 +27,10 @@ import java.awt.Cursor;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Insets;
+import java.awt.GraphicsConfiguration;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
@@ -65,6 +67,7 @@ import org.openpnp.gui.support.MessageBoxes;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
+import org.openpnp.spi.Machine;
 import org.openpnp.util.MovableUtils;
 import org.openpnp.util.XmlSerialize;
 import org.slf4j.Logger;
@@ -99,10 +102,43 @@ public class CameraView extends JComponent implements CameraListener {
 	 */
 	private BufferedImage lastFrame;
 
+	/**
+	 * lastFrame converted to a display compatible image at its on screen
+	 * size, so that painting it is a plain copy. Converted on the thread
+	 * that delivers the frame. May be stale in size right after a resize,
+	 * in which case lastFrame is painted scaled until the next frame
+	 * arrives.
+	 */
+	private BufferedImage displayFrame;
+
+	/**
+	 * The previous displayFrame, reused for converting the next frame.
+	 */
+	private BufferedImage spareFrame;
+
+	/**
+	 * Start of the current one second window over which the frame rate is
+	 * measured, and the frames rendered in it so far.
+	 */
+	private long fpsWindowStart;
+	private int fpsWindowFrames;
+	private double fps;
+
+	/**
+	 * Moving averages of the time taken to convert a frame and to paint
+	 * the component.
+	 */
+	private double renderMillis, paintMillis;
+
 	/**
 	 * The maximum frames per second that we'll display.
 	 */
 	private int maximumFps;
+	
+	/**
+	 * The frame width requested from the camera, see updatePreviewWidth().
+	 */
+	private int previewWidth;
 
 	private LinkedHashMap<Object, Reticle> reticles = new LinkedHashMap<Object, Reticle>();
 
@@ -219,7 +255,7 @@ public class CameraView extends JComponent implements CameraListener {
 					if (selectionDashPhase < 0) {
 						selectionDashPhase = selectionDashPhaseStart;
 					}
-					repaint();
+					repaintSelection();
 				}
 			}
 		}, 0, 50, TimeUnit.MILLISECONDS);
@@ -248,7 +284,8 @@ public class CameraView extends JComponent implements CameraListener {
 		}
 		// turn on capture for the new camera
 		if (this.camera != null) {
-			this.camera.startContinuousCapture(this, maximumFps);
+			previewWidth = getDesiredPreviewWidth();
+			this.camera.startContinuousCapture(this, maximumFps, previewWidth);
 		}
 	}
 
@@ -264,9 +301,44 @@ public class CameraView extends JComponent implements CameraListener {
 		this.camera = camera;
 		// turn on capture for the new camera
 		if (this.camera != null) {
-			this.camera.startContinuousCapture(this, maximumFps);
+			previewWidth = getDesiredPreviewWidth();
+			this.camera.startContinuousCapture(this, maximumFps, previewWidth);
 		}
 	}
+	
+	/**
+	 * Returns the width the camera's frames are shown at, which is all the
+	 * view needs, or 0 for full resolution if that isn't known yet.
+	 * @return
+	 */
+	private int getDesiredPreviewWidth() {
+		Insets ins = getInsets();
+		int width = getWidth() - ins.left - ins.right;
+		int height = getHeight() - ins.top - ins.bottom;
+		if (width <= 0 || height <= 0) {
+			return 0;
+		}
+		if (lastSourceWidth > 0 && lastSourceHeight > 0) {
+			width = (int) Math.min(width,
+					Math.ceil(height * lastSourceWidth / lastSourceHeight));
+		}
+		return width;
+	}
+	
+	/**
+	 * Asks the camera for frames no wider than the view shows them, so that
+	 * the camera can scale them down before they are sent. Only called on
+	 * the EDT, never from frameReceived(), since the camera may hold its
+	 * own lock while delivering frames.
+	 */
+	private void updatePreviewWidth() {
+		int width = getDesiredPreviewWidth();
+		if (camera == null || width == previewWidth) {
+			return;
+		}
+		previewWidth = width;
+		camera.startContinuousCapture(this, maximumFps, width);
+	}
 
 	public Camera getCamera() {
 		return camera;
@@ -387,7 +459,7 @@ public class CameraView extends JComponent implements CameraListener {
 							selectionFlashOpacity -= 0.07;
 							selectionFlashOpacity = Math.max(0,
 									selectionFlashOpacity);
-							repaint();
+							repaintSelection();
 						}
 						else {
 							throw new RuntimeException();
@@ -403,7 +475,7 @@ public class CameraView extends JComponent implements CameraListener {
 		BufferedImage image = new BufferedImage(sw, sh,
 				BufferedImage.TYPE_INT_ARGB);
 		Graphics g = image.getGraphics();
-		g.drawImage(lastFrame, 0, 0, sw, sh, sx, sy, sx + sw, sy + sh, null);
+		g.drawImage(getFullFrame(), 0, 0, sw, sh, sx, sy, sx + sw, sy + sh, null);
 		g.dispose();
 
 		while (!future.isDone())
@@ -415,6 +487,26 @@ public class CameraView extends JComponent implements CameraListener {
 	public Rectangle getSelection() {
 		return selection;
 	}
+	
+	/**
+	 * Returns the last frame if it is full resolution, or captures one if
+	 * the camera has been sending downscaled previews.
+	 * @return
+	 */
+	private BufferedImage getFullFrame() {
+		BufferedImage image = lastFrame;
+		if (image == null || image.getWidth() == (int) lastSourceWidth) {
+			return image;
+		}
+		BufferedImage full = camera.capture();
+		if (full == null) {
+			return image;
+		}
+		if (cameraViewFilter != null) {
+			full = cameraViewFilter.filterCameraImage(camera, full);
+		}
+		return full;
+	}
 
 	@Override
 	public void frameReceived(BufferedImage img) {
@@ -426,12 +518,119 @@ public class CameraView extends JComponent implements CameraListener {
 		if (oldFrame == null
 				|| (oldFrame.getWidth() != img.getWidth() 
 				|| oldFrame.getHeight() != img.getHeight()
+				|| camera.getWidth() != (int) lastSourceWidth
 				|| camera.getUnitsPerPixel() != lastUnitsPerPixel)) {
 			calculateScalingData();
 		}
+		renderFrame(img);
 		repaint();
 	}
 
+	/**
+	 * Converts the frame to a display compatible image at the size it is
+	 * shown at. Camera frames are usually TYPE_3BYTE_BGR, and drawing those
+	 * scaled sends Java2D down its slowest software path, which used to
+	 * happen on the EDT on every repaint. Now it happens once per frame on
+	 * the camera's thread and paintComponent() only copies the result.
+	 * 
+	 * Two images are used in turn so that one can be painted while the
+	 * other is being converted into.
+	 * @param image
+	 */
+	private void renderFrame(BufferedImage image) {
+		int width, height;
+		BufferedImage target;
+		synchronized (this) {
+			width = scaledWidth;
+			height = scaledHeight;
+			target = spareFrame;
+		}
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		long t = System.nanoTime();
+		if (target == null || target.getWidth() != width
+				|| target.getHeight() != height) {
+			GraphicsConfiguration gc = getGraphicsConfiguration();
+			if (gc != null) {
+				target = gc.createCompatibleImage(width, height,
+						Transparency.OPAQUE);
+			}
+			else {
+				target = new BufferedImage(width, height,
+						BufferedImage.TYPE_INT_RGB);
+			}
+		}
+		Graphics2D g = target.createGraphics();
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+		long now = System.nanoTime();
+		synchronized (this) {
+			spareFrame = displayFrame;
+			displayFrame = target;
+			renderMillis = average(renderMillis, (now - t) / 1e6);
+			fpsWindowFrames++;
+			if (fpsWindowStart == 0) {
+				fpsWindowStart = now;
+				fpsWindowFrames = 0;
+			}
+			else if (now - fpsWindowStart >= 1000000000L) {
+				fps = fpsWindowFrames * 1e9 / (now - fpsWindowStart);
+				fpsWindowStart = now;
+				fpsWindowFrames = 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of frames per second the view has converted for
+	 * display over the last second or so.
+	 * @return
+	 */
+	public synchronized double getFps() {
+		if (fpsWindowStart == 0
+				|| System.nanoTime() - fpsWindowStart > 2000000000L) {
+			// No frames for a while.
+			return 0;
+		}
+		return fps;
+	}
+
+	/**
+	 * Returns the average time, in milliseconds, taken to convert a frame
+	 * for display.
+	 * @return
+	 */
+	public synchronized double getRenderMillis() {
+		return renderMillis;
+	}
+
+	/**
+	 * Returns the average time, in milliseconds, taken by paintComponent().
+	 * @return
+	 */
+	public synchronized double getPaintMillis() {
+		return paintMillis;
+	}
+
+	private static double average(double average, double sample) {
+		return average == 0 ? sample : average * 0.9 + sample * 0.1;
+	}
+
+	/**
+	 * Repaints only the area of the selection rectangle and its handles,
+	 * for when only the selection's appearance changes.
+	 */
+	private void repaintSelection() {
+		Rectangle r = selectionScaled;
+		if (r == null) {
+			return;
+		}
+		int margin = HANDLE_DIAMETER / 2 + 2;
+		repaint(r.x - margin, r.y - margin, r.width + margin * 2,
+				r.height + margin * 2);
+	}
+
 	/**
 	 * Calculates a bunch of scaling data that we cache to speed up painting.
 	 * This is recalculated when the size of the component or the size of the
@@ -455,8 +654,10 @@ public class CameraView extends JComponent implements CameraListener {
 		lastWidth = width;
 		lastHeight = height;
 
-		lastSourceWidth = image.getWidth();
-		lastSourceHeight = image.getHeight();
+		// Frames may be downscaled previews, so scale from the camera's
+		// full resolution, which is what selections and clicks refer to.
+		lastSourceWidth = camera.getWidth();
+		lastSourceHeight = camera.getHeight();
 
 		double heightRatio = lastSourceHeight / destHeight;
 		double widthRatio = lastSourceWidth / destWidth;
@@ -490,6 +691,7 @@ public class CameraView extends JComponent implements CameraListener {
 
 	@Override
 	protected synchronized void paintComponent(Graphics g) {
+		long t = System.nanoTime();
 		super.paintComponent(g);
 		BufferedImage image = lastFrame;
 		Insets ins = getInsets();
@@ -500,8 +702,15 @@ public class CameraView extends JComponent implements CameraListener {
 		g2d.fillRect(ins.left, ins.top, width, height);
 		if (image != null) {
 			// Only render if there is a valid image.
-			g2d.drawImage(lastFrame, imageX, imageY, scaledWidth, scaledHeight,
-					null);
+			BufferedImage display = displayFrame;
+			if (display != null && display.getWidth() == scaledWidth
+					&& display.getHeight() == scaledHeight) {
+				g2d.drawImage(display, imageX, imageY, null);
+			}
+			else {
+				g2d.drawImage(image, imageX, imageY, scaledWidth, scaledHeight,
+						null);
+			}
 
 			double c = camera.getLocation().getRotation();
 			
@@ -523,7 +732,11 @@ public class CameraView extends JComponent implements CameraListener {
 			}
 			
 			if (showImageInfo && text == null) {
-			    drawImageInfo(g2d, 10, 10, image);
+			    drawImageInfo(g2d, 10, 10, image, (int) lastSourceWidth,
+			            (int) lastSourceHeight, String.format(
+			            "Preview: %d x %d, %.1f fps, render %.1f ms, paint %.1f ms",
+			            image.getWidth(), image.getHeight(),
+			            getFps(), renderMillis, paintMillis));
 			}
 
 			if (selectionEnabled && selection != null) {
@@ -544,6 +757,7 @@ public class CameraView extends JComponent implements CameraListener {
 			g2d.setColor(new Color(1f, 1f, 1f, alpha));
 			g2d.fillRect(0, 0, getWidth(), getHeight());
 		}
+		paintMillis = average(paintMillis, (System.nanoTime() - t) / 1e6);
 	}
 
 	private void paintSelection(Graphics2D g2d) {
@@ -766,13 +980,14 @@ public class CameraView extends JComponent implements CameraListener {
 		}
 	}
 
-    private static void drawImageInfo(Graphics2D g2d, int topLeftX, int topLeftY, BufferedImage image) {
+    private static void drawImageInfo(Graphics2D g2d, int topLeftX, int topLeftY, BufferedImage image, int sourceWidth, int sourceHeight, String previewInfo) {
         if (image == null) {
         	return;
         }
-    	String text = String.format("Resolution: %d x %d\nHistogram:",
-                image.getWidth(), 
-                image.getHeight());
+    	String text = String.format("Resolution: %d x %d\n%s\nHistogram:",
+                sourceWidth, 
+                sourceHeight,
+                previewInfo);
         Insets insets = new Insets(10, 10, 10, 10);
         int interLineSpacing = 4;
         int cornerRadius = 8;
@@ -1077,7 +1292,7 @@ public class CameraView extends JComponent implements CameraListener {
 			dir.mkdirs();
 			DateFormat df = new SimpleDateFormat("YYYY-MM-dd_HH.mm.ss.SSS");
 			File file = new File(dir, camera.getName() + "_" + df.format(new Date()) + ".png");
-			ImageIO.write(lastFrame, "png", file);
+			ImageIO.write(getFullFrame(), "png", file);
 		}
 		catch (Exception e1) {
 			e1.printStackTrace();
@@ -1166,7 +1381,7 @@ public class CameraView extends JComponent implements CameraListener {
                                     "Movement Error", e);
                         }
                     }
-                });
+                }, Machine.TaskPriority.Jog, this);
 	}
 	
 	private void beginSelection(MouseEvent e) {
@@ -1320,6 +1535,7 @@ public class CameraView extends JComponent implements CameraListener {
 		@Override
 		public void componentResized(ComponentEvent e) {
 			calculateScalingData();
+			updatePreviewWidth();
 		}
 	};
 
@@ -29,6 +29,7 @@ import java.util.Locale;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
@@ -47,6 +48,8 @@ import org.openpnp.gui.support.MessageBoxes;
 import org.openpnp.gui.support.MutableLocationProxy;
 import org.openpnp.model.Configuration;
 import org.openpnp.spi.Camera;
+import org.openpnp.spi.base.AbstractCamera;
+import org.openpnp.spi.base.AbstractCamera.SettleMethod;
 
 import com.jgoodies.forms.layout.ColumnSpec;
 import com.jgoodies.forms.layout.FormLayout;
@@ -137,15 +140,46 @@ public class CameraConfigurationWizard extends AbstractConfigurationWizard {
 				FormSpecs.RELATED_GAP_COLSPEC,
 				FormSpecs.DEFAULT_COLSPEC,},
 			new RowSpec[] {
+				FormSpecs.RELATED_GAP_ROWSPEC,
+				FormSpecs.DEFAULT_ROWSPEC,
+				FormSpecs.RELATED_GAP_ROWSPEC,
+				FormSpecs.DEFAULT_ROWSPEC,
+				FormSpecs.RELATED_GAP_ROWSPEC,
+				FormSpecs.DEFAULT_ROWSPEC,
+				FormSpecs.RELATED_GAP_ROWSPEC,
+				FormSpecs.DEFAULT_ROWSPEC,
 				FormSpecs.RELATED_GAP_ROWSPEC,
 				FormSpecs.DEFAULT_ROWSPEC,}));
 		
+		lblSettleMethod = new JLabel("Settle Method");
+		panelVision.add(lblSettleMethod, "2, 2, right, default");
+		
+		comboBoxSettleMethod = new JComboBox<SettleMethod>(SettleMethod.values());
+		panelVision.add(comboBoxSettleMethod, "4, 2, fill, default");
+		
 		lblSettleTimems = new JLabel("Settle Time (ms)");
-		panelVision.add(lblSettleTimems, "2, 2, right, default");
+		panelVision.add(lblSettleTimems, "2, 4, right, default");
 		
 		textFieldSettleTime = new JTextField();
-		panelVision.add(textFieldSettleTime, "4, 2, fill, default");
+		panelVision.add(textFieldSettleTime, "4, 4, fill, default");
 		textFieldSettleTime.setColumns(10);
+		
+		lblSettleThreshold = new JLabel("Adaptive Threshold (dB)");
+		panelVision.add(lblSettleThreshold, "2, 6, right, default");
+		
+		textFieldSettleThreshold = new JTextField();
+		panelVision.add(textFieldSettleThreshold, "4, 6, fill, default");
+		textFieldSettleThreshold.setColumns(10);
+		
+		lblSettleTimeout = new JLabel("Adaptive Timeout (ms)");
+		panelVision.add(lblSettleTimeout, "2, 8, right, default");
+		
+		textFieldSettleTimeout = new JTextField();
+		panelVision.add(textFieldSettleTimeout, "4, 8, fill, default");
+		textFieldSettleTimeout.setColumns(10);
+		
+		lblSettleStatistics = new JLabel();
+		panelVision.add(lblSettleStatistics, "2, 10, 3, 1");
 	}
 
 	@Override
@@ -159,6 +193,18 @@ public class CameraConfigurationWizard extends AbstractConfigurationWizard {
         addWrappedBinding(unitsPerPixel, "lengthY", textFieldUppY, "text", lengthConverter);
         
         addWrappedBinding(camera, "settleTimeMs", textFieldSettleTime, "text", longConverter);
+        if (camera instanceof AbstractCamera) {
+            DoubleConverter doubleConverter = new DoubleConverter("%f");
+            addWrappedBinding(camera, "settleMethod", comboBoxSettleMethod, "selectedItem");
+            addWrappedBinding(camera, "settleThreshold", textFieldSettleThreshold, "text", doubleConverter);
+            addWrappedBinding(camera, "settleTimeoutMs", textFieldSettleTimeout, "text", longConverter);
+            lblSettleStatistics.setText(((AbstractCamera) camera).getSettleStatistics().toString());
+        }
+        else {
+            comboBoxSettleMethod.setEnabled(false);
+            textFieldSettleThreshold.setEnabled(false);
+            textFieldSettleTimeout.setEnabled(false);
+        }
 
         ComponentDecorators.decorateWithAutoSelectAndLengthConversion(textFieldUppX);
         ComponentDecorators.decorateWithAutoSelectAndLengthConversion(textFieldUppY);
@@ -166,6 +212,8 @@ public class CameraConfigurationWizard extends AbstractConfigurationWizard {
         ComponentDecorators.decorateWithAutoSelect(textFieldWidth);
         ComponentDecorators.decorateWithAutoSelect(textFieldHeight);
         ComponentDecorators.decorateWithAutoSelect(textFieldSettleTime);
+        ComponentDecorators.decorateWithAutoSelect(textFieldSettleThreshold);
+        ComponentDecorators.decorateWithAutoSelect(textFieldSettleTimeout);
 	}
 	
 	private Action measureAction = new AbstractAction("Measure") {
@@ -223,4 +271,11 @@ public class CameraConfigurationWizard extends AbstractConfigurationWizard {
 	private JPanel panelVision;
 	private JLabel lblSettleTimems;
 	private JTextField textFieldSettleTime;
+	private JLabel lblSettleMethod;
+	private JComboBox<SettleMethod> comboBoxSettleMethod;
+	private JLabel lblSettleThreshold;
+	private JTextField textFieldSettleThreshold;
+	private JLabel lblSettleTimeout;
+	private JTextField textFieldSettleTimeout;
+	private JLabel lblSettleStatistics;
 }
\ No newline at end of file
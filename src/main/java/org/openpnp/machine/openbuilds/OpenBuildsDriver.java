@@ -3,7 +3,6 @@ package org.openpnp.machine.openbuilds;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
@@ -19,6 +18,7 @@ import org.openpnp.machine.reference.ReferenceHead;
 import org.openpnp.machine.reference.ReferenceHeadMountable;
 import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.driver.AbstractSerialPortDriver;
+import org.openpnp.machine.reference.driver.CommandBuffer;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.PropertySheetHolder;
@@ -47,6 +47,7 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
     private Thread readerThread;
     private boolean disconnectRequested;
     private Object commandLock = new Object();
+    private long responseCount;
     private boolean connected;
     private Queue<String> responseQueue = new ConcurrentLinkedQueue<String>();
     private boolean n1Picked, n2Picked;
@@ -154,29 +155,33 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
             z = Double.NaN;
         }
         
-        StringBuffer sb = new StringBuffer();
+        CommandBuffer command = commandBuffer.clear().append("G0 ");
+        int empty = command.length();
+        // The position is only updated once the commands have been sent.
+        double newX = this.x, newY = this.y, newZ = this.z;
         if (!Double.isNaN(x) && x != this.x) {
-            sb.append(String.format(Locale.US, "X%2.2f ", x));
-            this.x = x;
+            command.append('X', x, 2);
+            newX = x;
         }
         if (!Double.isNaN(y) && y != this.y) {
-            sb.append(String.format(Locale.US, "Y%2.2f ", y));
-            this.y = y;
+            command.append('Y', y, 2);
+            newY = y;
         }
         if (!Double.isNaN(c) && c != this.c) {
             int tool = nozzle == null || nozzle.getName().equals("N1") ? 0 : 1;
-            if (sb.length() == 0) {
+            if (command.length() == empty) {
                 // If the move won't contain an X or Y component but will
                 // have an E component we need to send the E component as a
                 // solo move because Smoothie won't move only E and Z at
                 // the same time.
-                sendCommand(String.format(Locale.US, "G0 T%d E%2.2f ", tool, c));
+                sendCommand(command.append('T').append(tool).append(' ').append('E', c, 2));
                 dwell();
+                this.c = c;
+                command.clear().append("G0 ");
             }
             else {
-                sb.append(String.format(Locale.US, "T%d E%2.2f ", tool, c));
+                command.append('T').append(tool).append(' ').append('E', c, 2);
             }
-            this.c = c;
         }
         if (!Double.isNaN(z) && z != this.z) {
             double a = Math.toDegrees(Math.asin((z - zCamWheelRadius - zGap) / zCamRadius));
@@ -184,14 +189,20 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
             if (nozzle.getName().equals("N2")) {
                 a = -a;
             }
-            sb.append(String.format(Locale.US, "Z%2.2f ", a));
-            this.z = a;
+            command.append('Z', a, 2);
+            newZ = a;
         }
-        if (sb.length() > 0) {
-            sb.append(String.format(Locale.US, "F%2.2f", feedRateMmPerMinute));
-            sendCommand("G0 " + sb.toString());
+        if (command.length() > empty) {
+            command.append('F').append(feedRateMmPerMinute, 2);
+            sendCommand(command);
             dwell();
         }
+        this.x = newX;
+        this.y = newY;
+        this.z = newZ;
+        if (!Double.isNaN(c)) {
+            this.c = c;
+        }
     }
     
     @Override
@@ -262,7 +273,13 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
         processConnectionResponses(responses);
 
         for (int i = 0; i < 5 && !connected; i++) {
-            responses = sendCommand("M104", 5000);
+            try {
+                responses = sendCommand("M104", 5000);
+            }
+            catch (TimeoutException e) {
+                // The firmware may have missed the command while starting up.
+                continue;
+            }
             processConnectionResponses(responses);
         }
         
@@ -339,23 +356,33 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
         disconnectRequested = false;
     }
 
-    protected List<String> sendCommand(String command) throws Exception {
-        return sendCommand(command, -1);
+    protected List<String> sendCommand(CharSequence command) throws Exception {
+        return sendCommand(command, commandTimeoutMs);
     }
     
-    protected List<String> sendCommand(String command, long timeout) throws Exception {
+    protected List<String> sendCommand(CharSequence command, long timeout) throws Exception {
         synchronized (commandLock) {
+            long expected = responseCount + 1;
             if (command != null) {
                 logger.debug("sendCommand({}, {})", command, timeout);
-                logger.debug(">> " + command);
-                output.write(command.getBytes());
-                output.write("\n".getBytes());
-            }
-            if (timeout == -1) {
-                commandLock.wait();
+                logger.debug(">> {}", command);
+                writeLine(command);
             }
-            else {
-                commandLock.wait(timeout);
+            long deadline = System.currentTimeMillis() + timeout;
+            while (responseCount < expected) {
+                if (timeout <= 0) {
+                    commandLock.wait();
+                    continue;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    if (command == null) {
+                        // Nothing was sent, so there is nothing to time out.
+                        break;
+                    }
+                    throw new TimeoutException(String.format("No response to %s within %d ms", command, timeout));
+                }
+                commandLock.wait(remaining);
             }
         }
         List<String> responses = drainResponseQueue();
@@ -381,6 +408,7 @@ public class OpenBuildsDriver extends AbstractSerialPortDriver implements Runnab
             if (line.startsWith("ok") || line.startsWith("error: ")) {
                 // This is the end of processing for a command
                 synchronized (commandLock) {
+                    responseCount++;
                     commandLock.notify();
                 }
             }
@@ -26,13 +26,20 @@ import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
 
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
 import org.openpnp.ConfigurationListener;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Length;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.base.AbstractCamera;
+import org.openpnp.util.MovableUtils;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 import org.slf4j.Logger;
@@ -91,17 +98,62 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
     public void moveTo(Location location, double speed) throws Exception {
         logger.debug("moveTo({}, {})", new Object[] { location, speed } );
         driver.moveTo(this, location, speed);
+        // A camera move is almost always followed by a capture, so the
+        // machine must have arrived before we return.
+        driver.waitForCompletion();
         machine.fireMachineHeadActivity(head);
     }
 
     @Override
     public void moveToSafeZ(double speed) throws Exception {
         logger.debug("{}.moveToSafeZ({})", new Object[] { getName(), speed } );
+        driver.moveTo(this, getSafeZLocation(), speed);
+        driver.waitForCompletion();
+        machine.fireMachineHeadActivity(head);
+    }
+
+    @Override
+    public void moveAlong(List<Waypoint> path) throws Exception {
+        logger.debug("{}.moveAlong({})", new Object[] { getName(), path } );
+        driver.moveAlong(this, MovableUtils.resolveSafeZ(path, getSafeZLocation()));
+        driver.waitForCompletion();
+        machine.fireMachineHeadActivity(head);
+    }
+
+    /**
+     * Waits for any streamed motion to complete before settling. The camera
+     * itself is always stopped after a move, but a capture can also follow
+     * the move of something else, such as a Nozzle over an up looking
+     * camera.
+     */
+    @Override
+    public BufferedImage settleAndCapture() {
+        waitForMachine();
+        return super.settleAndCapture();
+    }
+
+    @Override
+    public Mat settleAndCaptureMat() {
+        waitForMachine();
+        return super.settleAndCaptureMat();
+    }
+
+    private void waitForMachine() {
+        if (driver == null) {
+            return;
+        }
+        try {
+            driver.waitForCompletion();
+        }
+        catch (Exception e) {
+            logger.error("waitForCompletion()", e);
+        }
+    }
+
+    private Location getSafeZLocation() {
         Length safeZ = this.safeZ.convertToUnits(getLocation().getUnits());
-        Location l = new Location(getLocation().getUnits(), Double.NaN,
+        return new Location(getLocation().getUnits(), Double.NaN,
                 Double.NaN, safeZ.getValue(), Double.NaN);
-        driver.moveTo(this, l, speed);
-        machine.fireMachineHeadActivity(head);
     }
     
     public double getRotation() {
@@ -144,35 +196,105 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
 		this.offsetY = offsetY;
 	}
 
-	protected BufferedImage transformImage(BufferedImage image) {
-        if (rotation == 0 && !flipX && !flipY && offsetX == 0 && offsetY == 0) {
-            return image;
-        }
-        
-        BufferedImage out = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
-        Graphics2D g2d = out.createGraphics();
+	protected boolean isTransformed() {
+	    return rotation != 0 || flipX || flipY || offsetX != 0 || offsetY != 0;
+	}
+	
+	/**
+	 * Returns the transform that applies the configured offset, flips and
+	 * rotation to an image of the given size.
+	 */
+	protected AffineTransform getImageTransform(int width, int height) {
+	    return getImageTransform(width, height, 1.0);
+	}
+	
+	/**
+	 * Same as getImageTransform(int, int) for an image that was downscaled
+	 * by scale from the camera's full resolution, so the offsets, which are
+	 * in full resolution pixels, are scaled to match.
+	 */
+	protected AffineTransform getImageTransform(int width, int height, double scale) {
         AffineTransform xform = new AffineTransform();
 
-        xform.translate(offsetX, offsetY);
+        xform.translate(offsetX * scale, offsetY * scale);
         
         if (flipY) {
             xform.scale(-1, 1); 
-            xform.translate(-image.getWidth(), 0);
+            xform.translate(-width, 0);
         }
         
         if (flipX) {
             xform.scale(1, -1); 
-            xform.translate(0, -image.getHeight());
+            xform.translate(0, -height);
         }
         
         if (rotation != 0) {
-            xform.rotate(Math.toRadians(-rotation), image.getWidth() / 2, image.getHeight() / 2);
+            xform.rotate(Math.toRadians(-rotation), width / 2, height / 2);
+        }
+        return xform;
+	}
+
+	protected BufferedImage transformImage(BufferedImage image) {
+        if (!isTransformed()) {
+            return image;
         }
         
+        BufferedImage out = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        Graphics2D g2d = out.createGraphics();
+        AffineTransform xform = getImageTransform(image.getWidth(), image.getHeight());
         g2d.drawImage(image, xform, null);
         g2d.dispose();
         return out;
     }
+	
+	/**
+	 * Same as transformImage but done natively by OpenCV. Returns mat itself
+	 * if there is nothing to do, otherwise a new Mat.
+	 */
+	protected Mat transformMat(Mat mat) {
+	    return transformMat(mat, 1.0);
+	}
+	
+	/**
+	 * Same as transformMat(Mat) for a frame that was downscaled by scale
+	 * from the camera's full resolution.
+	 */
+	protected Mat transformMat(Mat mat, double scale) {
+	    if (!isTransformed()) {
+	        return mat;
+	    }
+	    Mat out = new Mat();
+	    if (rotation == 0 && offsetX == 0 && offsetY == 0) {
+	        // Plain flips don't need interpolation.
+	        Core.flip(mat, out, flipX && flipY ? -1 : (flipY ? 1 : 0));
+	        return out;
+	    }
+	    Mat xform = getMatTransform(mat.cols(), mat.rows(), scale);
+	    Imgproc.warpAffine(mat, out, xform, mat.size());
+	    xform.release();
+	    return out;
+	}
+	
+	/**
+	 * Returns getImageTransform as a 2x3 matrix for OpenCV's warp
+	 * functions. Java2D addresses pixels by their corner and OpenCV by their
+	 * center, so the transform is shifted by half a pixel on either side.
+	 */
+	protected Mat getMatTransform(int width, int height) {
+	    return getMatTransform(width, height, 1.0);
+	}
+	
+	protected Mat getMatTransform(int width, int height, double scale) {
+	    AffineTransform xform = new AffineTransform();
+	    xform.translate(-0.5, -0.5);
+	    xform.concatenate(getImageTransform(width, height, scale));
+	    xform.translate(0.5, 0.5);
+	    double[] m = new double[6];
+	    xform.getMatrix(m);
+	    Mat mat = new Mat(2, 3, CvType.CV_64FC1);
+	    mat.put(0, 0, m[0], m[2], m[4], m[1], m[3], m[5]);
+	    return mat;
+	}
 
     @Override
     public Location getLocation() {
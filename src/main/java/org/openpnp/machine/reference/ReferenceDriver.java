@@ -22,8 +22,10 @@
 package org.openpnp.machine.reference;
 
 import java.io.Closeable;
+import java.util.List;
 
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.WizardConfigurable;
 
@@ -67,6 +69,33 @@ public interface ReferenceDriver extends WizardConfigurable, PropertySheetHolder
     public void moveTo(ReferenceHeadMountable hm, Location location, double speed)
             throws Exception;
     
+    /**
+     * Moves the specified HeadMountable through each of the Waypoints in
+     * order, with the same result as calling moveTo for each of them. Drivers
+     * that can should send the entire path to the machine as a single batch
+     * so that the machine does not stop and wait between segments. Others can
+     * simply call moveTo for each Waypoint. Safe Z Waypoints have already
+     * been resolved to Locations by the caller.
+     * 
+     * @param hm
+     * @param path
+     * @throws Exception
+     */
+    public void moveAlong(ReferenceHeadMountable hm, List<Waypoint> path)
+            throws Exception;
+    
+    /**
+     * Blocks until the machine has completed every previously commanded
+     * operation. Drivers that return from moveTo before the move is complete,
+     * for instance because they stream motion commands to the controller,
+     * must implement this so that callers can be certain of the machine's
+     * position before operations such as capturing an image. Drivers whose
+     * methods always block can simply return.
+     * 
+     * @throws Exception
+     */
+    public void waitForCompletion() throws Exception;
+    
     /**
      * Returns a clone of the HeadMountable's current location. It's important
      * that the returned object is a clone, since the caller may modify the
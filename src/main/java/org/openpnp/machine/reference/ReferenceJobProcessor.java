@@ -21,7 +21,15 @@
 
 package org.openpnp.machine.reference;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.machine.reference.wizards.ReferenceJobProcessorConfigurationWizard;
@@ -30,7 +38,9 @@ import org.openpnp.model.Configuration;
 import org.openpnp.model.Location;
 import org.openpnp.model.Part;
 import org.openpnp.model.Placement;
+import org.openpnp.model.Waypoint;
 import org.openpnp.planner.SimpleJobPlanner;
+import org.openpnp.planner.TravelEstimator;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Feeder;
 import org.openpnp.spi.Head;
@@ -39,6 +49,7 @@ import org.openpnp.spi.JobPlanner.PlacementSolution;
 import org.openpnp.spi.Machine;
 import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.NozzleTip;
+import org.openpnp.spi.PipelinedVisionProvider;
 import org.openpnp.spi.VisionProvider;
 import org.openpnp.spi.base.AbstractJobProcessor;
 import org.openpnp.util.Utils2D;
@@ -69,9 +80,20 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
     @Attribute(required=false)
     private boolean demoMode;
     
+    /**
+     * If true the job is run by runPipelined(), which overlaps work that
+     * does not need the machine with machine movement.
+     */
+    @Attribute(required=false)
+    private boolean pipelined;
+    
     @Element(required=false)
     private JobPlanner jobPlanner;
     
+    private int placedCount;
+    
+    private double lastCyclesPerHour;
+    
 	public ReferenceJobProcessor() {
 	}
 	
@@ -130,81 +152,174 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
 		Head head = machine.getHeads().get(0);
 		
 		jobPlanner.setJob(job);
+		
+		long startTime = System.currentTimeMillis();
+		placedCount = 0;
 
+		if (pipelined) {
+		    if (!runPipelined(machine, head)) {
+		        return;
+		    }
+		}
+		else {
+		    if (!runSequential(machine, head)) {
+		        return;
+		    }
+		}
+		
+		long elapsed = System.currentTimeMillis() - startTime;
+		lastCyclesPerHour = elapsed == 0 ? 0 : placedCount * 3600000.0 / elapsed;
+		logger.info(String.format("Placed %d parts in %.1f seconds, %.0f CPH (%s).",
+		        placedCount, elapsed / 1000.0, lastCyclesPerHour, pipelined ? "pipelined" : "sequential"));
+		
+		fireDetailedStatusUpdated(String.format("Job complete. %.0f CPH.", lastCyclesPerHour));
+		
+		state = JobState.Stopped;
+		fireJobStateChanged();
+	}
+	
+    /**
+     * The original placement loop: every pick for a batch, then bottom
+     * vision and place for each nozzle in turn.
+     * 
+     * @return true if all placements were processed, false if the job was
+     * stopped or an error was reported. 
+     */
+    protected boolean runSequential(Machine machine, Head head) {
         Set<PlacementSolution> solutions;
-		while ((solutions = jobPlanner.getNextPlacementSolutions(head)) != null) {
-		    for (PlacementSolution solution : solutions) {
-                BoardLocation bl = solution.boardLocation;
-                Part part = solution.placement.getPart();
-                Feeder feeder = solution.feeder;
-                Placement placement = solution.placement;
-                Nozzle nozzle = solution.nozzle;
-                NozzleTip nozzleTip = solution.nozzleTip;
-                
-                firePartProcessingStarted(solution.boardLocation, solution.placement);
-                
-                if (!changeNozzleTip(nozzle, nozzleTip)) {
-                    return;
+        while ((solutions = jobPlanner.getNextPlacementSolutions(head)) != null) {
+            for (PlacementSolution solution : solutions) {
+                if (!pick(solution)) {
+                    return false;
                 }
-								
-				if (!nozzle.getNozzleTip().canHandle(part)) {
-                    fireJobEncounteredError(JobError.PickError, "Selected nozzle tip is not compatible with part");
-                    return;
-				}
-				
-				if (!pick(nozzle, feeder, bl, placement)) {
-				    return;
-				}
-			}
-		    
+            }
+
             // TODO: a lot of the event fires are broken
-		    for (PlacementSolution solution : solutions) {
+            for (PlacementSolution solution : solutions) {
                 Nozzle nozzle = solution.nozzle;
                 BoardLocation bl = solution.boardLocation;
                 Placement placement = solution.placement;
                 Part part = placement.getPart();
-                
+
                 fireDetailedStatusUpdated(String.format("Perform bottom vision"));      
-                
+
                 if (!shouldJobProcessingContinue()) {
-                    return;
+                    return false;
                 }
-                
+
                 Location bottomVisionOffsets;
                 try {
                     bottomVisionOffsets = performBottomVision(machine, part, nozzle);
                 }
                 catch (Exception e) {
                     fireJobEncounteredError(JobError.PartError, e.getMessage());
-                    return;
-                }
-                
-                Location placementLocation = placement.getLocation();
-                if (bottomVisionOffsets != null) {
-                    placementLocation = placementLocation.subtractWithRotation(bottomVisionOffsets);
+                    return false;
                 }
-                placementLocation = 
-                        Utils2D.calculateBoardPlacementLocation(bl.getLocation(), bl.getSide(), placementLocation);
 
-                // Update the placementLocation with the proper Z value. This is
-                // the distance to the top of the board plus the height of 
-                // the part.
-                Location boardLocation = bl.getLocation().convertToUnits(placementLocation.getUnits());
-                double partHeight = part.getHeight().convertToUnits(placementLocation.getUnits()).getValue();
-                placementLocation = placementLocation.derive(null, null, boardLocation.getZ() + partHeight, null);
+                Location placementLocation = calculatePlacementLocation(bl, placement, bottomVisionOffsets);
 
                 if (!place(nozzle, bl, placementLocation, placement)) {
-                    return;
+                    return false;
                 }
             }
-		}
-		
-		fireDetailedStatusUpdated("Job complete.");
-		
-		state = JobState.Stopped;
-		fireJobStateChanged();
-	}
-	
+        }
+        return true;
+    }
+    
+    /**
+     * Runs the placement loop with work that does not need the machine
+     * overlapped with work that does. The dependency model is simple: every
+     * call that may command the driver, including feeding, nozzle tip
+     * changes, vision captures, picks and places, happens on this thread in
+     * the same order as it would in the sequential loop, so the driver
+     * still sees a single ordered command stream. Only work that needs no
+     * machine is handed to an executor, and its Future is joined right
+     * before the machine needs the result:
+     * 
+     *  - The next batch is planned while the current batch is placed.
+     *  - Every Nozzle's part is captured by bottom vision before any part
+     *    is placed. With a PipelinedVisionProvider the image of Nozzle N is
+     *    analyzed while the machine moves Nozzle N + 1 over the camera, and
+     *    each place waits only for its own analysis.
+     *    
+     * Feeding stays on the machine thread since Feeder.feed() is allowed to
+     * move the Nozzle.
+     * 
+     * @return true if all placements were processed, false if the job was
+     * stopped or an error was reported. 
+     */
+    protected boolean runPipelined(final Machine machine, final Head head) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, head.getNozzles().size()));
+        try {
+            Set<PlacementSolution> solutions = jobPlanner.getNextPlacementSolutions(head);
+            while (solutions != null) {
+                for (PlacementSolution solution : solutions) {
+                    if (!pick(solution)) {
+                        return false;
+                    }
+                }
+                
+                Future<Set<PlacementSolution>> nextSolutions = executor.submit(new Callable<Set<PlacementSolution>>() {
+                    @Override
+                    public Set<PlacementSolution> call() throws Exception {
+                        return jobPlanner.getNextPlacementSolutions(head);
+                    }
+                });
+                
+                List<Future<Location>> bottomVisionOffsets = new ArrayList<Future<Location>>();
+                for (PlacementSolution solution : solutions) {
+                    fireDetailedStatusUpdated(String.format("Perform bottom vision"));      
+                    
+                    if (!shouldJobProcessingContinue()) {
+                        return false;
+                    }
+                    
+                    try {
+                        bottomVisionOffsets.add(executor.submit(captureBottomVision(
+                                machine, solution.placement.getPart(), solution.nozzle)));
+                    }
+                    catch (Exception e) {
+                        fireJobEncounteredError(JobError.PartError, e.getMessage());
+                        return false;
+                    }
+                }
+                
+                int i = 0;
+                for (PlacementSolution solution : solutions) {
+                    Location offsets;
+                    try {
+                        offsets = bottomVisionOffsets.get(i++).get();
+                    }
+                    catch (ExecutionException e) {
+                        fireJobEncounteredError(JobError.PartError, e.getCause().getMessage());
+                        return false;
+                    }
+                    
+                    Location placementLocation = calculatePlacementLocation(
+                            solution.boardLocation, solution.placement, offsets);
+                    
+                    if (!place(solution.nozzle, solution.boardLocation, placementLocation, solution.placement)) {
+                        return false;
+                    }
+                }
+                
+                solutions = nextSolutions.get();
+            }
+            return true;
+        }
+        catch (InterruptedException e) {
+            fireJobEncounteredError(JobError.MachineRejectedJobError, e.getMessage());
+            return false;
+        }
+        catch (ExecutionException e) {
+            fireJobEncounteredError(JobError.MachineRejectedJobError, e.getCause().getMessage());
+            return false;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
     // TODO: This needs to be it's own class and the job processor needs to
 	// be more abstract. Then we can have job processors that process
 	// job types like demo, pnp, solder, etc.
@@ -326,20 +441,7 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
     }
 	
 	protected Location performBottomVision(Machine machine, Part part, Nozzle nozzle) throws Exception {
-	    // TODO: I think this stuff actually belongs in VisionProvider but
-	    // I have not yet fully thought through the API.
-	    
-	    // Find the first fixed camera
-	    if (machine.getCameras().isEmpty()) {
-	        // TODO: return null for now to indicate that no vision was
-	        // calculated. In the future we may want this to be based on
-	        // configuration.
-	        return null;
-	    }
-	    Camera camera = machine.getCameras().get(0);
-	    
-	    // Get it's vision provider
-	    VisionProvider vp = camera.getVisionProvider();
+	    VisionProvider vp = getBottomVisionProvider(machine);
 	    if (vp == null) {
             // TODO: return null for now to indicate that no vision was
             // calculated. In the future we may want this to be based on
@@ -353,6 +455,57 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
 	    return vp.getPartBottomOffsets(part, nozzle);
 	}
 	
+	/**
+	 * Performs the machine part of bottom vision and returns a Callable
+	 * which completes the analysis without using the machine. If the
+	 * VisionProvider is not a PipelinedVisionProvider the whole operation
+	 * is done before returning.
+	 */
+	protected Callable<Location> captureBottomVision(Machine machine, Part part, Nozzle nozzle) throws Exception {
+	    VisionProvider vp = getBottomVisionProvider(machine);
+	    if (vp instanceof PipelinedVisionProvider) {
+	        return ((PipelinedVisionProvider) vp).capturePartBottom(part, nozzle);
+	    }
+	    final Location offsets = performBottomVision(machine, part, nozzle);
+	    return new Callable<Location>() {
+	        @Override
+	        public Location call() throws Exception {
+	            return offsets;
+	        }
+	    };
+	}
+	
+	protected VisionProvider getBottomVisionProvider(Machine machine) {
+	    // TODO: I think this stuff actually belongs in VisionProvider but
+	    // I have not yet fully thought through the API.
+	    
+	    // Find the first fixed camera
+	    if (machine.getCameras().isEmpty()) {
+	        return null;
+	    }
+	    Camera camera = machine.getCameras().get(0);
+	    
+	    // Get it's vision provider
+	    return camera.getVisionProvider();
+	}
+	
+	protected Location calculatePlacementLocation(BoardLocation bl, Placement placement, Location bottomVisionOffsets) {
+	    Part part = placement.getPart();
+        Location placementLocation = placement.getLocation();
+        if (bottomVisionOffsets != null) {
+            placementLocation = placementLocation.subtractWithRotation(bottomVisionOffsets);
+        }
+        placementLocation = 
+                Utils2D.calculateBoardPlacementLocation(bl.getLocation(), bl.getSide(), placementLocation);
+
+        // Update the placementLocation with the proper Z value. This is
+        // the distance to the top of the board plus the height of 
+        // the part.
+        Location boardLocation = bl.getLocation().convertToUnits(placementLocation.getUnits());
+        double partHeight = part.getHeight().convertToUnits(placementLocation.getUnits()).getValue();
+        return placementLocation.derive(null, null, boardLocation.getZ() + partHeight, null);
+	}
+	
 	protected boolean changeNozzleTip(Nozzle nozzle, NozzleTip nozzleTip) {
         // NozzleTip Changer
         if (nozzle.getNozzleTip() != nozzleTip) {
@@ -393,6 +546,24 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
         // End NozzleTip Changer
 	}
 	
+	protected boolean pick(PlacementSolution solution) {
+        Part part = solution.placement.getPart();
+        Nozzle nozzle = solution.nozzle;
+        
+        firePartProcessingStarted(solution.boardLocation, solution.placement);
+        
+        if (!changeNozzleTip(nozzle, solution.nozzleTip)) {
+            return false;
+        }
+						
+		if (!nozzle.getNozzleTip().canHandle(part)) {
+            fireJobEncounteredError(JobError.PickError, "Selected nozzle tip is not compatible with part");
+            return false;
+		}
+		
+		return pick(nozzle, solution.feeder, solution.boardLocation, solution.placement);
+	}
+	
 	protected boolean pick(Nozzle nozzle, Feeder feeder, BoardLocation bl, Placement placement) {
         fireDetailedStatusUpdated(String.format("Move nozzle %s to Safe-Z at (%s).", nozzle.getName(), nozzle.getLocation()));        
 
@@ -435,44 +606,19 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
             return false;
         }
 
-        fireDetailedStatusUpdated(String.format("Move to safe Z at (%s).", nozzle.getLocation()));
-        
-        if (!shouldJobProcessingContinue()) {
-            return false;
-        }
-
-        try {
-            nozzle.moveToSafeZ(1.0);
-        }
-        catch (Exception e) {
-            fireJobEncounteredError(JobError.MachineMovementError, e.getMessage());
-            return false;
-        }
-
-        fireDetailedStatusUpdated(String.format("Move to pick location, safe Z at (%s).", pickLocation));
-
-        if (!shouldJobProcessingContinue()) {
-            return false;
-        }
+        fireDetailedStatusUpdated(String.format("Move to pick location via safe Z at (%s).", pickLocation));
         
-        // Move the Nozzle to the pick Location at safe Z
-        try {
-            nozzle.moveTo(pickLocation.derive(null, null, Double.NaN, null), 1.0);
-        }
-        catch (Exception e) {
-            fireJobEncounteredError(JobError.MachineMovementError, e.getMessage());
-            return false;
-        }
-
-        fireDetailedStatusUpdated(String.format("Move to pick location Z at (%s).", pickLocation));
-
         if (!shouldJobProcessingContinue()) {
             return false;
         }
 
-        // Move the Nozzle to the pick Location 
+        // Move the Nozzle to safe Z, over to the pick Location and down, as
+        // a single path.
         try {
-            nozzle.moveTo(pickLocation, 1.0);
+            nozzle.moveAlong(Arrays.asList(
+                    Waypoint.safeZ(1.0),
+                    new Waypoint(pickLocation.derive(null, null, Double.NaN, null), 1.0),
+                    new Waypoint(pickLocation, 1.0)));
         }
         catch (Exception e) {
             fireJobEncounteredError(JobError.MachineMovementError, e.getMessage());
@@ -518,30 +664,18 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
 	}
 	
 	protected boolean place(Nozzle nozzle, BoardLocation bl, Location placementLocation, Placement placement) {
-        fireDetailedStatusUpdated(String.format("Move to placement location, safe Z at (%s).", placementLocation));
+        fireDetailedStatusUpdated(String.format("Move to placement location at (%s).", placementLocation));
 
         if (!shouldJobProcessingContinue()) {
             return false;
         }
 
-        // Move the nozzle to the placement Location at safe Z
+        // Move the nozzle to the placement Location at safe Z and lower it,
+        // as a single path.
         try {
-            nozzle.moveTo(placementLocation.derive(null, null, Double.NaN, null), 1.0);
-        }
-        catch (Exception e) {
-            fireJobEncounteredError(JobError.MachineMovementError, e.getMessage());
-            return false;
-        }
-
-        fireDetailedStatusUpdated(String.format("Move to placement location Z at (%s).", placementLocation));
-
-        if (!shouldJobProcessingContinue()) {
-            return false;
-        }
-
-        // Lower the nozzle.
-        try {
-            nozzle.moveTo(placementLocation, 1.0);
+            nozzle.moveAlong(Arrays.asList(
+                    new Waypoint(placementLocation.derive(null, null, Double.NaN, null), 1.0),
+                    new Waypoint(placementLocation, 1.0)));
         }
         catch (Exception e) {
             fireJobEncounteredError(JobError.MachineMovementError, e.getMessage());
@@ -568,6 +702,7 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
         }
         
         firePartPlaced(bl, placement);
+        placedCount++;
         
         fireDetailedStatusUpdated(String.format("Move to safe Z at (%s).", nozzle.getLocation()));      
 
@@ -647,8 +782,36 @@ public class ReferenceJobProcessor extends AbstractJobProcessor {
 				
 			}
 		}
+        
+        if (logger.isDebugEnabled() && !(jobPlanner instanceof SimpleJobPlanner)) {
+            logger.debug(TravelEstimator.report(job, head, new SimpleJobPlanner(), jobPlanner));
+        }
 	}
 	
+    public JobPlanner getJobPlanner() {
+        return jobPlanner;
+    }
+
+    public void setJobPlanner(JobPlanner jobPlanner) {
+        this.jobPlanner = jobPlanner;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Returns the placement rate, in parts per hour, of the last job that
+     * ran to completion.
+     */
+    public double getLastCyclesPerHour() {
+        return lastCyclesPerHour;
+    }
+
     public boolean isDemoMode() {
         return demoMode;
     }
@@ -94,6 +94,9 @@ public class ReferenceMachine extends AbstractMachine {
 			fireMachineEnabled();
 		}
 		else {
+		    // Drop queued jogs and tasks so they don't run once the machine
+		    // is enabled again. A running task is left to fail on its own.
+		    scheduler.cancelQueued();
 			try {
 				driver.setEnabled(false);
 				this.enabled = false;
@@ -1,6 +1,8 @@
 package org.openpnp.machine.reference;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.swing.Action;
 
@@ -12,10 +14,12 @@ import org.openpnp.model.Configuration;
 import org.openpnp.model.Length;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.NozzleTip;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.base.AbstractNozzle;
 import org.openpnp.spi.base.SimplePropertySheetHolder;
+import org.openpnp.util.MovableUtils;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 import org.slf4j.Logger;
@@ -134,6 +138,23 @@ public class ReferenceNozzle extends AbstractNozzle implements
     @Override
     public void moveTo(Location location, double speed) throws Exception {
         logger.debug("{}.moveTo({}, {})", new Object[] { getName(), location, speed } );
+        driver.moveTo(this, limitRotation(location), speed);
+        machine.fireMachineHeadActivity(head);
+    }
+
+    @Override
+    public void moveAlong(List<Waypoint> path) throws Exception {
+        logger.debug("{}.moveAlong({})", new Object[] { getName(), path } );
+        path = MovableUtils.resolveSafeZ(path, getSafeZLocation());
+        List<Waypoint> limited = new ArrayList<Waypoint>(path.size());
+        for (Waypoint waypoint : path) {
+            limited.add(new Waypoint(limitRotation(waypoint.getLocation()), waypoint.getSpeed()));
+        }
+        driver.moveAlong(this, limited);
+        machine.fireMachineHeadActivity(head);
+    }
+
+    private Location limitRotation(Location location) {
         if (limitRotation && !Double.isNaN(location.getRotation()) && Math.abs(location.getRotation()) > 180) {
             if (location.getRotation() < 0) {
                 location = location.derive(null, null, null, location.getRotation() + 360);
@@ -142,18 +163,20 @@ public class ReferenceNozzle extends AbstractNozzle implements
                 location = location.derive(null, null, null, location.getRotation() - 360);
             }
         }
-        driver.moveTo(this, location, speed);
-        machine.fireMachineHeadActivity(head);
+        return location;
     }
 
     @Override
     public void moveToSafeZ(double speed) throws Exception {
         logger.debug("{}.moveToSafeZ({})", new Object[] { getName(), speed } );
+        driver.moveTo(this, getSafeZLocation(), speed);
+        machine.fireMachineHeadActivity(head);
+    }
+
+    private Location getSafeZLocation() {
         Length safeZ = this.safeZ.convertToUnits(getLocation().getUnits());
-        Location l = new Location(getLocation().getUnits(), Double.NaN,
+        return new Location(getLocation().getUnits(), Double.NaN,
                 Double.NaN, safeZ.getValue(), Double.NaN);
-        driver.moveTo(this, l, speed);
-        machine.fireMachineHeadActivity(head);
     }
     
     @Override
@@ -167,15 +190,13 @@ public class ReferenceNozzle extends AbstractNozzle implements
         unloadNozzleTip();
         logger.debug("{}.loadNozzleTip({}): Start", new Object[]{getName(), nozzleTip.getName()});
         ReferenceNozzleTip nt = (ReferenceNozzleTip) nozzleTip;
-        logger.debug("{}.loadNozzleTip({}): moveToSafeZ", new Object[]{getName(), nozzleTip.getName()});
-        moveToSafeZ(1.0);
-        logger.debug("{}.loadNozzleTip({}): moveTo Start Location", new Object[]{getName(), nozzleTip.getName()});
-        moveTo(nt.getChangerStartLocation(), 1.0);
-        logger.debug("{}.loadNozzleTip({}): moveTo Mid Location", new Object[]{getName(), nozzleTip.getName()});
-        moveTo(nt.getChangerMidLocation(), 0.25);
-        logger.debug("{}.loadNozzleTip({}): moveTo End Location", new Object[]{getName(), nozzleTip.getName()});
-        moveTo(nt.getChangerEndLocation(), 1.0);
-        moveToSafeZ(1.0);
+        logger.debug("{}.loadNozzleTip({}): safe Z, Start, Mid, End, safe Z", new Object[]{getName(), nozzleTip.getName()});
+        moveAlong(Arrays.asList(
+                Waypoint.safeZ(1.0),
+                new Waypoint(nt.getChangerStartLocation(), 1.0),
+                new Waypoint(nt.getChangerMidLocation(), 0.25),
+                new Waypoint(nt.getChangerEndLocation(), 1.0),
+                Waypoint.safeZ(1.0)));
         logger.debug("{}.loadNozzleTip({}): Finished", new Object[]{getName(), nozzleTip.getName()});
         this.nozzleTip = nozzleTip;
         currentNozzleTipId = nozzleTip.getId();
@@ -191,15 +212,13 @@ public class ReferenceNozzle extends AbstractNozzle implements
         }
         logger.debug("{}.unloadNozzleTip(): Start", new Object[]{getName()});
         ReferenceNozzleTip nt = (ReferenceNozzleTip) nozzleTip;
-        logger.debug("{}.unloadNozzleTip(): moveToSafeZ", new Object[]{getName()});
-        moveToSafeZ(1.0);
-        logger.debug("{}.unloadNozzleTip(): moveTo End Location", new Object[]{getName()});
-        moveTo(nt.getChangerEndLocation(), 1.0);
-        logger.debug("{}.unloadNozzleTip(): moveTo Mid Location", new Object[]{getName()});
-        moveTo(nt.getChangerMidLocation(), 1.0);
-        logger.debug("{}.unloadNozzleTip(): moveTo Start Location", new Object[]{getName()});
-        moveTo(nt.getChangerStartLocation(), 0.25);
-        moveToSafeZ(1.0);
+        logger.debug("{}.unloadNozzleTip(): safe Z, End, Mid, Start, safe Z", new Object[]{getName()});
+        moveAlong(Arrays.asList(
+                Waypoint.safeZ(1.0),
+                new Waypoint(nt.getChangerEndLocation(), 1.0),
+                new Waypoint(nt.getChangerMidLocation(), 1.0),
+                new Waypoint(nt.getChangerStartLocation(), 0.25),
+                Waypoint.safeZ(1.0)));
         logger.debug("{}.unloadNozzleTip(): Finished", new Object[]{getName()});
         nozzleTip = null;
         currentNozzleTipId = null;
@@ -1,5 +1,7 @@
 package org.openpnp.machine.reference;
 
+import java.util.List;
+
 import javax.swing.Action;
 
 import org.openpnp.ConfigurationListener;
@@ -10,8 +12,10 @@ import org.openpnp.model.Configuration;
 import org.openpnp.model.Length;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.base.AbstractPasteDispenser;
+import org.openpnp.util.MovableUtils;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 import org.slf4j.Logger;
@@ -70,11 +74,21 @@ public class ReferencePasteDispenser extends AbstractPasteDispenser implements
     @Override
     public void moveToSafeZ(double speed) throws Exception {
         logger.debug("{}.moveToSafeZ({})", new Object[] { getName(), speed } );
+        driver.moveTo(this, getSafeZLocation(), speed);
+        machine.fireMachineHeadActivity(head);
+    }
+
+    @Override
+    public void moveAlong(List<Waypoint> path) throws Exception {
+        logger.debug("{}.moveAlong({})", new Object[] { getName(), path } );
+        driver.moveAlong(this, MovableUtils.resolveSafeZ(path, getSafeZLocation()));
+        machine.fireMachineHeadActivity(head);
+    }
+
+    private Location getSafeZLocation() {
         Length safeZ = this.safeZ.convertToUnits(getLocation().getUnits());
-        Location l = new Location(getLocation().getUnits(), Double.NaN,
+        return new Location(getLocation().getUnits(), Double.NaN,
                 Double.NaN, safeZ.getValue(), Double.NaN);
-        driver.moveTo(this, l, speed);
-        machine.fireMachineHeadActivity(head);
     }
     
     @Override
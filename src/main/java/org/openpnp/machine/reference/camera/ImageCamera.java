@@ -76,9 +76,9 @@ public class ImageCamera extends ReferenceCamera implements Runnable {
 	}
 	
 	@Override
-	public synchronized void startContinuousCapture(CameraListener listener, int maximumFps) {
+	public synchronized void startContinuousCapture(CameraListener listener, int maximumFps, int maximumWidth) {
 		start();
-		super.startContinuousCapture(listener, maximumFps);
+		super.startContinuousCapture(listener, maximumFps, maximumWidth);
 	}
 	
 	@Override
@@ -178,8 +178,9 @@ public class ImageCamera extends ReferenceCamera implements Runnable {
 	
 	public void run() {
 		while (!Thread.interrupted()) {
+			long timestamp = System.nanoTime();
 			BufferedImage frame = capture();
-			broadcastCapture(frame);
+			publishFrame(frame, timestamp);
 			try {
 				Thread.sleep(1000 / fps);
 			}
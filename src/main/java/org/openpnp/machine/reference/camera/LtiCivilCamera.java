@@ -63,10 +63,6 @@ public class LtiCivilCamera extends ReferenceCamera implements CaptureObserver {
 	
 	private int width, height;
 	
-	private BufferedImage lastImage;
-	
-	private Object captureLock = new Object();
-	
 	public LtiCivilCamera() {
 		Configuration.get().addListener(new ConfigurationListener.Adapter() {
             
@@ -123,36 +119,28 @@ public class LtiCivilCamera extends ReferenceCamera implements CaptureObserver {
 
 	@Override
 	public void onNewImage(CaptureStream captureStream, Image newImage) {
+	    // The driver does not report when the frame was grabbed, so the best
+	    // we can do is the time it was delivered.
+	    long timestamp = System.nanoTime();
 		BufferedImage bImage = AWTImageConverter.toBufferedImage(newImage);
+		BufferedImage image;
 		if (forceGrayscale) {
 			BufferedImage grayImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
 			Graphics g = grayImage.getGraphics();
 			g.drawImage(bImage, 0, 0, null);  
 			g.dispose();
-			lastImage = grayImage;
+			image = grayImage;
 		}
 		else {
-		    lastImage = bImage;
-		}
-		lastImage = transformImage(lastImage);
-        broadcastCapture(lastImage);
-		synchronized (captureLock) {
-			captureLock.notify();
+		    image = bImage;
 		}
+		image = transformImage(image);
+		publishFrame(image, timestamp);
 	}
 
 	@Override
 	public BufferedImage capture() {
-		synchronized (captureLock) {
-			try {
-				captureLock.wait();
-				BufferedImage image = lastImage;
-				return image;
-			}
-			catch (Exception e) {
-				return null;
-			}
-		}
+	    return waitForImageAfter(System.nanoTime(), Long.MAX_VALUE);
 	}
 
 	@Override
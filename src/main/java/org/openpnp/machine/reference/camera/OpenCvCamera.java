@@ -24,6 +24,7 @@ package org.openpnp.machine.reference.camera;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.swing.Action;
@@ -35,6 +36,7 @@ import org.opencv.core.MatOfDouble;
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.MatOfPoint3f;
 import org.opencv.core.Point3;
+import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.highgui.Highgui;
 import org.opencv.highgui.VideoCapture;
@@ -46,7 +48,6 @@ import org.openpnp.gui.wizards.CameraConfigurationWizard;
 import org.openpnp.machine.reference.ReferenceCamera;
 import org.openpnp.machine.reference.camera.wizards.OpenCvCameraConfigurationWizard;
 import org.openpnp.spi.PropertySheetHolder;
-import org.openpnp.util.OpenCvUtils;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 import org.simpleframework.xml.core.Commit;
@@ -72,48 +73,218 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
 	@Attribute(required=false)
 	private int preferredHeight;
 	
+	/**
+	 * Rate at which the capture thread reads the device when no consumer is
+	 * waiting for a frame.
+	 */
+	@Attribute(required=false)
+	private int fps = 24;
+	
+	/**
+	 * How long capture() waits for the capture thread to publish a frame.
+	 */
+	@Attribute(required=false)
+	private long captureTimeoutMs = 2000;
+	
 	private VideoCapture fg = new VideoCapture();
+	private Mat readMat = new Mat();
+	
+	/**
+	 * Cached remap tables that undistort and, if configured, transform a
+	 * frame in one pass. Only touched by the capture thread.
+	 */
+	private Mat remapX;
+	private Mat remapY;
+	/**
+	 * The frame size, calibration version and image transform the remap
+	 * tables were built for.
+	 */
+	private double[] remapKey;
+	/**
+	 * The remap tables scaled down for preview frames, and the full size
+	 * tables' key they were made from.
+	 */
+	private Mat previewRemapX;
+	private Mat previewRemapY;
+	private double[] previewRemapKey;
 	private Thread thread;
 	private boolean dirty = false;
 	
 	public OpenCvCamera() {
 	}
 	
+	/**
+	 * Returns the first frame published by the capture thread after this
+	 * call was made. The device itself is only ever read by the capture
+	 * thread, so vision and GUI consumers never compete for it.
+	 */
+	@Override
+	public BufferedImage capture() {
+	    startCapture();
+	    return waitForImageAfter(System.nanoTime(), captureTimeoutMs);
+	}
+	
+	/**
+	 * Same as capture() but skips the BufferedImage entirely. The returned
+	 * Mat is a copy that the caller owns.
+	 */
 	@Override
-	public synchronized BufferedImage capture() {
+	public Mat captureMat() {
+	    startCapture();
+	    return waitForMatAfter(System.nanoTime(), captureTimeoutMs);
+	}
+	
+	private synchronized void startCapture() {
 	    if (thread == null) {
 	        setDeviceIndex(deviceIndex);
 	    }
+	}
+	
+	/**
+	 * Reads a single frame from the device and applies calibration and the
+	 * image transform. Only called from the capture thread. The read buffer
+	 * is reused from frame to frame, so the only allocation is the Mat that
+	 * gets published.
+	 */
+	private Mat grabFrame() {
 		try {
-		    Mat mat = new Mat();
-		    if (!fg.read(mat)) {
+		    if (!fg.read(readMat)) {
 		        return null;
 		    }
+		    Mat mat = readMat;
             if (calibration.isEnabled()) {
-                mat = undistort(mat);
+                return undistort(mat);
             }
 //		    if (calibration.isEnabled()) {
 //		        mat = estimatePose(mat);
 //		    }
-		    BufferedImage img = OpenCvUtils.toBufferedImage(mat);
-		    mat.release();
-		    return transformImage(img);
+            Mat out = transformMat(mat);
+		    return out == mat ? mat.clone() : out;
 		}
 		catch (Exception e) {
 			return null;
 		}
 	}
 	
+	/**
+	 * Undistorts the frame and applies the image transform with a single
+	 * remap. The remap tables are computed once with
+	 * initUndistortRectifyMap and rebuilt only when the frame size,
+	 * calibration or transform changes.
+	 */
 	private Mat undistort(Mat mat) {
-        Mat dst = new Mat();
-        Imgproc.undistort(
-                mat, 
-                dst, 
-                calibration.getCameraMatrix(), 
-                calibration.getDistortionCoefficients());
-        return dst;
+	    updateRemap(mat);
+	    Mat out = new Mat();
+	    Imgproc.remap(mat, out, remapX, remapY, Imgproc.INTER_LINEAR);
+	    return out;
 	}
-
+	
+	private void updateRemap(Mat mat) {
+	    double[] m = new double[6];
+	    getImageTransform(mat.cols(), mat.rows()).getMatrix(m);
+	    double[] key = new double[] { 
+	            mat.cols(), mat.rows(), calibration.getVersion(), 
+	            m[0], m[1], m[2], m[3], m[4], m[5] };
+	    if (!Arrays.equals(key, remapKey)) {
+	        buildRemap(mat.size());
+	        remapKey = key;
+	    }
+	}
+	
+	/**
+	 * Reads a frame from the device and returns it downscaled to
+	 * previewWidth, with calibration and the image transform applied at
+	 * the reduced size. Used when only the continuous capture listeners
+	 * need the frame, see getPreviewWidth(). The full resolution frame is
+	 * only read, never copied or transformed.
+	 */
+	private Mat grabPreview(int previewWidth) {
+	    try {
+	        if (!fg.read(readMat)) {
+	            return null;
+	        }
+	        double scale = (double) previewWidth / readMat.cols();
+	        Size size = new Size(previewWidth, Math.max(1, Math.round(readMat.rows() * scale)));
+	        Mat small = new Mat();
+	        Imgproc.resize(readMat, small, size, 0, 0, Imgproc.INTER_AREA);
+	        if (calibration.isEnabled()) {
+	            updateRemap(readMat);
+	            if (previewRemapKey != remapKey || !previewRemapX.size().equals(size)) {
+	                buildPreviewRemap(size, scale);
+	                previewRemapKey = remapKey;
+	            }
+	            Mat out = new Mat();
+	            Imgproc.remap(small, out, previewRemapX, previewRemapY, Imgproc.INTER_LINEAR);
+	            small.release();
+	            return out;
+	        }
+	        Mat out = transformMat(small, scale);
+	        if (out != small) {
+	            small.release();
+	        }
+	        return out;
+	    }
+	    catch (Exception e) {
+	        return null;
+	    }
+	}
+	
+	/**
+	 * Scales the full size remap tables down to the preview size. The
+	 * tables hold full resolution source coordinates, so their values are
+	 * scaled too, converting between pixel centers at both sizes.
+	 */
+	private void buildPreviewRemap(Size size, double scale) {
+	    if (previewRemapX != null) {
+	        previewRemapX.release();
+	        previewRemapY.release();
+	    }
+	    previewRemapX = new Mat();
+	    previewRemapY = new Mat();
+	    Imgproc.resize(remapX, previewRemapX, size, 0, 0, Imgproc.INTER_LINEAR);
+	    Imgproc.resize(remapY, previewRemapY, size, 0, 0, Imgproc.INTER_LINEAR);
+	    previewRemapX.convertTo(previewRemapX, -1, scale, 0.5 * scale - 0.5);
+	    previewRemapY.convertTo(previewRemapY, -1, scale, 0.5 * scale - 0.5);
+	}
+	
+	private void buildRemap(Size size) {
+	    if (remapX != null) {
+	        remapX.release();
+	        remapY.release();
+	    }
+	    remapX = new Mat();
+	    remapY = new Mat();
+	    Imgproc.initUndistortRectifyMap(
+	            calibration.getCameraMatrix(), 
+	            calibration.getDistortionCoefficients(), 
+	            new Mat(), 
+	            calibration.getCameraMatrix(), 
+	            size, 
+	            CvType.CV_32FC1, 
+	            remapX, 
+	            remapY);
+	    if (isTransformed()) {
+	        // Warping the tables with the image transform gives tables that
+	        // look up, for each output pixel, the source pixel the transform
+	        // and the undistortion together map it to. Pixels the transform
+	        // brings in from outside the frame look up -1, which remap
+	        // treats as border.
+	        Mat xform = getMatTransform((int) size.width, (int) size.height);
+	        Mat x = new Mat();
+	        Mat y = new Mat();
+	        Imgproc.warpAffine(remapX, x, xform, size, Imgproc.INTER_LINEAR, 
+	                Imgproc.BORDER_CONSTANT, new Scalar(-1));
+	        Imgproc.warpAffine(remapY, y, xform, size, Imgproc.INTER_LINEAR, 
+	                Imgproc.BORDER_CONSTANT, new Scalar(-1));
+	        xform.release();
+	        remapX.release();
+	        remapY.release();
+	        remapX = x;
+	        remapY = y;
+	    }
+	    logger.debug("{} rebuilt undistortion remap for {}", getName(), size);
+	}
+	
 	/**
 	 * This is just an experiment related to bed leveling. Doesn't belong
 	 * here and will go away eventually.
@@ -177,26 +348,39 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
 	}
 	
 	@Override
-    public synchronized void startContinuousCapture(CameraListener listener, int maximumFps) {
+    public synchronized void startContinuousCapture(CameraListener listener, int maximumFps, int maximumWidth) {
 	    if (thread == null) {
 	        setDeviceIndex(deviceIndex);
 	    }
-        super.startContinuousCapture(listener, maximumFps);
+        super.startContinuousCapture(listener, maximumFps, maximumWidth);
     }
 
     public void run() {
 		while (!Thread.interrupted()) {
 			try {
-				BufferedImage image = capture();
-				if (image != null) {
-					broadcastCapture(image);
-				}
+			    long timestamp = System.nanoTime();
+			    // If only the previews need this frame it is made at their
+			    // size. The first frame is always full size so that the
+			    // full width is known.
+			    int previewWidth = getPreviewWidth();
+			    if (previewWidth > 0 && width != null && previewWidth < width) {
+			        Mat mat = grabPreview(previewWidth);
+			        if (mat != null) {
+			            publishPreview(mat, timestamp, readMat.cols(), readMat.rows());
+			        }
+			    }
+			    else {
+			        Mat mat = grabFrame();
+			        if (mat != null) {
+			            publishFrame(mat, timestamp);
+			        }
+			    }
 			}
 			catch (Exception e) {
 				e.printStackTrace();
 			}
 			try {
-				Thread.sleep(1000 / 24);
+				waitForNextFrameTime(1000 / Math.max(1, fps));
 			}
 			catch (InterruptedException e) {
 				break;
@@ -224,6 +408,7 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
 		    setDirty(false);
 		    width = null;
 		    height = null;
+		    clearFrames();
 		    fg.open(deviceIndex);
             if (preferredWidth != 0) {
                 fg.set(Highgui.CV_CAP_PROP_FRAME_WIDTH, preferredWidth);
@@ -262,6 +447,22 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
         setDirty(true);
     }
     
+    public int getFps() {
+        return fps;
+    }
+
+    public void setFps(int fps) {
+        this.fps = fps;
+    }
+
+    public long getCaptureTimeoutMs() {
+        return captureTimeoutMs;
+    }
+
+    public void setCaptureTimeoutMs(long captureTimeoutMs) {
+        this.captureTimeoutMs = captureTimeoutMs;
+    }
+
     public boolean isDirty() {
         return dirty;
     }
@@ -330,10 +531,13 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
         private Mat cameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
         private Mat distortionCoefficients = new Mat(5, 1, CvType.CV_64FC1);
         
+        private volatile int version;
+        
         @Commit
         private void commit() {
             cameraMatrix.put(0, 0, cameraMatrixArr);
             distortionCoefficients.put(0, 0, distortionCoefficientsArr);
+            changed();
         }
         
         @Persist
@@ -356,6 +560,7 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
 
         public void setCameraMatrix(Mat cameraMatrix) {
             this.cameraMatrix = cameraMatrix;
+            changed();
         }
 
         public Mat getDistortionCoefficients() {
@@ -364,6 +569,23 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
 
         public void setDistortionCoefficients(Mat distortionCoefficients) {
             this.distortionCoefficients = distortionCoefficients;
+            changed();
+        }
+        
+        /**
+         * Must be called after modifying the camera matrix or distortion
+         * coefficients in place so that cached undistortion maps are
+         * rebuilt. The setters call it automatically.
+         */
+        public void changed() {
+            version++;
+        }
+        
+        /**
+         * Incremented every time the calibration changes.
+         */
+        public int getVersion() {
+            return version;
         }
     }
 }
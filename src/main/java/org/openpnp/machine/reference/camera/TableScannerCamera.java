@@ -133,9 +133,9 @@ public class TableScannerCamera extends ReferenceCamera implements Runnable {
 	}
 	
 	@Override
-	public synchronized void startContinuousCapture(CameraListener listener, int maximumFps) {
+	public synchronized void startContinuousCapture(CameraListener listener, int maximumFps, int maximumWidth) {
 		start();
-		super.startContinuousCapture(listener, maximumFps);
+		super.startContinuousCapture(listener, maximumFps, maximumWidth);
 	}
 	
 	@Override
@@ -200,8 +200,9 @@ public class TableScannerCamera extends ReferenceCamera implements Runnable {
 	
 	public void run() {
 		while (!Thread.interrupted()) {
+			long timestamp = System.nanoTime();
 			BufferedImage frame = renderFrame();
-			broadcastCapture(frame);
+			publishFrame(frame, timestamp);
 			try {
 				Thread.sleep(1000 / fps);
 			}
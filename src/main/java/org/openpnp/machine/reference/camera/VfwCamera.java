@@ -53,7 +53,6 @@ public class VfwCamera extends ReferenceCamera implements Runnable {
 	
 	private BufferedImage lastImage;
 	
-	private Object captureLock = new Object();
 	
 	private Thread captureThread;
 	
@@ -151,14 +150,12 @@ public class VfwCamera extends ReferenceCamera implements Runnable {
 		height = (int) captureDevice.getVideoDimensions().getHeight();
 		
 		while (!Thread.interrupted()) {
+		    long timestamp = System.nanoTime();
 			int[] captureData = captureDevice.captureFrame();
 			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
 			image.setRGB(0, 0, width, height, captureData, 0, width);
 			lastImage = transformImage(image);
-			broadcastCapture(lastImage);
-			synchronized (captureLock) {
-				captureLock.notify();
-			}
+			publishFrame(lastImage, timestamp);
 			try {
 				Thread.sleep(1000 / 30);
 			}
@@ -169,17 +166,7 @@ public class VfwCamera extends ReferenceCamera implements Runnable {
 	
 	@Override
 	public BufferedImage capture() {
-		synchronized (captureLock) {
-			try {
-				captureLock.wait();
-				BufferedImage image = lastImage;
-				return image;
-			}
-			catch (Exception e) {
-				e.printStackTrace();
-				return null;
-			}
-		}
+	    return waitForImageAfter(System.nanoTime(), Long.MAX_VALUE);
 	}
 	
 	@Override
@@ -4,6 +4,11 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import javax.swing.Icon;
@@ -14,14 +19,31 @@ import jssc.SerialPortList;
 import jssc.SerialPortTimeoutException;
 
 import org.openpnp.machine.reference.ReferenceDriver;
+import org.openpnp.machine.reference.ReferenceHeadMountable;
 import org.openpnp.machine.reference.ReferencePasteDispenser;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.simpleframework.xml.Attribute;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 /**
  * A base class for basic SerialPort based Drivers. Includes functions
  * for connecting, disconnecting, reading and sending lines. 
+ * 
+ * Incoming data is read by a SerialLineReader as soon as jSSC reports it
+ * and split into lines, which are queued for readLine().
+ * 
+ * Commands are sent through a CommandPipeline, which matches every
+ * acknowledgement from the controller to the command it belongs to. The
+ * driver's reader thread must pass every line it reads to the pipeline.
+ * sendAndWait() sends a command and waits for its response, while
+ * streamCommand() sends without waiting, limited by maxCommandsInFlight
+ * and rxBufferSize.
+ * 
+ * Drivers can optionally stream motion commands. When streaming is enabled
+ * moves are sent with streamCommand(), so the controller's planner can
+ * look ahead across several moves, and waitForCompletion() is used as a
+ * barrier wherever the position of the machine has to be certain.
  */
 public abstract class AbstractSerialPortDriver implements ReferenceDriver, Closeable {
     private static final Logger logger = LoggerFactory.getLogger(AbstractSerialPortDriver.class);
@@ -30,11 +52,66 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
     protected String portName;
     @Attribute(required=false)
     protected int baud = 115200;
+    /**
+     * If true, drivers that support it stream motion commands instead of
+     * waiting for each one to complete. Off by default.
+     */
+    @Attribute(required=false)
+    protected boolean streaming = false;
+    /**
+     * Size of the controller's serial receive buffer in characters. Used to
+     * limit the number of characters in flight while streaming. 128 is the
+     * default for Grbl and most Arduino based firmwares.
+     */
+    @Attribute(required=false)
+    protected int rxBufferSize = 128;
+    /**
+     * The maximum number of commands sent to the controller and not yet
+     * acknowledged. 4 is the size of Marlin's default command buffer.
+     */
+    @Attribute(required=false)
+    protected int maxCommandsInFlight = 4;
+    /**
+     * How long to wait for the controller to acknowledge a command before
+     * giving up with a TimeoutException. Must be longer than the slowest
+     * command the controller acknowledges only once it is done, such as
+     * homing or a dwell after a long move. 0 waits forever.
+     */
+    @Attribute(required=false)
+    protected long commandTimeoutMs = 60000;
     
     protected SerialPort serialPort;
     protected SerialInputStream input;
     protected OutputStream output;
     
+    /**
+     * How long readLine() waits for a line before throwing a
+     * TimeoutException.
+     */
+    private static final int READ_TIMEOUT_MS = 500;
+    
+    private SerialLineReader lineReader;
+    private final BlockingQueue<ReceivedLine> receivedLines = new LinkedBlockingQueue<ReceivedLine>();
+    private volatile Exception readError;
+    
+    /**
+     * Reused by drivers to build commands such as moves without allocating.
+     * Only to be used from the thread that sends commands.
+     */
+    protected final CommandBuffer commandBuffer = new CommandBuffer();
+    private final CommandBuffer lineBuffer = new CommandBuffer();
+    
+    protected final CommandPipeline pipeline = new CommandPipeline(new CommandPipeline.Output() {
+        @Override
+        public void writeLine(CharSequence line) throws IOException {
+            AbstractSerialPortDriver.this.writeLine(line);
+        }
+    }, maxCommandsInFlight, rxBufferSize);
+    /**
+     * True if motion has been streamed since the last waitForCompletion().
+     */
+    protected volatile boolean motionPending;
+    
     protected synchronized void connect() throws Exception {
         disconnect();
         serialPort = new SerialPort(portName);
@@ -47,17 +124,160 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
                 false, 
                 false);
         input = new SerialInputStream(serialPort);
-        input.setTimeout(500);
+        input.setTimeout(READ_TIMEOUT_MS);
         output = new SerialOutputStream(serialPort);
+        
+        receivedLines.clear();
+        readError = null;
+        lineReader = new SerialLineReader(serialPort, new SerialLineReader.Listener() {
+            @Override
+            public void lineReceived(String line, long arrivedNanos) {
+                receivedLines.offer(new ReceivedLine(line, arrivedNanos));
+            }
+            
+            @Override
+            public void readFailed(Exception e) {
+                readError = e;
+            }
+        });
+        serialPort.setEventsMask(SerialPort.MASK_RXCHAR);
+        serialPort.addEventListener(lineReader);
+        
+        pipeline.setMaxCommands(maxCommandsInFlight);
+        pipeline.setMaxChars(rxBufferSize);
+        pipeline.setTimeoutMs(commandTimeoutMs);
     }
     
     protected synchronized void disconnect() throws Exception {
+        pipeline.abort(new Exception("Disconnected"));
+        motionPending = false;
+        if (lineReader != null && lineReader.getLinesDelivered() > 0) {
+            logger.debug("Received {} lines, latency mean {} us, max {} us", new Object[] {
+                    lineReader.getLinesDelivered(),
+                    (long) lineReader.getMeanLatencyMicros(),
+                    (long) lineReader.getMaxLatencyMicros() });
+        }
         if (serialPort != null && serialPort.isOpened()) {
+            // Also removes the SerialLineReader.
             serialPort.closePort();
             input = null;
             output = null;
             serialPort = null;
         }
+        lineReader = null;
+        receivedLines.clear();
+    }
+    
+    /**
+     * Sends the command and waits for the controller to acknowledge it.
+     * Returns every line received for the command, with the acknowledgement
+     * last. If command is null nothing is sent and the lines received
+     * while no command was in flight, such as a greeting after reset, are
+     * returned after waiting for timeout.
+     * 
+     * If the command is not acknowledged in time a TimeoutException is
+     * thrown. The command stays in the pipeline, so an acknowledgement that
+     * arrives late is still matched to it.
+     * 
+     * Drivers should pass commandTimeoutMs unless the command needs a
+     * timeout of its own.
+     * 
+     * @param command
+     * @param timeout Milliseconds to wait, or -1 or 0 to wait forever.
+     * @return
+     * @throws Exception
+     */
+    protected List<String> sendAndWait(CharSequence command, long timeout) throws Exception {
+        if (timeout == 0) {
+            timeout = -1;
+        }
+        if (command == null) {
+            Thread.sleep(Math.max(timeout, 0));
+            return pipeline.drainUnsolicited();
+        }
+        CommandPipeline.Command pending = pipeline.send(command);
+        try {
+            if (timeout == -1) {
+                return pending.get();
+            }
+            return pending.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            throw new TimeoutException(String.format("No response to %s within %d ms", command, timeout));
+        }
+        catch (ExecutionException e) {
+            throw new Exception("Failed to send " + command, e.getCause());
+        }
+    }
+    
+    /**
+     * Writes a command to the controller without waiting for it to be
+     * acknowledged. Blocks only while the pipeline is full, see
+     * maxCommandsInFlight and rxBufferSize. If the controller reports an
+     * error for the command it is thrown from the next command sent or
+     * from waitForCompletion().
+     * 
+     * @param command
+     * @throws Exception
+     */
+    protected void streamCommand(CharSequence command) throws Exception {
+        logger.debug(">> {}", command);
+        pipeline.send(command, true);
+        motionPending = true;
+    }
+    
+    /**
+     * Writes the command followed by a newline to the port in a single
+     * write. SerialOutputStream hands the line to the port in a reused
+     * array of exactly the line's length, so nothing is allocated per line.
+     * 
+     * @param command
+     * @throws IOException
+     */
+    protected void writeLine(CharSequence command) throws IOException {
+        OutputStream output = this.output;
+        if (output == null) {
+            throw new IOException("Not connected");
+        }
+        synchronized (lineBuffer) {
+            lineBuffer.clear().append(command).append('\n');
+            lineBuffer.writeTo(output);
+        }
+    }
+    
+    /**
+     * Moves through the path one segment at a time. Drivers that can send
+     * the whole path as a batch should override this.
+     */
+    @Override
+    public void moveAlong(ReferenceHeadMountable hm, List<Waypoint> path)
+            throws Exception {
+        for (Waypoint waypoint : path) {
+            moveTo(hm, waypoint.getLocation(), waypoint.getSpeed());
+        }
+    }
+    
+    /**
+     * Blocks until the controller has finished every motion streamed so
+     * far. Does nothing if no motion has been streamed since the last call.
+     */
+    @Override
+    public void waitForCompletion() throws Exception {
+        pipeline.drain();
+        if (motionPending) {
+            waitForMotion();
+            motionPending = false;
+        }
+    }
+    
+    /**
+     * Called by waitForCompletion() once every command has been
+     * acknowledged. Drivers that stream must override this to block until
+     * the controller's motion queue is empty, typically by sending a dwell.
+     * 
+     * @throws Exception
+     */
+    protected void waitForMotion() throws Exception {
     }
     
     @Override
@@ -68,6 +288,15 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
         // without breaking every driver in the wild.
     }
 
+    public long getCommandTimeoutMs() {
+        return commandTimeoutMs;
+    }
+
+    public void setCommandTimeoutMs(long commandTimeoutMs) {
+        this.commandTimeoutMs = commandTimeoutMs;
+        pipeline.setTimeoutMs(commandTimeoutMs);
+    }
+
     public String[] getPortNames() {
         return SerialPortList.getPortNames();
     }
@@ -77,34 +306,41 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
      * the read times out a TimeoutException is thrown. Any other failure
      * to read results in an IOExeption;
      * 
+     * Lines are read by the SerialLineReader as they arrive, so do not read
+     * from input directly.
+     * 
      * @return
      * @throws TimeoutException
      * @throws IOException
      */
     protected String readLine() throws TimeoutException, IOException {
-        StringBuffer line = new StringBuffer();
-        while (true) {
-            try {
-                int ch = input.read();
-                if (ch == -1) {
-                    return null;
-                }
-                else if (ch == '\n' || ch == '\r') {
-                    if (line.length() > 0) {
-                        return line.toString();
-                    }
-                }
-                else {
-                    line.append((char) ch);
-                }
-            }
-            catch (IOException ex) {
-                if (ex.getCause() instanceof SerialPortTimeoutException) {
-                    throw new TimeoutException(ex.getMessage());
-                }
-                throw ex;
+        ReceivedLine received;
+        try {
+            received = receivedLines.poll(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        if (received == null) {
+            if (readError != null) {
+                throw new IOException(readError);
             }
+            throw new TimeoutException("No line received in " + READ_TIMEOUT_MS + "ms");
         }
+        SerialLineReader lineReader = this.lineReader;
+        if (lineReader != null) {
+            lineReader.delivered(received.arrivedNanos);
+        }
+        return received.line;
+    }
+
+    /**
+     * Returns the reader for the current connection, which keeps the
+     * latency statistics, or null if not connected.
+     * @return
+     */
+    public SerialLineReader getLineReader() {
+        return lineReader;
     }
 
     @Override
@@ -133,12 +369,46 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
         this.baud = baud;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int getRxBufferSize() {
+        return rxBufferSize;
+    }
+
+    public void setRxBufferSize(int rxBufferSize) {
+        this.rxBufferSize = rxBufferSize;
+    }
+
+    public int getMaxCommandsInFlight() {
+        return maxCommandsInFlight;
+    }
+
+    public void setMaxCommandsInFlight(int maxCommandsInFlight) {
+        this.maxCommandsInFlight = maxCommandsInFlight;
+    }
+
     @Override
     public Icon getPropertySheetHolderIcon() {
         // TODO Auto-generated method stub
         return null;
     }
 
+    private static class ReceivedLine {
+        final String line;
+        final long arrivedNanos;
+        
+        ReceivedLine(String line, long arrivedNanos) {
+            this.line = line;
+            this.arrivedNanos = arrivedNanos;
+        }
+    }
+    
     /**
      * SerialInputStream and SerialOutputStream are from the pull request
      * referenced in:
@@ -341,9 +611,16 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
      * @author Charles Hache <chalz@member.fsf.org>
      *
      */
-    public class SerialOutputStream extends OutputStream {
+    public static class SerialOutputStream extends OutputStream {
+        /**
+         * Writes up to this length are copied into a reused array of
+         * exactly their length, since SerialPort.writeBytes() has no offset
+         * and length. Longer writes allocate.
+         */
+        private static final int MAX_REUSED_LENGTH = 256;
         
         SerialPort serialPort;
+        private final byte[][] buffers = new byte[MAX_REUSED_LENGTH + 1][];
 
         /** Instantiates a SerialOutputStream for the given {@link SerialPort}
          * Do not create multiple streams for the same serial port
@@ -370,9 +647,20 @@ public abstract class AbstractSerialPortDriver implements ReferenceDriver, Close
         }
         
         @Override
-        public void write(byte[] b, int off, int len) throws IOException {
-            byte[] buffer = new byte[len];
-            System.arraycopy(b, off, buffer, 0, len);
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            byte[] buffer = b;
+            if (off != 0 || len != b.length) {
+                if (len <= MAX_REUSED_LENGTH) {
+                    buffer = buffers[len];
+                    if (buffer == null) {
+                        buffer = buffers[len] = new byte[len];
+                    }
+                }
+                else {
+                    buffer = new byte[len];
+                }
+                System.arraycopy(b, off, buffer, 0, len);
+            }
             try {
                 serialPort.writeBytes(buffer);
             } catch (SerialPortException e) {
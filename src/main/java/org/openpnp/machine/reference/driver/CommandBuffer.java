@@ -0,0 +1,183 @@
+package org.openpnp.machine.reference.driver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A reusable, growable ASCII buffer for building G-code and JSON command
+ * lines without going through String.format and String.getBytes. Numbers
+ * are written directly as digits and the finished line is written to the
+ * port with a single write() call.
+ *
+ * append(double, int) produces exactly what
+ * String.format(Locale.US, "%.Nf", value) does, including rounding half up
+ * on the shortest decimal representation of the value, so 1.005 becomes
+ * 1.01 as it does with String.format.
+ *
+ * Not thread safe. Each driver keeps its own buffers and uses them from
+ * the thread that sends commands.
+ */
+public class CommandBuffer implements CharSequence {
+    private static final long[] POW10 = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+        100000000L, 1000000000L
+    };
+
+    /**
+     * Values at or above this, once scaled, fall back to String.format.
+     */
+    private static final double MAX_SCALED = 1e15;
+
+    private byte[] bytes;
+    private int length;
+
+    public CommandBuffer() {
+        this(128);
+    }
+
+    public CommandBuffer(int capacity) {
+        bytes = new byte[capacity];
+    }
+
+    public CommandBuffer clear() {
+        length = 0;
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    public CommandBuffer append(char c) {
+        ensureCapacity(length + 1);
+        bytes[length++] = (byte) c;
+        return this;
+    }
+
+    public CommandBuffer append(CharSequence s) {
+        if (s instanceof CommandBuffer) {
+            CommandBuffer other = (CommandBuffer) s;
+            ensureCapacity(length + other.length);
+            System.arraycopy(other.bytes, 0, bytes, length, other.length);
+            length += other.length;
+            return this;
+        }
+        int n = s.length();
+        ensureCapacity(length + n);
+        for (int i = 0; i < n; i++) {
+            bytes[length++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    public CommandBuffer append(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return append(Long.toString(value));
+            }
+            append('-');
+            value = -value;
+        }
+        appendDigits(value, 1);
+        return this;
+    }
+
+    /**
+     * Appends value with exactly the given number of decimals, 0 to 9.
+     * @param value
+     * @param decimals
+     * @return
+     */
+    public CommandBuffer append(double value, int decimals) {
+        double scaled = Math.abs(value) * POW10[decimals];
+        if (Double.isNaN(value) || Double.isInfinite(value) || scaled >= MAX_SCALED) {
+            return append(String.format(Locale.US, "%." + decimals + "f", value));
+        }
+        long units = (long) scaled;
+        // Formatter rounds the shortest decimal representation of the value
+        // half up. A value that prints as an exact tie, like 1.005, is
+        // stored a few ulps to either side of it, so treat anything that
+        // close to a tie as the tie.
+        if (scaled - units >= 0.5 - 4 * Math.ulp(scaled)) {
+            units++;
+        }
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            append('-');
+        }
+        appendDigits(units / POW10[decimals], 1);
+        if (decimals > 0) {
+            append('.');
+            appendDigits(units % POW10[decimals], decimals);
+        }
+        return this;
+    }
+
+    /**
+     * Appends a G-code word followed by a space, for instance X12.50 .
+     * @param letter
+     * @param value
+     * @param decimals
+     * @return
+     */
+    public CommandBuffer append(char letter, double value, int decimals) {
+        return append(letter).append(value, decimals).append(' ');
+    }
+
+    /**
+     * Writes the contents to the stream in a single write call.
+     * @param output
+     * @throws IOException
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(bytes, 0, length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return (char) bytes[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Appends a non negative value, zero padded to at least minDigits.
+     */
+    private void appendDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        ensureCapacity(length + digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+}
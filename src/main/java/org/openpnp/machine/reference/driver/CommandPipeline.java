@@ -0,0 +1,386 @@
+package org.openpnp.machine.reference.driver;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Matches the lines a controller sends back to the commands that were sent
+ * to it. Controllers such as Grbl, Marlin and TinyG acknowledge every
+ * command line exactly once and in order, with ok or error or, for TinyG,
+ * a JSON response. So the first unacknowledged command is always the one
+ * the next acknowledgement belongs to, and any other line received before
+ * that acknowledgement is part of its response.
+ *
+ * Every command sent gets a Command, which is a Future for the lines
+ * received for it. Several commands may be in flight at once, limited both
+ * by number and by the number of characters, so that the controller's
+ * receive buffer is never overrun.
+ *
+ * The driver's reader thread must pass every line through
+ * responseReceived() or acknowledged().
+ *
+ * A command can be sent detached, meaning nobody will wait for it, as is
+ * done when streaming moves. If a detached command fails the error is
+ * thrown from the next call to send() or drain() instead.
+ *
+ * If a timeout is set, send() and drain() give up waiting for
+ * acknowledgements after that long. Since the controller has then most
+ * likely lost a command, the pipeline is aborted with a TimeoutException,
+ * failing every command still in flight, and the TimeoutException is
+ * thrown.
+ */
+public class CommandPipeline {
+    public interface Output {
+        /**
+         * Writes the line, followed by a line ending, to the controller.
+         * @param line
+         * @throws IOException
+         */
+        void writeLine(CharSequence line) throws IOException;
+    }
+
+    /**
+     * At most this many unsolicited lines are kept, see drainUnsolicited().
+     */
+    private static final int MAX_UNSOLICITED = 100;
+
+    private final Output output;
+    /**
+     * Held while a command is added and written so that commands are
+     * written in the same order they are queued.
+     */
+    private final Object sendLock = new Object();
+    private final Deque<Command> inFlight = new ArrayDeque<Command>();
+    private final Deque<String> unsolicited = new ArrayDeque<String>();
+    private int inFlightChars;
+    private int maxCommands;
+    private int maxChars;
+    private long timeoutMs;
+    private Exception detachedError;
+
+    /**
+     * @param output
+     * @param maxCommands The maximum number of commands in flight.
+     * @param maxChars The maximum number of characters in flight, including
+     * line endings, or 0 for no limit. A single command longer than this
+     * is still sent once nothing else is in flight.
+     */
+    public CommandPipeline(Output output, int maxCommands, int maxChars) {
+        this.output = output;
+        this.maxCommands = maxCommands;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Sends the command and returns without waiting for it to be
+     * acknowledged. Blocks while the pipeline is full.
+     * @param line
+     * @return
+     * @throws Exception
+     */
+    public Command send(CharSequence line) throws Exception {
+        return send(line, false);
+    }
+
+    /**
+     * Sends the command, see send(CharSequence).
+     * @param line
+     * @param detached If true, an error acknowledgement for this command is
+     * thrown from the next call to send() or drain().
+     * @return
+     * @throws Exception
+     */
+    public Command send(CharSequence line, boolean detached) throws Exception {
+        Command command = new Command(line.length() + 1, detached);
+        synchronized (sendLock) {
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + timeoutMs;
+                while (!inFlight.isEmpty() && isFull(command.length)) {
+                    checkDetachedError();
+                    waitUntil(deadline, "room to send " + line);
+                }
+                checkDetachedError();
+                inFlight.addLast(command);
+                inFlightChars += command.length;
+            }
+            try {
+                output.writeLine(line);
+            }
+            catch (IOException e) {
+                synchronized (this) {
+                    if (inFlight.remove(command)) {
+                        inFlightChars -= command.length;
+                    }
+                    notifyAll();
+                }
+                command.fail(e);
+                throw e;
+            }
+        }
+        return command;
+    }
+
+    /**
+     * Called by the reader thread for every line that is not an
+     * acknowledgement. The line is added to the response of the oldest
+     * command in flight. If there is none it is kept as unsolicited.
+     * @param line
+     * @return True if the line belongs to a command.
+     */
+    public synchronized boolean responseReceived(String line) {
+        Command command = inFlight.peekFirst();
+        if (command == null) {
+            addUnsolicited(line);
+            return false;
+        }
+        command.responses.add(line);
+        return true;
+    }
+
+    /**
+     * Called by the reader thread for every acknowledgement. Completes the
+     * oldest command in flight with the line as its last response.
+     * @param line
+     * @param error True if the controller reported an error.
+     * @return The command that was acknowledged, or null if there was none
+     * in flight, in which case the line is kept as unsolicited.
+     */
+    public Command acknowledged(String line, boolean error) {
+        Command command;
+        synchronized (this) {
+            command = inFlight.pollFirst();
+            if (command == null) {
+                addUnsolicited(line);
+                return null;
+            }
+            inFlightChars -= command.length;
+            command.responses.add(line);
+            if (error && command.detached && detachedError == null) {
+                detachedError = new Exception("Controller reported an error: " + line);
+            }
+            notifyAll();
+        }
+        command.complete(error);
+        return command;
+    }
+
+    /**
+     * Blocks until every command sent so far has been acknowledged.
+     * @throws Exception
+     */
+    public synchronized void drain() throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!inFlight.isEmpty()) {
+            checkDetachedError();
+            waitUntil(deadline, "every command to be acknowledged");
+        }
+        checkDetachedError();
+    }
+
+    /**
+     * Fails every command in flight with the cause and forgets about them,
+     * so that any acknowledgement still to come for them will be treated
+     * as unsolicited. Also clears any pending detached error and
+     * unsolicited lines. Used on disconnect, and when the controller may
+     * have lost commands, such as while it resets.
+     * @param cause
+     */
+    public void abort(Exception cause) {
+        List<Command> commands;
+        synchronized (this) {
+            commands = new ArrayList<Command>(inFlight);
+            inFlight.clear();
+            inFlightChars = 0;
+            unsolicited.clear();
+            detachedError = null;
+            notifyAll();
+        }
+        for (Command command : commands) {
+            command.fail(cause);
+        }
+    }
+
+    /**
+     * Returns and clears the lines received while no command was in
+     * flight, such as a greeting sent after reset.
+     * @return
+     */
+    public synchronized List<String> drainUnsolicited() {
+        List<String> lines = new ArrayList<String>(unsolicited);
+        unsolicited.clear();
+        return lines;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    public synchronized int getMaxCommands() {
+        return maxCommands;
+    }
+
+    public synchronized void setMaxCommands(int maxCommands) {
+        this.maxCommands = maxCommands;
+        notifyAll();
+    }
+
+    public synchronized int getMaxChars() {
+        return maxChars;
+    }
+
+    public synchronized void setMaxChars(int maxChars) {
+        this.maxChars = maxChars;
+        notifyAll();
+    }
+
+    public synchronized long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Sets how long send() and drain() wait for acknowledgements before
+     * aborting the pipeline, or 0 to wait forever.
+     * @param timeoutMs
+     */
+    public synchronized void setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Waits to be notified. If the timeout is set and deadline has passed
+     * the pipeline is aborted and a TimeoutException is thrown instead.
+     */
+    private void waitUntil(long deadline, String waitingFor) throws Exception {
+        if (timeoutMs <= 0) {
+            wait();
+            return;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            TimeoutException e = new TimeoutException(String.format(
+                    "Timed out after %d ms waiting for %s", timeoutMs, waitingFor));
+            abort(e);
+            throw e;
+        }
+        wait(remaining);
+    }
+
+    private void addUnsolicited(String line) {
+        if (unsolicited.size() == MAX_UNSOLICITED) {
+            unsolicited.removeFirst();
+        }
+        unsolicited.addLast(line);
+    }
+
+    private boolean isFull(int length) {
+        return inFlight.size() >= maxCommands
+                || (maxChars > 0 && inFlightChars + length > maxChars);
+    }
+
+    private void checkDetachedError() throws Exception {
+        if (detachedError != null) {
+            Exception e = detachedError;
+            detachedError = null;
+            throw e;
+        }
+    }
+
+    /**
+     * A command that has been sent. Completes with every line received
+     * for it, the acknowledgement last, once it is acknowledged. Fails if
+     * the command could not be written or the pipeline is aborted.
+     */
+    public static class Command implements Future<List<String>> {
+        private final int length;
+        private final boolean detached;
+        private final List<String> responses = new ArrayList<String>();
+        private boolean done;
+        private boolean error;
+        private Exception failure;
+
+        private Command(int length, boolean detached) {
+            this.length = length;
+            this.detached = detached;
+        }
+
+        public boolean isDetached() {
+            return detached;
+        }
+
+        /**
+         * True if the controller acknowledged the command with an error.
+         * @return
+         */
+        public synchronized boolean isError() {
+            return error;
+        }
+
+        private synchronized void complete(boolean error) {
+            this.error = error;
+            done = true;
+            notifyAll();
+        }
+
+        private synchronized void fail(Exception failure) {
+            if (done) {
+                return;
+            }
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public synchronized List<String> get() throws InterruptedException,
+                ExecutionException {
+            while (!done) {
+                wait();
+            }
+            return result();
+        }
+
+        @Override
+        public synchronized List<String> get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!done) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return result();
+        }
+
+        private List<String> result() throws ExecutionException {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return responses;
+        }
+    }
+}
@@ -22,11 +22,7 @@
 package org.openpnp.machine.reference.driver;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -42,6 +38,7 @@ import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.driver.wizards.AbstractSerialPortDriverConfigurationWizard;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.PropertySheetHolder;
 import org.simpleframework.xml.Attribute;
 import org.slf4j.Logger;
@@ -59,12 +56,14 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
 	
 	
 	private double x, y, z, c;
+	/**
+	 * The position the last command returned by getMoveCommand() moves to.
+	 */
+	private double targetX, targetY, targetZ, targetC;
 	private Thread readerThread;
 	private boolean disconnectRequested;
-	private Object commandLock = new Object();
 	private boolean connected;
 	private long connectedBuildNumber;
-	private Queue<String> responseQueue = new ConcurrentLinkedQueue<String>();
 	
 	public GrblDriver() {
 	}
@@ -73,6 +72,7 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
 	public void actuate(ReferenceActuator actuator, boolean on)
 			throws Exception {
 		if (actuator.getIndex() == 0) {
+			waitForCompletion();
 			sendCommand(on ? "M8" : "M9");
 			dwell();
 		}
@@ -102,6 +102,46 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
     @Override
 	public void moveTo(ReferenceHeadMountable hm, Location location, double speed)
 			throws Exception {
+		CharSequence command = getMoveCommand(hm, location, speed);
+		if (command == null) {
+			return;
+		}
+		if (streaming) {
+			streamCommand(command);
+		}
+		else {
+			sendCommand(command);
+			dwell();
+		}
+		applyTarget();
+	}
+	
+	/**
+	 * Sends every segment of the path to Grbl without waiting for the
+	 * previous one to complete. Unless streaming, waits for the whole path
+	 * to complete before returning.
+	 */
+	@Override
+	public void moveAlong(ReferenceHeadMountable hm, List<Waypoint> path)
+			throws Exception {
+		for (Waypoint waypoint : path) {
+			CharSequence command = getMoveCommand(hm, waypoint.getLocation(), waypoint.getSpeed());
+			if (command != null) {
+				streamCommand(command);
+				applyTarget();
+			}
+		}
+		if (!streaming) {
+			waitForCompletion();
+		}
+	}
+	
+	/**
+	 * Returns the G1 command that moves the HeadMountable to the Location,
+	 * or null if no axis needs to move. The position it moves to is kept
+	 * until applyTarget() is called, once the command has been sent.
+	 */
+	private CharSequence getMoveCommand(ReferenceHeadMountable hm, Location location, double speed) {
         location = location.subtract(hm.getHeadOffsets());
 
         location = location.convertToUnits(LengthUnit.Millimeters);
@@ -111,36 +151,41 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
         double z = location.getZ();
         double c = location.getRotation();
         
-		StringBuffer sb = new StringBuffer();
+		CommandBuffer command = commandBuffer.clear().append("G1 ");
+		int empty = command.length();
 		if (!Double.isNaN(x) && x != this.x) {
-			sb.append(String.format(Locale.US, "X%2.2f ", x));
+			command.append('X', x, 2);
 		}
 		if (!Double.isNaN(y) && y != this.y) {
-			sb.append(String.format(Locale.US, "Y%2.2f ", y));
+			command.append('Y', y, 2);
 		}
 		if (!Double.isNaN(z) && z != this.z) {
-			sb.append(String.format(Locale.US, "Z%2.2f ", z));
+			command.append('Z', z, 2);
 		}
 		if (!Double.isNaN(c) && c != this.c) {
-			sb.append(String.format(Locale.US, "C%2.2f ", c));
+			command.append('C', c, 2);
 		}
-		if (sb.length() > 0) {
-			sb.append(String.format(Locale.US, "F%2.2f", feedRateMmPerMinute));
-			sendCommand("G1 " + sb.toString());
-			dwell();
+        targetX = Double.isNaN(x) ? this.x : x;
+        targetY = Double.isNaN(y) ? this.y : y;
+        targetZ = Double.isNaN(z) ? this.z : z;
+        targetC = Double.isNaN(c) ? this.c : c;
+		if (command.length() == empty) {
+			return null;
 		}
-        if (!Double.isNaN(x)) {
-            this.x = x;
-        }
-        if (!Double.isNaN(y)) {
-            this.y = y;
-        }
-        if (!Double.isNaN(z)) {
-            this.z = z;
-        }
-        if (!Double.isNaN(c)) {
-            this.c = c;
-        }
+		command.append('F').append(feedRateMmPerMinute, 2);
+		return command;
+	}
+
+	/**
+	 * Makes the position the last move command moves to the current
+	 * position. Only called once the command has been sent, so a move that
+	 * fails is not skipped as already done when it is retried.
+	 */
+	private void applyTarget() {
+		x = targetX;
+		y = targetY;
+		z = targetZ;
+		c = targetC;
 	}
 	
 	@Override
@@ -157,12 +202,14 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
 
 	@Override
 	public void pick(ReferenceNozzle nozzle) throws Exception {
+		waitForCompletion();
 		sendCommand("M4");
 		dwell();
 	}
 
 	@Override
 	public void place(ReferenceNozzle nozzle) throws Exception {
+		waitForCompletion();
 		sendCommand("M5");
 		dwell();
 	}
@@ -180,22 +227,25 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
 		 */
 		
 		List<String> responses;
-		synchronized (commandLock) {
-			// Start the reader thread with the commandLock held. This will
-			// keep the thread from quickly parsing any responses messages
-			// and notifying before we get a change to wait.
-			readerThread = new Thread(this);
-			readerThread.start();
-			// Wait up to 3 seconds for Grbl to say Hi
-			// If we get anything at this point it will have been the settings
-			// dump that is sent after reset.
-			responses = sendCommand(null, 3000);
-		}
+		readerThread = new Thread(this);
+		readerThread.start();
+		// Wait up to 3 seconds for Grbl to say Hi
+		// If we get anything at this point it will have been the settings
+		// dump that is sent after reset.
+		responses = sendCommand(null, 3000);
 
 		processConnectionResponses(responses);
 
 		for (int i = 0; i < 5 && !connected; i++) {
-			responses = sendCommand("$I", 5000);
+			try {
+				responses = sendCommand("$I", 5000);
+			}
+			catch (TimeoutException e) {
+				// Grbl may have missed the command while starting up, so
+				// start matching responses to commands from scratch.
+				pipeline.abort(e);
+				continue;
+			}
 			processConnectionResponses(responses);
 		}
 		
@@ -257,27 +307,16 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
 		disconnectRequested = false;
 	}
 
-	private List<String> sendCommand(String command) throws Exception {
-		return sendCommand(command, -1);
+	private List<String> sendCommand(CharSequence command) throws Exception {
+		return sendCommand(command, commandTimeoutMs);
 	}
 	
-	private List<String> sendCommand(String command, long timeout) throws Exception {
-		synchronized (commandLock) {
-			if (command != null) {
-				logger.debug("sendCommand({}, {})", command, timeout);
-				logger.debug(">> " + command);
-				output.write(command.getBytes());
-				output.write("\n".getBytes());
-			}
-			if (timeout == -1) {
-				commandLock.wait();
-			}
-			else {
-				commandLock.wait(timeout);
-			}
+	private List<String> sendCommand(CharSequence command, long timeout) throws Exception {
+		if (command != null) {
+			logger.debug("sendCommand({}, {})", command, timeout);
+			logger.debug(">> {}", command);
 		}
-		List<String> responses = drainResponseQueue();
-		return responses;
+		return sendAndWait(command, timeout);
 	}
 	
 	public void run() {
@@ -295,16 +334,21 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
 			}
 			line = line.trim();
 			logger.debug("<< " + line);
-			responseQueue.offer(line);
 			if (line.equals("ok") || line.startsWith("error: ")) {
 				// This is the end of processing for a command
-				synchronized (commandLock) {
-					commandLock.notify();
-				}
+				pipeline.acknowledged(line, line.startsWith("error: "));
+			}
+			else {
+				pipeline.responseReceived(line);
 			}
 		}
 	}
 
+	@Override
+	protected void waitForMotion() throws Exception {
+		dwell();
+	}
+
 	/**
 	 * Causes Grbl to block until all commands are complete.
 	 * @throws Exception
@@ -313,15 +357,6 @@ public class GrblDriver extends AbstractSerialPortDriver implements Runnable {
 		sendCommand("G4 P0");
 	}
 
-	private List<String> drainResponseQueue() {
-		List<String> responses = new ArrayList<String>();
-		String response;
-		while ((response = responseQueue.poll()) != null) {
-			responses.add(response);
-		}
-		return responses;
-	}
-	
     @Override
     public Wizard getConfigurationWizard() {
         return new AbstractSerialPortDriverConfigurationWizard(this);
@@ -71,10 +71,10 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Queue;
 import java.util.Scanner;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -89,6 +89,7 @@ import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.ReferencePasteDispenser;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.PropertySheetHolder;
 import org.simpleframework.xml.Attribute;
 import org.slf4j.Logger;
@@ -108,6 +109,12 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
     private int port = 502;
     @Attribute(required=false)
     private double feedRateMmPerMinute;
+    /**
+     * How long to wait for a response to a command before giving up with a
+     * TimeoutException. 0 waits forever.
+     */
+    @Attribute(required=false)
+    private long commandTimeoutMs = 60000;
 
     private double x, y, z, c;
     private Socket socket;
@@ -116,9 +123,12 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
     private Thread readerThread;
     private boolean disconnectRequested;
     private Object commandLock = new Object();
+    private long responseCount;
     private boolean connected;
     private double connectedVersion;
     private Queue<String> responseQueue = new ConcurrentLinkedQueue<String>();
+    private final CommandBuffer commandBuffer = new CommandBuffer();
+    private final CommandBuffer lineBuffer = new CommandBuffer();
     private final static int CONNECT_TIMOUT = 5; // 5 second time-out for
                                                  // connection
 
@@ -150,22 +160,23 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
         double z = location.getZ();
         double c = location.getRotation();
         
-        StringBuffer sb = new StringBuffer();
+        CommandBuffer command = commandBuffer.clear().append("set mdi G1 ");
+        int empty = command.length();
         if (!Double.isNaN(x) && x != this.x) {
-            sb.append(String.format(Locale.US, "X%2.2f ", x));
+            command.append('X', x, 2);
         }
         if (!Double.isNaN(y) && y != this.y) {
-            sb.append(String.format(Locale.US, "Y%2.2f ", y));
+            command.append('Y', y, 2);
         }
         if (!Double.isNaN(z) && z != this.z) {
-            sb.append(String.format(Locale.US, "Z%2.2f ", z));
+            command.append('Z', z, 2);
         }
         if (!Double.isNaN(c) && c != this.c) {
-            sb.append(String.format(Locale.US, "A%2.2f ", c));
+            command.append('A', c, 2);
         }
-        if (sb.length() > 0) {
-            sb.append(String.format(Locale.US, "F%2.2f", feedRateMmPerMinute * speed));
-            sendCommand("set mdi G1 " + sb.toString());
+        if (command.length() > empty) {
+            command.append('F').append(feedRateMmPerMinute * speed, 2);
+            sendCommand(command);
             dwell();
         }
         if (!Double.isNaN(x)) {
@@ -226,6 +237,18 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
         
     }
 
+    @Override
+    public void moveAlong(ReferenceHeadMountable hm, List<Waypoint> path)
+            throws Exception {
+        for (Waypoint waypoint : path) {
+            moveTo(hm, waypoint.getLocation(), waypoint.getSpeed());
+        }
+    }
+
+    @Override
+    public void waitForCompletion() throws Exception {
+    }
+
     @Override
     public void setEnabled(boolean enabled) throws Exception {
         if (enabled && !connected) {
@@ -335,24 +358,33 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
         disconnectRequested = false;
     }
 
-    private List<String> sendCommand(String command) throws Exception {
-        return sendCommand(command, -1);
+    private List<String> sendCommand(CharSequence command) throws Exception {
+        return sendCommand(command, commandTimeoutMs);
     }
 
-    private List<String> sendCommand(String command, long timeout)
+    private List<String> sendCommand(CharSequence command, long timeout)
             throws Exception {
         synchronized (commandLock) {
+            long expected = responseCount + 1;
             if (command != null) {
                 logger.debug("sendCommand({}, {})", command, timeout);
-                output.write(command.getBytes());
-                output.write("\r\n".getBytes());
-
+                lineBuffer.clear().append(command).append("\r\n").writeTo(output);
             }
-            if (timeout == -1) {
-                commandLock.wait();
-            }
-            else {
-                commandLock.wait(timeout);
+            long deadline = System.currentTimeMillis() + timeout;
+            while (responseCount < expected) {
+                if (timeout <= 0) {
+                    commandLock.wait();
+                    continue;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    if (command == null) {
+                        // Nothing was sent, so there is nothing to time out.
+                        break;
+                    }
+                    throw new TimeoutException(String.format("No response to %s within %d ms", command, timeout));
+                }
+                commandLock.wait(remaining);
             }
         }
         List<String> responses = drainResponseQueue();
@@ -365,6 +397,7 @@ public class LinuxCNC implements ReferenceDriver, Runnable {
             logger.debug(line);
             responseQueue.offer(line);
             synchronized (commandLock) {
+                responseCount++;
                 commandLock.notify();
 
             }
@@ -0,0 +1,76 @@
+package org.openpnp.machine.reference.driver;
+
+/**
+ * Computes how long a controller takes to make a move that starts and ends
+ * at rest, for the velocity profiles motion controllers commonly use. With
+ * no jerk limit the profile is trapezoidal: constant acceleration up to the
+ * maximum velocity, cruise, constant deceleration. With a jerk limit the
+ * acceleration itself ramps up and down, giving an S-curve.
+ *
+ * If the distance is too short to reach the maximum velocity the move
+ * accelerates to a lower peak velocity and decelerates straight away.
+ */
+public class MotionProfile {
+    /**
+     * Returns the time, in seconds, to move the distance from rest to rest.
+     * @param distance
+     * @param velocity The maximum velocity.
+     * @param acceleration The maximum acceleration, or 0 for unlimited.
+     * @param jerk The maximum jerk, or 0 for a trapezoidal profile.
+     * @return
+     */
+    public static double getMoveSeconds(double distance, double velocity,
+            double acceleration, double jerk) {
+        distance = Math.abs(distance);
+        if (distance == 0) {
+            return 0;
+        }
+        if (acceleration <= 0) {
+            return distance / velocity;
+        }
+        double accelerationSeconds = getAccelerationSeconds(velocity, acceleration, jerk);
+        // Accelerating and decelerating both cover velocity * time / 2
+        // since the profile is symmetrical.
+        if (distance >= velocity * accelerationSeconds) {
+            return distance / velocity + accelerationSeconds;
+        }
+        if (jerk <= 0) {
+            return 2 * Math.sqrt(distance / acceleration);
+        }
+        // Find the peak velocity for which accelerating and decelerating
+        // covers exactly the distance. The distance covered grows with the
+        // peak velocity, so bisect.
+        double low = 0;
+        double high = velocity;
+        for (int i = 0; i < 60; i++) {
+            double peak = (low + high) / 2;
+            if (peak * getAccelerationSeconds(peak, acceleration, jerk) < distance) {
+                low = peak;
+            }
+            else {
+                high = peak;
+            }
+        }
+        return 2 * getAccelerationSeconds((low + high) / 2, acceleration, jerk);
+    }
+
+    /**
+     * Returns the time, in seconds, to accelerate from rest to the velocity.
+     * @param velocity
+     * @param acceleration
+     * @param jerk The maximum jerk, or 0 for constant acceleration.
+     * @return
+     */
+    public static double getAccelerationSeconds(double velocity, double acceleration,
+            double jerk) {
+        if (jerk <= 0) {
+            return velocity / acceleration;
+        }
+        if (velocity * jerk >= acceleration * acceleration) {
+            // Ramps up to full acceleration, holds it, ramps down.
+            return velocity / acceleration + acceleration / jerk;
+        }
+        // Never reaches full acceleration.
+        return 2 * Math.sqrt(velocity / jerk);
+    }
+}
@@ -23,6 +23,7 @@ package org.openpnp.machine.reference.driver;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -39,6 +40,7 @@ import org.openpnp.machine.reference.ReferencePasteDispenser;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.PropertySheetHolder;
 import org.simpleframework.xml.Attribute;
@@ -276,6 +278,18 @@ public class NullDriver implements ReferenceDriver {
         Thread.sleep(dispenseTimeMilliseconds);
     }
 
+    @Override
+    public void moveAlong(ReferenceHeadMountable hm, List<Waypoint> path)
+            throws Exception {
+        for (Waypoint waypoint : path) {
+            moveTo(hm, waypoint.getLocation(), waypoint.getSpeed());
+        }
+    }
+
+    @Override
+    public void waitForCompletion() throws Exception {
+    }
+
     @Override
     public void setEnabled(boolean enabled) throws Exception {
         logger.debug("setEnabled({})", enabled);
@@ -318,7 +332,7 @@ public class NullDriver implements ReferenceDriver {
         return null;
     }
 
-    private void checkEnabled() throws Exception {
+    protected void checkEnabled() throws Exception {
         if (!enabled) {
             throw new Exception("Driver is not yet enabled!");
         }
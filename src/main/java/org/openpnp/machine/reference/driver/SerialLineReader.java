@@ -0,0 +1,173 @@
+package org.openpnp.machine.reference.driver;
+
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
+import jssc.SerialPortException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads lines from a SerialPort using jSSC's event notification instead of
+ * polling the port one byte at a time. Whenever bytes arrive, all of them
+ * are read in one call and copied into a fixed size ring buffer, which is
+ * then scanned for line endings. Each complete line is passed to the
+ * Listener on jSSC's event thread. Empty lines, as produced by CR LF line
+ * endings, are skipped.
+ *
+ * The time at which the first byte of each line arrived is passed along
+ * with the line so the time taken to deliver it can be measured, see
+ * delivered().
+ */
+public class SerialLineReader implements SerialPortEventListener {
+    private static final Logger logger = LoggerFactory.getLogger(SerialLineReader.class);
+
+    public interface Listener {
+        /**
+         * Called on the reader's thread for every complete line.
+         * @param line The line, without the line ending.
+         * @param arrivedNanos System.nanoTime() when the first byte of the
+         * line was read from the port.
+         */
+        void lineReceived(String line, long arrivedNanos);
+
+        /**
+         * Called if reading from the port fails.
+         * @param e
+         */
+        void readFailed(Exception e);
+    }
+
+    private final SerialPort serialPort;
+    private final Listener listener;
+    private final byte[] ring;
+    private final char[] chars;
+    /**
+     * Index of the first byte of the current, incomplete line.
+     */
+    private int head;
+    /**
+     * Number of bytes in the ring that belong to the current line.
+     */
+    private int count;
+    private long lineArrivedNanos;
+    private boolean overflowed;
+
+    private long linesDelivered;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    public SerialLineReader(SerialPort serialPort, Listener listener) {
+        this(serialPort, listener, 1024);
+    }
+
+    /**
+     * @param serialPort
+     * @param listener
+     * @param capacity The longest line that can be received. Longer lines
+     * are dropped with a warning.
+     */
+    public SerialLineReader(SerialPort serialPort, Listener listener, int capacity) {
+        this.serialPort = serialPort;
+        this.listener = listener;
+        this.ring = new byte[capacity];
+        this.chars = new char[capacity];
+    }
+
+    @Override
+    public void serialEvent(SerialPortEvent event) {
+        if (!event.isRXCHAR() || event.getEventValue() <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        try {
+            byte[] data = serialPort.readBytes(event.getEventValue());
+            if (data != null) {
+                received(data, data.length, now);
+            }
+        }
+        catch (SerialPortException e) {
+            listener.readFailed(e);
+        }
+    }
+
+    /**
+     * Adds bytes read from the port and delivers every line they complete.
+     * Called from serialEvent(), and directly by tests.
+     * @param data
+     * @param length
+     * @param arrivedNanos
+     */
+    public void received(byte[] data, int length, long arrivedNanos) {
+        for (int i = 0; i < length; i++) {
+            byte b = data[i];
+            if (b == '\n' || b == '\r') {
+                endLine();
+            }
+            else if (count == ring.length) {
+                if (!overflowed) {
+                    logger.warn("Line longer than {} bytes, dropping it", ring.length);
+                    overflowed = true;
+                }
+            }
+            else {
+                if (count == 0) {
+                    lineArrivedNanos = arrivedNanos;
+                }
+                ring[(head + count) % ring.length] = b;
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Records the delivery of a line to whoever processes it.
+     * @param arrivedNanos The arrival time that was passed to the Listener
+     * with the line.
+     */
+    public synchronized void delivered(long arrivedNanos) {
+        long latency = System.nanoTime() - arrivedNanos;
+        linesDelivered++;
+        totalLatencyNanos += latency;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+    }
+
+    public synchronized long getLinesDelivered() {
+        return linesDelivered;
+    }
+
+    /**
+     * Returns the mean time from the first byte of a line arriving to the
+     * line being delivered, in microseconds.
+     * @return
+     */
+    public synchronized double getMeanLatencyMicros() {
+        if (linesDelivered == 0) {
+            return 0;
+        }
+        return totalLatencyNanos / (double) linesDelivered / 1000.0;
+    }
+
+    public synchronized double getMaxLatencyMicros() {
+        return maxLatencyNanos / 1000.0;
+    }
+
+    private void endLine() {
+        if (overflowed) {
+            overflowed = false;
+        }
+        else if (count > 0) {
+            for (int i = 0; i < count; i++) {
+                chars[i] = (char) (ring[(head + i) % ring.length] & 0xff);
+            }
+            String line = new String(chars, 0, count);
+            head = (head + count) % ring.length;
+            count = 0;
+            listener.lineReceived(line, lineArrivedNanos);
+            return;
+        }
+        head = (head + count) % ring.length;
+        count = 0;
+    }
+}
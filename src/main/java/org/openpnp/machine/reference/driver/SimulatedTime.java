@@ -0,0 +1,91 @@
+package org.openpnp.machine.reference.driver;
+
+/**
+ * Accumulates the time a simulated machine spends on each kind of work.
+ * Used by TimedNullDriver to predict how long a job would take on the
+ * real machine.
+ */
+public class SimulatedTime {
+    public enum Category {
+        /**
+         * Moves limited by the X or Y axis.
+         */
+        Travel,
+        /**
+         * Moves limited by the Z axis.
+         */
+        Z,
+        /**
+         * Moves limited by the rotation axis.
+         */
+        Rotation,
+        /**
+         * Time the host spent between driver calls, such as waiting for the
+         * camera to settle and running vision.
+         */
+        Vision,
+        /**
+         * Pick, place, actuator and dispense times.
+         */
+        Dwell,
+    }
+
+    private final double[] seconds = new double[Category.values().length];
+    private long moves;
+
+    public synchronized void add(Category category, double seconds) {
+        this.seconds[category.ordinal()] += seconds;
+        if (category == Category.Travel || category == Category.Z
+                || category == Category.Rotation) {
+            moves++;
+        }
+    }
+
+    public synchronized double getSeconds(Category category) {
+        return seconds[category.ordinal()];
+    }
+
+    /**
+     * Returns the predicted duration, the sum of every category.
+     * @return
+     */
+    public synchronized double getTotalSeconds() {
+        double total = 0;
+        for (double s : seconds) {
+            total += s;
+        }
+        return total;
+    }
+
+    public synchronized long getMoves() {
+        return moves;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < seconds.length; i++) {
+            seconds[i] = 0;
+        }
+        moves = 0;
+    }
+
+    public synchronized SimulatedTime copy() {
+        SimulatedTime copy = new SimulatedTime();
+        System.arraycopy(seconds, 0, copy.seconds, 0, seconds.length);
+        copy.moves = moves;
+        return copy;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%.1f s for %d moves (", getTotalSeconds(), moves));
+        for (Category category : Category.values()) {
+            if (category.ordinal() > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format("%s %.1f s", category, seconds[category.ordinal()]));
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+}
@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.net.Socket;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 
 import javax.swing.Action;
@@ -41,6 +42,7 @@ import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.ReferencePasteDispenser;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.PropertySheetHolder;
 import org.simpleframework.xml.Attribute;
@@ -205,6 +207,18 @@ public class SimulatorDriver implements ReferenceDriver {
             long dispenseTimeMilliseconds) throws Exception {
     }
 
+    @Override
+    public void moveAlong(ReferenceHeadMountable hm, List<Waypoint> path)
+            throws Exception {
+        for (Waypoint waypoint : path) {
+            moveTo(hm, waypoint.getLocation(), waypoint.getSpeed());
+        }
+    }
+
+    @Override
+    public void waitForCompletion() throws Exception {
+    }
+
     @Override
     public void setEnabled(boolean enabled) throws Exception {
         logger.debug("setEnabled({})", enabled);
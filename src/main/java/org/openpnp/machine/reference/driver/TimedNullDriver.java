@@ -0,0 +1,378 @@
+package org.openpnp.machine.reference.driver;
+
+import org.openpnp.JobProcessorListener;
+import org.openpnp.machine.reference.ReferenceActuator;
+import org.openpnp.machine.reference.ReferenceHead;
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.machine.reference.ReferenceMachine;
+import org.openpnp.machine.reference.ReferenceNozzle;
+import org.openpnp.machine.reference.ReferencePasteDispenser;
+import org.openpnp.machine.reference.driver.SimulatedTime.Category;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.JobProcessor;
+import org.openpnp.spi.JobProcessor.JobState;
+import org.openpnp.spi.Machine;
+import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A NullDriver that takes as long as a real machine would. Every move is
+ * timed from the velocity, acceleration and jerk limits of each axis, as a
+ * controller that moves all axes together in a straight line would do it.
+ * Pick, place and actuator operations take a fixed time each.
+ *
+ * With a time-scale of 1 the driver runs in real time, and the head is
+ * shown moving while it does. With a larger time-scale it runs that many
+ * times faster, and with 0 it doesn't wait at all and only keeps count of
+ * the time that would have passed.
+ *
+ * While a job runs, the time is added up per category, see SimulatedTime,
+ * and when it stops the predicted duration of the job is logged. Time that
+ * passes between driver calls is counted as vision time, since that is
+ * where the job processor spends it.
+ *
+ * The feed-rate-mm-per-minute inherited from NullDriver is not used, other
+ * than 0 still disabling the simulated movement.
+ */
+public class TimedNullDriver extends NullDriver {
+    private final static Logger logger = LoggerFactory.getLogger(TimedNullDriver.class);
+
+    /**
+     * Real time passes this many times slower than simulated time, or not at
+     * all if 0.
+     */
+    @Attribute(required = false)
+    private double timeScale = 1;
+
+    @Attribute(required = false)
+    private long pickMilliseconds = 100;
+
+    @Attribute(required = false)
+    private long placeMilliseconds = 100;
+
+    @Attribute(required = false)
+    private long actuateMilliseconds = 50;
+
+    @Element(required = false)
+    private Axis x = new Axis(500, 3000, 0);
+
+    @Element(required = false)
+    private Axis y = new Axis(500, 3000, 0);
+
+    @Element(required = false)
+    private Axis z = new Axis(200, 2000, 0);
+
+    /**
+     * Degrees per second, per second squared and per second cubed.
+     */
+    @Element(required = false)
+    private Axis c = new Axis(1000, 10000, 0);
+
+    private final SimulatedTime jobTime = new SimulatedTime();
+    private SimulatedTime lastJobTime;
+    private JobState jobState = JobState.Stopped;
+    /**
+     * System.nanoTime() when the last driver call returned while a job was
+     * running, or 0.
+     */
+    private long idleSince;
+    private boolean listening;
+
+    private final JobProcessorListener jobProcessorListener = new JobProcessorListener.Adapter() {
+        @Override
+        public void jobStateChanged(JobState state) {
+            TimedNullDriver.this.jobStateChanged(state);
+        }
+    };
+
+    @Override
+    public void setEnabled(boolean enabled) throws Exception {
+        super.setEnabled(enabled);
+        if (enabled && !listening && Configuration.get() != null) {
+            Machine machine = Configuration.get().getMachine();
+            for (JobProcessor jobProcessor : machine.getJobProcessors().values()) {
+                jobProcessor.addListener(jobProcessorListener);
+            }
+            listening = true;
+        }
+    }
+
+    @Override
+    public void home(ReferenceHead head) throws Exception {
+        beginCall();
+        try {
+            checkEnabled();
+            simulateMove(head, getHeadLocation(head),
+                    new Location(LengthUnit.Millimeters, 0, 0, 0, 0), 1.0);
+            super.home(head);
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    @Override
+    public void moveTo(ReferenceHeadMountable hm, Location location, double speed)
+            throws Exception {
+        beginCall();
+        try {
+            super.moveTo(hm, location, speed);
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    @Override
+    protected void simulateMovement(ReferenceHeadMountable hm, Location location,
+            Location hl, double speed) throws Exception {
+        simulateMove(hm.getHead(), hl, location, speed);
+    }
+
+    @Override
+    public void pick(ReferenceNozzle nozzle) throws Exception {
+        logger.debug("pick({})", nozzle);
+        dwell(pickMilliseconds);
+    }
+
+    @Override
+    public void place(ReferenceNozzle nozzle) throws Exception {
+        logger.debug("place({})", nozzle);
+        dwell(placeMilliseconds);
+    }
+
+    @Override
+    public void actuate(ReferenceActuator actuator, double value) throws Exception {
+        logger.debug("actuate({}, {})", actuator, value);
+        dwell(actuateMilliseconds);
+    }
+
+    @Override
+    public void actuate(ReferenceActuator actuator, boolean on) throws Exception {
+        logger.debug("actuate({}, {})", actuator, on);
+        dwell(actuateMilliseconds);
+    }
+
+    @Override
+    public void dispense(ReferencePasteDispenser dispenser, Location startLocation,
+            Location endLocation, long dispenseTimeMilliseconds) throws Exception {
+        logger.debug("dispense({}, {}, {}, {})", new Object[] { dispenser,
+                startLocation, endLocation, dispenseTimeMilliseconds });
+        dwell(dispenseTimeMilliseconds);
+    }
+
+    /**
+     * Returns the time accumulated since the current or last job started.
+     * @return
+     */
+    public SimulatedTime getJobTime() {
+        return jobTime;
+    }
+
+    /**
+     * Returns the time accumulated by the last job that ran to the end or
+     * was stopped, or null if none has.
+     * @return
+     */
+    public synchronized SimulatedTime getLastJobTime() {
+        return lastJobTime;
+    }
+
+    public double getTimeScale() {
+        return timeScale;
+    }
+
+    public void setTimeScale(double timeScale) {
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * Returns the time, in seconds, the move between the two locations
+     * takes, in millimeters and degrees. Axes that are NaN in to don't move.
+     * @param from
+     * @param to
+     * @param speed The fraction of the maximum velocity to move at.
+     * @return
+     */
+    public double getMoveSeconds(Location from, Location to, double speed) {
+        return getMove(from, to, speed).seconds;
+    }
+
+    private void simulateMove(Head head, Location from, Location to, double speed)
+            throws Exception {
+        Move move = getMove(from, to, speed);
+        if (move.seconds == 0) {
+            return;
+        }
+        jobTime.add(move.category, move.seconds);
+        if (timeScale <= 0) {
+            return;
+        }
+        // Show the head moving. This interpolates linearly rather than
+        // following the velocity profile since it's only for display.
+        long durationNanos = (long) (move.seconds / timeScale * 1e9);
+        long start = System.nanoTime();
+        long elapsed;
+        while ((elapsed = System.nanoTime() - start) < durationNanos) {
+            double f = elapsed / (double) durationNanos;
+            setHeadLocation(head, from.derive(
+                    from.getX() + move.dx * f,
+                    from.getY() + move.dy * f,
+                    from.getZ() + move.dz * f,
+                    from.getRotation() + move.dc * f));
+            ((ReferenceMachine) Configuration.get().getMachine())
+                    .fireMachineHeadActivity(head);
+            sleepNanos(Math.min(durationNanos - elapsed, 50000000L));
+        }
+    }
+
+    private Move getMove(Location from, Location to, double speed) {
+        from = from.convertToUnits(LengthUnit.Millimeters);
+        to = to.convertToUnits(LengthUnit.Millimeters);
+        if (speed <= 0) {
+            speed = 1;
+        }
+        Move move = new Move();
+        move.dx = Double.isNaN(to.getX()) ? 0 : to.getX() - from.getX();
+        move.dy = Double.isNaN(to.getY()) ? 0 : to.getY() - from.getY();
+        move.dz = Double.isNaN(to.getZ()) ? 0 : to.getZ() - from.getZ();
+        move.dc = Double.isNaN(to.getRotation()) ? 0 : to.getRotation() - from.getRotation();
+        double[] deltas = { move.dx, move.dy, move.dz, move.dc };
+        Axis[] axes = { x, y, z, c };
+        Category[] categories = { Category.Travel, Category.Travel, Category.Z,
+                Category.Rotation };
+        double length = 0;
+        for (double d : deltas) {
+            length += d * d;
+        }
+        length = Math.sqrt(length);
+        if (length == 0) {
+            return move;
+        }
+        // Each axis limits the velocity, acceleration and jerk along the
+        // path in proportion to its share of the move. The move is
+        // attributed to the axis that would take longest to move alone.
+        double velocity = Double.MAX_VALUE;
+        double acceleration = Double.MAX_VALUE;
+        double jerk = Double.MAX_VALUE;
+        double slowest = -1;
+        for (int i = 0; i < deltas.length; i++) {
+            double share = Math.abs(deltas[i]) / length;
+            if (share == 0) {
+                continue;
+            }
+            Axis axis = axes[i];
+            velocity = Math.min(velocity, axis.velocity * speed / share);
+            if (axis.acceleration > 0) {
+                acceleration = Math.min(acceleration, axis.acceleration / share);
+            }
+            if (axis.jerk > 0) {
+                jerk = Math.min(jerk, axis.jerk / share);
+            }
+            double seconds = MotionProfile.getMoveSeconds(deltas[i],
+                    axis.velocity * speed, axis.acceleration, axis.jerk);
+            if (seconds > slowest) {
+                slowest = seconds;
+                move.category = categories[i];
+            }
+        }
+        move.seconds = MotionProfile.getMoveSeconds(length, velocity,
+                acceleration == Double.MAX_VALUE ? 0 : acceleration,
+                jerk == Double.MAX_VALUE ? 0 : jerk);
+        return move;
+    }
+
+    private void dwell(long milliseconds) throws Exception {
+        beginCall();
+        try {
+            checkEnabled();
+            jobTime.add(Category.Dwell, milliseconds / 1000.0);
+            if (timeScale > 0) {
+                sleepNanos((long) (milliseconds * 1e6 / timeScale));
+            }
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    private synchronized void beginCall() {
+        if (jobState == JobState.Running && idleSince != 0) {
+            jobTime.add(Category.Vision, (System.nanoTime() - idleSince) / 1e9);
+        }
+        idleSince = 0;
+    }
+
+    private synchronized void endCall() {
+        if (jobState == JobState.Running) {
+            idleSince = System.nanoTime();
+        }
+    }
+
+    private synchronized void jobStateChanged(JobState state) {
+        if (state == JobState.Running && jobState == JobState.Stopped) {
+            jobTime.reset();
+        }
+        else if (state == JobState.Stopped && jobState != JobState.Stopped) {
+            lastJobTime = jobTime.copy();
+            logger.info("Predicted job time {}", lastJobTime);
+        }
+        jobState = state;
+        idleSince = 0;
+    }
+
+    private static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        }
+    }
+
+    private static class Move {
+        double dx, dy, dz, dc;
+        double seconds;
+        Category category;
+    }
+
+    /**
+     * The limits of one axis, in millimeters, or degrees for rotation, per
+     * second, per second squared and per second cubed. An acceleration of 0
+     * means unlimited and a jerk of 0 means the axis accelerates at a
+     * constant rate.
+     */
+    public static class Axis {
+        @Attribute(required = false)
+        private double velocity;
+
+        @Attribute(required = false)
+        private double acceleration;
+
+        @Attribute(required = false)
+        private double jerk;
+
+        public Axis() {
+        }
+
+        public Axis(double velocity, double acceleration, double jerk) {
+            this.velocity = velocity;
+            this.acceleration = acceleration;
+            this.jerk = jerk;
+        }
+
+        public double getVelocity() {
+            return velocity;
+        }
+
+        public double getAcceleration() {
+            return acceleration;
+        }
+
+        public double getJerk() {
+            return jerk;
+        }
+    }
+}
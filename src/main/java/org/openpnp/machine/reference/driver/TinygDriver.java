@@ -22,7 +22,11 @@
 package org.openpnp.machine.reference.driver;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import javax.swing.Action;
@@ -36,6 +40,7 @@ import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.driver.wizards.TinygDriverConfigurationWizard;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.PropertySheetHolder;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
@@ -48,10 +53,12 @@ import com.google.gson.JsonSyntaxException;
 
 /**
  * TODO: Consider adding some type of heartbeat to the firmware.
- * TODO: The whole movement wait lock thing has to go. See if we can do a
- * P4 type command like the other drivers to wait for movement to complete.
- * Disabled axes don't send status reports, so movement wait lock never happens.
- * Probably short moves also won't.
+ * 
+ * Moves are written without waiting for the previous one to finish and
+ * their completion is tracked by a TinygMotionTracker from acknowledgements,
+ * queue reports and status reports. If no report arrives within
+ * statusPollMs while waiting for a move, a status report is requested, which
+ * covers moves on disabled axes that don't produce reports on their own.
  */
 public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
     private static final Logger logger = LoggerFactory
@@ -62,13 +69,26 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
     private double feedRateMmPerMinute = 5000;
     @Element(required = false)
     private Location homeLocation = new Location(LengthUnit.Millimeters);
+    /**
+     * How long to wait for a move to complete before failing.
+     */
+    @Attribute(required = false)
+    private long motionTimeoutMs = 30000;
+    /**
+     * How long to wait for TinyG to report on its own before asking for a
+     * status report while waiting for a move.
+     */
+    @Attribute(required = false)
+    private long statusPollMs = 250;
 
     private double x, y, z, c;
+    /**
+     * The position the last command returned by getMoveCommand() moves to.
+     */
+    private double targetX, targetY, targetZ, targetC;
     private Thread readerThread;
     private boolean disconnectRequested;
-    private Object commandLock = new Object();
-    private Object movementWaitLock = new Object();
-    private JsonObject lastResponse;
+    private TinygMotionTracker motionTracker = new TinygMotionTracker();
     private boolean connected;
     private double connectedVersion;
     private JsonParser parser = new JsonParser();
@@ -93,6 +113,9 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
             }
             catch (Exception e) {
                 logger.debug("Firmware version check failed", e);
+                // TinyG may have missed the command while starting up, so
+                // start matching responses to commands from scratch.
+                pipeline.abort(e);
             }
         }
 
@@ -128,6 +151,17 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
         // Reset all axes to 0, in case the firmware was not reset on
         // connect.
         sendCommand(String.format(Locale.US, "G92 X0 Y0 Z0 A0"));
+        
+        // Ask for queue reports and find out how many planner buffers are
+        // free while idle, which is what an empty planner reports.
+        try {
+            sendCommand("{\"qv\":1}");
+            JsonObject response = sendCommand("{\"qr\":\"\"}");
+            motionTracker.setPlannerSize(response.get("r").getAsJsonObject().get("qr").getAsInt());
+        }
+        catch (Exception e) {
+            logger.debug("Queue reports not available, using status reports only", e);
+        }
     }
 
     @Override
@@ -159,6 +193,86 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
     @Override
     public void moveTo(ReferenceHeadMountable hm, Location location,
             double speed) throws Exception {
+        CharSequence command = getMoveCommand(hm, location, speed);
+        if (command == null) {
+            return;
+        }
+        Future<Void> move = queueMove(command);
+        if (!streaming) {
+            waitForMove(move);
+        }
+        applyTarget();
+    }
+
+    /**
+     * Sends every segment of the path to TinyG without waiting for the
+     * previous one to complete. Unless streaming, waits for the whole path
+     * to complete before returning.
+     */
+    @Override
+    public void moveAlong(ReferenceHeadMountable hm, List<Waypoint> path)
+            throws Exception {
+        for (Waypoint waypoint : path) {
+            CharSequence command = getMoveCommand(hm, waypoint.getLocation(), waypoint.getSpeed());
+            if (command != null) {
+                queueMove(command);
+                applyTarget();
+            }
+        }
+        if (!streaming) {
+            waitForCompletion();
+        }
+    }
+
+    /**
+     * Writes a move to TinyG, limited only by its receive buffer, and returns
+     * a Future that completes when the move has finished.
+     */
+    protected Future<Void> queueMove(CharSequence command) throws Exception {
+        Future<Void> move = motionTracker.written();
+        try {
+            streamCommand(command);
+        }
+        catch (Exception e) {
+            motionTracker.abort(e);
+            throw e;
+        }
+        return move;
+    }
+
+    /**
+     * Waits for a move returned by queueMove() to finish, requesting a
+     * status report whenever TinyG has been quiet for statusPollMs. Throws
+     * if the move has not finished within motionTimeoutMs.
+     */
+    protected void waitForMove(Future<Void> move) throws Exception {
+        long deadline = System.currentTimeMillis() + motionTimeoutMs;
+        while (true) {
+            try {
+                move.get(statusPollMs, TimeUnit.MILLISECONDS);
+                return;
+            }
+            catch (ExecutionException e) {
+                throw new Exception("Move failed", e.getCause());
+            }
+            catch (TimeoutException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new Exception(String.format(
+                            "Move did not complete within %d ms", motionTimeoutMs));
+                }
+                // The response is handled by the reader thread.
+                sendCommand("{\"sr\":\"\"}");
+            }
+        }
+    }
+
+    /**
+     * Returns the G1 command that moves the HeadMountable to the Location,
+     * or null if no axis needs to move. The position it moves to is kept
+     * until applyTarget() is called, once the command has been sent.
+     */
+    private CharSequence getMoveCommand(ReferenceHeadMountable hm, Location location,
+            double speed) {
         location = location.subtract(hm.getHeadOffsets());
 
         location = location.convertToUnits(LengthUnit.Millimeters);
@@ -168,52 +282,52 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
         double z = location.getZ();
         double c = location.getRotation();
 
-        StringBuffer sb = new StringBuffer();
+        CommandBuffer command = commandBuffer.clear().append("G1 ");
+        int empty = command.length();
         if (!Double.isNaN(x) && x != this.x) {
-            sb.append(String.format(Locale.US, "X%2.2f ", x));
+            command.append('X', x, 2);
         }
         if (!Double.isNaN(y) && y != this.y) {
-            sb.append(String.format(Locale.US, "Y%2.2f ", y));
+            command.append('Y', y, 2);
         }
         if (!Double.isNaN(z) && z != this.z) {
-            sb.append(String.format(Locale.US, "Z%2.2f ", z));
+            command.append('Z', z, 2);
         }
         if (!Double.isNaN(c) && c != this.c) {
-            sb.append(String.format(Locale.US, "A%2.2f ", c));
-        }
-        if (sb.length() > 0) {
-            sb.append(String.format(Locale.US, "F%2.2f", feedRateMmPerMinute
-                    * speed));
-            // TODO: Move this type of op into it's own method
-            // sendCommandAndWaitForMovementComplete()
-            synchronized (movementWaitLock) {
-                JsonObject response = sendCommand("G1 " + sb.toString());
-                if (getResponseStatusCode(response) == 0) {
-                    waitForMovementComplete();
-                }
-            }
-        }
-        if (!Double.isNaN(x)) {
-            this.x = x;
-        }
-        if (!Double.isNaN(y)) {
-            this.y = y;
+            command.append('A', c, 2);
         }
-        if (!Double.isNaN(z)) {
-            this.z = z;
-        }
-        if (!Double.isNaN(c)) {
-            this.c = c;
+        targetX = Double.isNaN(x) ? this.x : x;
+        targetY = Double.isNaN(y) ? this.y : y;
+        targetZ = Double.isNaN(z) ? this.z : z;
+        targetC = Double.isNaN(c) ? this.c : c;
+        if (command.length() == empty) {
+            return null;
         }
+        command.append('F').append(feedRateMmPerMinute * speed, 2);
+        return command;
+    }
+
+    /**
+     * Makes the position the last move command moves to the current
+     * position. Only called once the command has been sent, so a move that
+     * fails is not skipped as already done when it is retried.
+     */
+    private void applyTarget() {
+        x = targetX;
+        y = targetY;
+        z = targetZ;
+        c = targetC;
     }
 
     @Override
     public void pick(ReferenceNozzle nozzle) throws Exception {
+        waitForCompletion();
         sendCommand("M4");
     }
 
     @Override
     public void place(ReferenceNozzle nozzle) throws Exception {
+        waitForCompletion();
         sendCommand("M5");
     }
 
@@ -228,6 +342,7 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
     public void actuate(ReferenceActuator actuator, boolean on)
             throws Exception {
         if (actuator.getIndex() == 0) {
+            waitForCompletion();
             sendCommand(on ? "M8" : "M9");
         }
     }
@@ -261,34 +376,20 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
         catch (Exception e) {
             logger.error("disconnect()", e);
         }
+        motionTracker.abort(new Exception("Disconnected"));
         disconnectRequested = false;
     }
 
-    public JsonObject sendCommand(String command) throws Exception {
-        return sendCommand(command, -1);
+    public JsonObject sendCommand(CharSequence command) throws Exception {
+        return sendCommand(command, commandTimeoutMs);
     }
 
-    public synchronized JsonObject sendCommand(String command, long timeout)
+    public JsonObject sendCommand(CharSequence command, long timeout)
             throws Exception {
-        JsonObject response;
-        synchronized (commandLock) {
-            lastResponse = null;
-            if (command != null) {
-                logger.debug("sendCommand({}, {})", command, timeout);
-                output.write(command.getBytes());
-                output.write("\n".getBytes());
-            }
-            if (timeout == -1) {
-                commandLock.wait();
-            }
-            else {
-                commandLock.wait(timeout);
-            }
-            response = lastResponse;
-        }
-        if (response == null) {
-            throw new Exception("Command did not return a response");
-        }
+        logger.debug("sendCommand({}, {})", command, timeout);
+        List<String> responses = sendAndWait(command, timeout);
+        // The acknowledgement is the last line, and the response itself.
+        JsonObject response = (JsonObject) parser.parse(responses.get(responses.size() - 1));
         int responseStatusCode = getResponseStatusCode(response);
         // TODO: Checking for 60 here (no movement) is a hack, but it gets the
         // job done for now. Later we should make it up to the sending command
@@ -322,10 +423,22 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
                     // {"sr":{"posx":0.000,"vel":7.75,"stat":3}}
                     processStatusReport(o.get("sr").getAsJsonObject());
                 }
+                else if (o.has("qr")) {
+                    // {"qr":28}
+                    motionTracker.queueReport(o.get("qr").getAsInt());
+                }
                 else if (o.has("r")) {
-                    lastResponse = o;
-                    synchronized (commandLock) {
-                        commandLock.notifyAll();
+                    // {"r":{"sr":{"posx":0.000,"stat":3}},"f":[1,0,10,2853]}
+                    JsonObject r = o.get("r").getAsJsonObject();
+                    if (r.has("sr")) {
+                        processStatusReport(r.get("sr").getAsJsonObject());
+                    }
+                    int statusCode = getResponseStatusCode(o);
+                    CommandPipeline.Command command = pipeline.acknowledged(line,
+                            statusCode != 0 && statusCode != 60);
+                    if (command != null && command.isDetached()) {
+                        // Acknowledgement for a streamed move
+                        motionTracker.acknowledged(statusCode == 0);
                     }
                 }
                 else if (o.has("er")) {
@@ -346,20 +459,20 @@ public class TinygDriver extends AbstractSerialPortDriver implements Runnable {
     private void processStatusReport(JsonObject o) {
         if (o.has("stat")) {
             int stat = o.get("stat").getAsInt();
-            if (stat == 3) {
-                synchronized (movementWaitLock) {
-                    movementWaitLock.notifyAll();
-                }
+            // 3 is stop and 4 is end, both mean the planner is empty.
+            if (stat == 3 || stat == 4) {
+                motionTracker.stopped();
             }
         }
     }
 
-    // TODO: If no movement is happening this will never return. We may want to
-    // have it issue a status report request now and then so it doesn't sit
-    // forever.
-    private void waitForMovementComplete() throws Exception {
-        synchronized (movementWaitLock) {
-            movementWaitLock.wait();
+    /**
+     * Waits for every move written so far to finish.
+     */
+    @Override
+    protected void waitForMotion() throws Exception {
+        for (Future<Void> move : motionTracker.getPending()) {
+            waitForMove(move);
         }
     }
 
@@ -0,0 +1,188 @@
+package org.openpnp.machine.reference.driver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tracks the completion of moves sent to TinyG. Every move gets a Future
+ * when it is written. The reader thread then reports what TinyG says about
+ * it and the Futures are completed from those reports:
+ *
+ * - A move acknowledged with a non zero status, such as 60 for a zero
+ * length move, never enters the planner and is complete as soon as it is
+ * acknowledged.
+ * - A queue report (qr) showing every planner buffer free means every
+ * acknowledged move has finished.
+ * - A status report with stat 3 (stop) or 4 (end) means the machine has
+ * stopped with an empty planner, so every move acknowledged before the
+ * report has finished.
+ *
+ * TinyG writes acknowledgements and reports in the order they happen, so
+ * these rules never complete a move that is still in the planner. Reports
+ * are not sent for moves on disabled axes, so callers waiting on a Future
+ * should poll for a status report if it takes too long.
+ */
+public class TinygMotionTracker {
+    private final Deque<Move> written = new ArrayDeque<Move>();
+    private final List<Move> queued = new ArrayList<Move>();
+    private int plannerSize;
+
+    /**
+     * Registers a move that is about to be written to TinyG. Must be called
+     * before the write so the acknowledgement can't arrive first.
+     * @return A Future that completes when the move has finished.
+     */
+    public synchronized Future<Void> written() {
+        Move move = new Move();
+        written.addLast(move);
+        return move;
+    }
+
+    /**
+     * Called when TinyG acknowledges the oldest unacknowledged move.
+     * @param queued True if TinyG accepted the move into its planner,
+     * false if it was rejected or had nothing to do.
+     */
+    public synchronized void acknowledged(boolean queued) {
+        Move move = written.pollFirst();
+        if (move == null) {
+            return;
+        }
+        if (queued) {
+            this.queued.add(move);
+        }
+        else {
+            move.complete(null);
+        }
+    }
+
+    /**
+     * Called for every queue report. Ignored until the planner size is known,
+     * see setPlannerSize().
+     * @param buffersAvailable
+     */
+    public synchronized void queueReport(int buffersAvailable) {
+        if (plannerSize > 0 && buffersAvailable >= plannerSize) {
+            completeQueued();
+        }
+    }
+
+    /**
+     * Called for every status report that reports the machine stopped.
+     */
+    public synchronized void stopped() {
+        completeQueued();
+    }
+
+    /**
+     * Fails every outstanding move, for instance when the connection is
+     * lost.
+     * @param cause
+     */
+    public synchronized void abort(Exception cause) {
+        for (Move move : written) {
+            move.complete(cause);
+        }
+        written.clear();
+        for (Move move : queued) {
+            move.complete(cause);
+        }
+        queued.clear();
+    }
+
+    /**
+     * Returns every move that has not yet completed, oldest first.
+     * @return
+     */
+    public synchronized List<Future<Void>> getPending() {
+        List<Future<Void>> pending = new ArrayList<Future<Void>>(queued);
+        pending.addAll(written);
+        return pending;
+    }
+
+    public synchronized int getPlannerSize() {
+        return plannerSize;
+    }
+
+    /**
+     * Sets the number of planner buffers TinyG has free when it is idle. This
+     * is the queue report value that means the planner is empty.
+     * @param plannerSize
+     */
+    public synchronized void setPlannerSize(int plannerSize) {
+        this.plannerSize = plannerSize;
+    }
+
+    private void completeQueued() {
+        for (Move move : queued) {
+            move.complete(null);
+        }
+        queued.clear();
+    }
+
+    private static class Move implements Future<Void> {
+        private boolean done;
+        private Exception failure;
+
+        synchronized void complete(Exception failure) {
+            if (done) {
+                return;
+            }
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public synchronized Void get() throws InterruptedException,
+                ExecutionException {
+            while (!done) {
+                wait();
+            }
+            return result();
+        }
+
+        @Override
+        public synchronized Void get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!done) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return result();
+        }
+
+        private Void result() throws ExecutionException {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return null;
+        }
+    }
+}
@@ -24,12 +24,17 @@ package org.openpnp.machine.reference.vision;
 
 
 import java.awt.Point;
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
 
 import javax.imageio.ImageIO;
 
@@ -43,13 +48,15 @@ import org.opencv.imgproc.Imgproc;
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.machine.reference.vision.wizards.OpenCvVisionProviderConfigurationWizard;
 import org.openpnp.model.Configuration;
+import org.openpnp.model.Length;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.model.Part;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Camera.Looking;
 import org.openpnp.spi.Nozzle;
-import org.openpnp.spi.VisionProvider;
+import org.openpnp.spi.PipelinedVisionProvider;
 import org.openpnp.util.ImageUtils;
 import org.openpnp.util.OpenCvUtils;
 import org.openpnp.util.VisionUtils;
@@ -57,7 +64,7 @@ import org.simpleframework.xml.Attribute;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class OpenCvVisionProvider implements VisionProvider {
+public class OpenCvVisionProvider implements PipelinedVisionProvider {
     private final static Logger logger = LoggerFactory
             .getLogger(OpenCvVisionProvider.class);
 
@@ -70,8 +77,45 @@ public class OpenCvVisionProvider implements VisionProvider {
     // it will recognize it.
     @Attribute(required = false)
     private String dummy;
+    
+    /**
+     * Number of times the image and template are halved for the coarse pass
+     * of a template match with an expected Location. 0 disables the coarse
+     * pass.
+     */
+    @Attribute(required = false)
+    private int pyramidLevels = 2;
+    
+    /**
+     * Minimum score a match must have.
+     */
+    private static final double MATCH_THRESHOLD = 0.7;
+    
+    /**
+     * Matches must score at least this fraction of the best match.
+     */
+    private static final double MATCH_CORRELATION = 0.85;
+    
+    /**
+     * Smallest template dimension, in pixels, the coarse pass may shrink
+     * the template to.
+     */
+    private static final int MIN_PYRAMID_TEMPLATE_SIZE = 8;
+    
+    /**
+     * Maximum number of coarse pass peaks that are refined at full
+     * resolution.
+     */
+    private static final int MAX_PYRAMID_CANDIDATES = 8;
 
     protected Camera camera;
+    
+    /**
+     * Grayscale Mats of the templates passed to getTemplateMatches, keyed by
+     * the template image itself so that entries go away with the image.
+     */
+    private final Map<BufferedImage, Mat> templateMats = 
+            Collections.synchronizedMap(new WeakHashMap<BufferedImage, Mat>());
 
     @Override
     public void setCamera(Camera camera) {
@@ -83,10 +127,16 @@ public class OpenCvVisionProvider implements VisionProvider {
         return new OpenCvVisionProviderConfigurationWizard(this);
     }
 
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+    public void setPyramidLevels(int pyramidLevels) {
+        this.pyramidLevels = pyramidLevels;
+    }
+
     protected Mat getCameraImage() {
-        BufferedImage image_ = camera.capture();
-        Mat image = OpenCvUtils.toMat(image_);
-        return image;
+        return OpenCvUtils.captureMat(camera, false);
     }
     
     /**
@@ -98,92 +148,342 @@ public class OpenCvVisionProvider implements VisionProvider {
      * @return
      */
     public List<TemplateMatch> getTemplateMatches(BufferedImage template) {
-        // TODO: ROI
-        BufferedImage image = camera.capture();
-        
-        // Convert the camera image and template image to the same type. This
-        // is required by the cvMatchTemplate call.
-        template = ImageUtils.convertBufferedImage(template,BufferedImage.TYPE_BYTE_GRAY);   
-        image = ImageUtils.convertBufferedImage(image, BufferedImage.TYPE_BYTE_GRAY);
-        
-        Mat templateMat = OpenCvUtils.toMat(template);
-        Mat imageMat = OpenCvUtils.toMat(image);
+        Mat imageMat = getCameraImage();
         Mat resultMat = new Mat();
+        Mat debugMat = null;
+        try {
+            // Convert the camera image and template image to the same type. This
+            // is required by the cvMatchTemplate call.
+            OpenCvUtils.toGray(imageMat);
+            Mat templateMat = getTemplateMat(template);
         
-        Imgproc.matchTemplate(imageMat, templateMat, resultMat, Imgproc.TM_CCOEFF_NORMED);
+            Imgproc.matchTemplate(imageMat, templateMat, resultMat, Imgproc.TM_CCOEFF_NORMED);
 
-        Mat debugMat = null;
-        if (logger.isDebugEnabled()) {
-            debugMat = imageMat.clone();        
-        }
+            if (logger.isDebugEnabled()) {
+                debugMat = imageMat.clone();        
+            }
         
-        MinMaxLocResult mmr = Core.minMaxLoc(resultMat);
-        double maxVal = mmr.maxVal;
+            MinMaxLocResult mmr = Core.minMaxLoc(resultMat);
+            double maxVal = mmr.maxVal;
         
-        // TODO: Externalize?
-        double threshold = 0.7f;
-        double corr = 0.85f;
+            // TODO: Externalize?
+            double threshold = MATCH_THRESHOLD;
+            double corr = MATCH_CORRELATION;
 
-        double rangeMin = Math.max(threshold, corr * maxVal);
-        double rangeMax = maxVal;
+            double rangeMin = Math.max(threshold, corr * maxVal);
+            double rangeMax = maxVal;
         
-        List<TemplateMatch> matches = new ArrayList<TemplateMatch>();
-        for (Point point : matMaxima(resultMat, rangeMin, rangeMax)) {
-            TemplateMatch match = new TemplateMatch();
-            int x = point.x;
-            int y = point.y;
-            match.score = resultMat.get(y, x)[0] / maxVal;
+            List<TemplateMatch> matches = new ArrayList<TemplateMatch>();
+            for (Point point : matMaxima(resultMat, rangeMin, rangeMax)) {
+                TemplateMatch match = new TemplateMatch();
+                int x = point.x;
+                int y = point.y;
+                match.score = resultMat.get(y, x)[0] / maxVal;
             
-            if (logger.isDebugEnabled()) {
-                Core.rectangle(
-                        debugMat, 
-                        new org.opencv.core.Point(x, y), 
-                        new org.opencv.core.Point(x + templateMat.cols(), y + templateMat.rows()), 
-                        new Scalar(255));
-                Core.putText(
-                        debugMat, 
-                        "" + match.score, 
-                        new org.opencv.core.Point(x + templateMat.cols(), y + templateMat.rows()),
-                        Core.FONT_HERSHEY_PLAIN,
-                        1.0,
-                        new Scalar(255));
-            }
+                if (logger.isDebugEnabled()) {
+                    Core.rectangle(
+                            debugMat, 
+                            new org.opencv.core.Point(x, y), 
+                            new org.opencv.core.Point(x + templateMat.cols(), y + templateMat.rows()), 
+                            new Scalar(255));
+                    Core.putText(
+                            debugMat, 
+                            "" + match.score, 
+                            new org.opencv.core.Point(x + templateMat.cols(), y + templateMat.rows()),
+                            Core.FONT_HERSHEY_PLAIN,
+                            1.0,
+                            new Scalar(255));
+                }
             
-            match.location = VisionUtils.getPixelLocation(
-                    camera, 
-                    x + (templateMat.cols() / 2), 
-                    y + (templateMat.rows() / 2));
-            matches.add(match);
+                match.location = VisionUtils.getPixelLocation(
+                        camera, 
+                        x + (templateMat.cols() / 2), 
+                        y + (templateMat.rows() / 2));
+                matches.add(match);
+            }
+        
+            Collections.sort(matches, new Comparator<TemplateMatch>() {
+                @Override
+                public int compare(TemplateMatch o1, TemplateMatch o2) {
+                    return ((Double) o2.score).compareTo(o1.score);
+                }
+            });
+        
+            saveDebugImage("template", templateMat);
+            saveDebugImage("camera", imageMat);
+            saveDebugImage("result", resultMat);
+            saveDebugImage("debug", debugMat);
+                
+            return matches;
         }
+        finally {
+            imageMat.release();
+            resultMat.release();
+            if (debugMat != null) {
+                debugMat.release();
+            }
+        }
+    }
+    
+    /**
+     * Matches the template only within the region of the image that can
+     * contain a match centered within searchRadius of expected. When the
+     * region is large enough compared to the template the match is done
+     * coarse to fine: the region and template are reduced pyramidLevels
+     * times, matched, and the best coarse peaks are then refined at full
+     * resolution in a window just larger than the template.
+     */
+    @Override
+    public List<TemplateMatch> getTemplateMatches(BufferedImage template, 
+            Location expected, Length searchRadius) {
+        Mat imageMat = getCameraImage();
+        Mat roiMat = null;
+        try {
+            OpenCvUtils.toGray(imageMat);
+            Mat templateMat = getTemplateMat(template);
+            int tw = templateMat.cols();
+            int th = templateMat.rows();
+        
+            // The region covers every position of the template whose center is
+            // within the search radius.
+            Point2D.Double center = VisionUtils.getLocationPixels(camera, expected);
+            double radius = VisionUtils.toPixels(searchRadius, camera);
+            int x1 = clamp((int) Math.floor(center.x - radius - tw / 2.0), 0, imageMat.cols());
+            int y1 = clamp((int) Math.floor(center.y - radius - th / 2.0), 0, imageMat.rows());
+            int x2 = clamp((int) Math.ceil(center.x + radius + tw / 2.0), 0, imageMat.cols());
+            int y2 = clamp((int) Math.ceil(center.y + radius + th / 2.0), 0, imageMat.rows());
+            List<TemplateMatch> matches = new ArrayList<TemplateMatch>();
+            if (x2 - x1 < tw || y2 - y1 < th) {
+                logger.debug("Search region is smaller than the template");
+                return matches;
+            }
+            // matMaxima needs a result of at least 3x3, so widen small regions
+            // where the image allows.
+            if (x2 - x1 < tw + 2) {
+                x2 = Math.min(imageMat.cols(), x1 + tw + 2);
+                x1 = Math.max(0, x2 - tw - 2);
+            }
+            if (y2 - y1 < th + 2) {
+                y2 = Math.min(imageMat.rows(), y1 + th + 2);
+                y1 = Math.max(0, y2 - th - 2);
+            }
+            roiMat = imageMat.submat(new Rect(x1, y1, x2 - x1, y2 - y1));
+        
+            int levels = 0;
+            while (levels < pyramidLevels
+                    && Math.min(tw, th) >> (levels + 1) >= MIN_PYRAMID_TEMPLATE_SIZE
+                    && roiMat.cols() > tw * 2 && roiMat.rows() > th * 2) {
+                levels++;
+            }
+        
+            long t = System.currentTimeMillis();
+            List<Candidate> candidates = levels == 0 
+                    ? matchTemplate(roiMat, templateMat) 
+                    : matchTemplatePyramid(roiMat, templateMat, levels);
+            logger.debug("Matched {}x{} template in {}x{} region with {} pyramid levels in {} ms", 
+                    new Object[] { tw, th, roiMat.cols(), roiMat.rows(), levels, System.currentTimeMillis() - t });
+        
+            double maxVal = 0;
+            for (Candidate candidate : candidates) {
+                maxVal = Math.max(maxVal, candidate.score);
+            }
+            double rangeMin = Math.max(MATCH_THRESHOLD, MATCH_CORRELATION * maxVal);
+            for (Candidate candidate : candidates) {
+                if (candidate.score < rangeMin) {
+                    continue;
+                }
+                TemplateMatch match = new TemplateMatch();
+                match.score = candidate.score / maxVal;
+                match.location = VisionUtils.getPixelLocation(
+                        camera, 
+                        x1 + candidate.x + (tw / 2), 
+                        y1 + candidate.y + (th / 2));
+                matches.add(match);
+            }
+        
+            Collections.sort(matches, new Comparator<TemplateMatch>() {
+                @Override
+                public int compare(TemplateMatch o1, TemplateMatch o2) {
+                    return ((Double) o2.score).compareTo(o1.score);
+                }
+            });
         
-        Collections.sort(matches, new Comparator<TemplateMatch>() {
+            saveDebugImage("roi", roiMat);
+        
+            return matches;
+        }
+        finally {
+            imageMat.release();
+            if (roiMat != null) {
+                roiMat.release();
+            }
+        }
+    }
+    
+    /**
+     * Returns the template as a grayscale Mat ready for matchTemplate,
+     * converting it only the first time a given template image is seen. The
+     * returned Mat is shared and must not be modified or released.
+     */
+    protected Mat getTemplateMat(BufferedImage template) {
+        Mat mat = templateMats.get(template);
+        if (mat == null) {
+            mat = OpenCvUtils.toMat(ImageUtils.convertBufferedImage(template, BufferedImage.TYPE_BYTE_GRAY));
+            templateMats.put(template, mat);
+        }
+        return mat;
+    }
+    
+    /**
+     * Full resolution match returning every local maximum.
+     */
+    private static List<Candidate> matchTemplate(Mat image, Mat template) {
+        Mat resultMat = new Mat();
+        try {
+            Imgproc.matchTemplate(image, template, resultMat, Imgproc.TM_CCOEFF_NORMED);
+            MinMaxLocResult mmr = Core.minMaxLoc(resultMat);
+            List<Candidate> candidates = new ArrayList<Candidate>();
+            for (Point point : resultMaxima(resultMat, MATCH_THRESHOLD, mmr.maxVal)) {
+                candidates.add(new Candidate(point.x, point.y, resultMat.get(point.y, point.x)[0]));
+            }
+            return candidates;
+        }
+        finally {
+            resultMat.release();
+        }
+    }
+    
+    /**
+     * Matches at 1 / 2^levels scale, then refines the strongest peaks at
+     * full resolution.
+     */
+    private static List<Candidate> matchTemplatePyramid(Mat image, Mat template, int levels) {
+        Mat coarseImage = new Mat();
+        Mat coarseTemplate = new Mat();
+        Mat coarseResult = new Mat();
+        List<Candidate> peaks = new ArrayList<Candidate>();
+        try {
+            // pyrDown writes a new buffer, so the same Mats can be reused
+            // from level to level.
+            Imgproc.pyrDown(image, coarseImage);
+            Imgproc.pyrDown(template, coarseTemplate);
+            for (int i = 1; i < levels; i++) {
+                Imgproc.pyrDown(coarseImage, coarseImage);
+                Imgproc.pyrDown(coarseTemplate, coarseTemplate);
+            }
+            Imgproc.matchTemplate(coarseImage, coarseTemplate, coarseResult, Imgproc.TM_CCOEFF_NORMED);
+            MinMaxLocResult mmr = Core.minMaxLoc(coarseResult);
+            
+            // The coarse scores are only used to rank peaks since reducing the
+            // image lowers them.
+            for (Point point : resultMaxima(coarseResult, MATCH_CORRELATION * mmr.maxVal, mmr.maxVal)) {
+                peaks.add(new Candidate(point.x, point.y, coarseResult.get(point.y, point.x)[0]));
+            }
+        }
+        finally {
+            coarseImage.release();
+            coarseTemplate.release();
+            coarseResult.release();
+        }
+        Collections.sort(peaks, new Comparator<Candidate>() {
             @Override
-            public int compare(TemplateMatch o1, TemplateMatch o2) {
-                return ((Double) o2.score).compareTo(o1.score);
+            public int compare(Candidate o1, Candidate o2) {
+                return Double.compare(o2.score, o1.score);
             }
         });
         
-        saveDebugImage("template", templateMat);
-        saveDebugImage("camera", imageMat);
-        saveDebugImage("result", resultMat);
-        saveDebugImage("debug", debugMat);
-                
-        return matches;
+        int scale = 1 << levels;
+        int margin = scale * 2;
+        int tw = template.cols();
+        int th = template.rows();
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        for (Candidate peak : peaks.subList(0, Math.min(peaks.size(), MAX_PYRAMID_CANDIDATES))) {
+            int wx1 = clamp(peak.x * scale - margin, 0, image.cols() - tw);
+            int wy1 = clamp(peak.y * scale - margin, 0, image.rows() - th);
+            int wx2 = clamp(peak.x * scale + margin + tw, wx1 + tw, image.cols());
+            int wy2 = clamp(peak.y * scale + margin + th, wy1 + th, image.rows());
+            Mat window = image.submat(new Rect(wx1, wy1, wx2 - wx1, wy2 - wy1));
+            Mat resultMat = new Mat();
+            MinMaxLocResult refined;
+            try {
+                Imgproc.matchTemplate(window, template, resultMat, Imgproc.TM_CCOEFF_NORMED);
+                refined = Core.minMaxLoc(resultMat);
+            }
+            finally {
+                resultMat.release();
+                window.release();
+            }
+            Candidate candidate = new Candidate(
+                    wx1 + (int) refined.maxLoc.x, 
+                    wy1 + (int) refined.maxLoc.y, 
+                    refined.maxVal);
+            // Neighbouring coarse peaks often refine to the same point.
+            if (!candidates.contains(candidate)) {
+                candidates.add(candidate);
+            }
+        }
+        return candidates;
+    }
+    
+    /**
+     * matMaxima() only finds points that have a lower neighbour on either
+     * side, so for results with fewer than 3 rows or columns the single
+     * best point is returned instead.
+     */
+    private static List<Point> resultMaxima(Mat result, double rangeMin, double rangeMax) {
+        if (result.cols() >= 3 && result.rows() >= 3) {
+            return matMaxima(result, rangeMin, rangeMax);
+        }
+        List<Point> points = new ArrayList<Point>();
+        MinMaxLocResult mmr = Core.minMaxLoc(result);
+        if (rangeMin <= mmr.maxVal && mmr.maxVal <= rangeMax) {
+            points.add(new Point((int) mmr.maxLoc.x, (int) mmr.maxLoc.y));
+        }
+        return points;
+    }
+    
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+    
+    private static class Candidate {
+        final int x;
+        final int y;
+        final double score;
+        
+        public Candidate(int x, int y, double score) {
+            this.x = x;
+            this.y = y;
+            this.score = score;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Candidate)) {
+                return false;
+            }
+            Candidate o = (Candidate) obj;
+            return x == o.x && y == o.y;
+        }
+        
+        @Override
+        public int hashCode() {
+            return x * 31 + y;
+        }
     }
     
     @Override
     public Point[] locateTemplateMatches(int roiX, int roiY, int roiWidth,
             int roiHeight, int coiX, int coiY, BufferedImage templateImage_)
             throws Exception {
-        BufferedImage cameraImage_ = camera.capture();
+        Mat cameraImage = getCameraImage();
         
         // Convert the camera image and template image to the same type. This
-        // is required by the cvMatchTemplate call.
-        templateImage_ = ImageUtils.convertBufferedImage(templateImage_,BufferedImage.TYPE_INT_ARGB);   
-        cameraImage_ = ImageUtils.convertBufferedImage(cameraImage_, BufferedImage.TYPE_INT_ARGB);
-        
-        Mat templateImage = OpenCvUtils.toMat(templateImage_);
-        Mat cameraImage = OpenCvUtils.toMat(cameraImage_);
+        // is required by the cvMatchTemplate call. Either may be gray, BGR
+        // or BGRA depending on where it came from, so both are made 8 bit
+        // gray.
+        toMatchable(cameraImage);
+        Mat templateImage = toMatchable(OpenCvUtils.toMat(templateImage_));
         Mat roiImage = new Mat(cameraImage, new Rect(roiX, roiY, roiWidth, roiHeight));
         
         // http://stackoverflow.com/questions/17001083/opencv-template-matching-example-in-android
@@ -204,10 +504,32 @@ public class OpenCvVisionProvider implements VisionProvider {
                 "locateTemplateMatches certainty %f at %f, %f", matchValue,
                 matchLoc.x, matchLoc.y));
         locateTemplateMatchesDebug(roiImage, templateImage, matchLoc);
+        
+        resultImage.release();
+        templateImage.release();
+        cameraImage.release();
 
         return new Point[] { new Point(((int) matchLoc.x) + roiX, ((int) matchLoc.y) + roiY) };
     }
     
+    /**
+     * Converts the Mat in place to a single channel 8 bit Mat.
+     * @param mat
+     * @return
+     */
+    private static Mat toMatchable(Mat mat) {
+        if (mat.channels() == 4) {
+            Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGRA2GRAY);
+        }
+        else if (mat.channels() == 3) {
+            Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGR2GRAY);
+        }
+        if (mat.depth() != CvType.CV_8U) {
+            mat.convertTo(mat, CvType.CV_8U);
+        }
+        return mat;
+    }
+    
     protected void saveDebugImage(String name, Mat mat) {
         if (logger.isDebugEnabled()) {
             try {
@@ -240,99 +562,127 @@ public class OpenCvVisionProvider implements VisionProvider {
         }
     }
 
+    /**
+     * Captures and processes in one go, so it does exactly the same work as
+     * the pipelined capturePartBottom().
+     */
     @Override
     public Location getPartBottomOffsets(Part part, Nozzle nozzle)
             throws Exception {
+        return capturePartBottom(part, nozzle).call();
+    } 
+
+    /**
+     * Moves the Nozzle to Safe-Z, then to the camera in X, Y at Safe-Z
+     * while rotating the part to 0 and finally lowers the part to the
+     * Camera's focal point in Z, keeping the rotation at 0.
+     */
+    private void moveToCamera(Nozzle nozzle) throws Exception {
+        nozzle.moveAlong(Arrays.asList(
+                Waypoint.safeZ(1.0),
+                new Waypoint(camera.getLocation().derive(null, null, Double.NaN, 0.0), 1.0),
+                new Waypoint(camera.getLocation().derive(null, null, null, Double.NaN), 1.0)));
+    }
+
+    /**
+     * Only the move to the camera, the capture and the return to Safe-Z
+     * happen here. Everything done with the image happens in the returned
+     * Callable, so a pipelined JobProcessor can move the next Nozzle
+     * meanwhile.
+     */
+    @Override
+    public Callable<Location> capturePartBottom(Part part, Nozzle nozzle)
+            throws Exception {
         if (camera.getLooking() != Looking.Up) {
             throw new Exception("Bottom vision only implemented for Up looking cameras");
         }
-
+        
         // Position the part above the center of the camera.
-        // First move to Safe-Z.
-        nozzle.moveToSafeZ(1.0);
-        // Then move to the camera in X, Y at Safe-Z and rotate the
-        // part to 0.
-        nozzle.moveTo(camera.getLocation().derive(null, null, Double.NaN, 0.0), 1.0);
-        // Then lower the part to the Camera's focal point in Z. Maintain the 
-        // part's rotation at 0.
-        nozzle.moveTo(camera.getLocation().derive(null, null, null, Double.NaN), 1.0);
+        moveToCamera(nozzle);
         // Grab an image.
-        BufferedImage image = camera.settleAndCapture();
-        // TODO: Do OpenCV magic
-        // Return the offsets. Make sure to convert them to real units instead
-        // of pixels. Use camera.getUnitsPerPixel().
-        
-        Thread.sleep(1000);
-
-        // rotate the nozzle to simulate the part being oriented
-        nozzle.moveTo(nozzle.getLocation().derive(null, null, null, 45.0), 1.0);
-        
-        Thread.sleep(1000);
+        final Mat image = OpenCvUtils.captureMat(camera, true);
         
         // Return to Safe-Z just to be safe.
         nozzle.moveToSafeZ(1.0);
-        return new Location(LengthUnit.Millimeters, 0, 0, 0, 0);
-    } 
+        
+        return new Callable<Location>() {
+            @Override
+            public Location call() throws Exception {
+                try {
+                    // TODO: Do OpenCV magic
+                    // Return the offsets. Make sure to convert them to real 
+                    // units instead of pixels. Use camera.getUnitsPerPixel().
+                    return new Location(LengthUnit.Millimeters, 0, 0, 0, 0);
+                }
+                finally {
+                    image.release();
+                }
+            }
+        };
+    }
     
     enum MinMaxState {
         BEFORE_INFLECTION,
         AFTER_INFLECTION
     }
     
-    static List<Point> matMaxima(Mat mat, double rangeMin,
+    /**
+     * Finds the local 2D maxima of a single channel Mat whose values are
+     * between rangeMin and rangeMax inclusive. Each row is scanned for row
+     * maxima, which are then rejected if a neighbour in the rows above or
+     * below or two columns back is greater, so that plateaus produce a
+     * single point.
+     * 
+     * The Mat is copied into a float[] with a single call and scanned in
+     * Java, rather than calling Mat.get once per pixel and neighbour.
+     */
+    public static List<Point> matMaxima(Mat mat, double rangeMin,
             double rangeMax) {
         List<Point> locations = new ArrayList<Point>();
 
-        int rEnd = mat.rows() - 1;
-        int cEnd = mat.cols() - 1;
+        int rows = mat.rows();
+        int cols = mat.cols();
+        int rEnd = rows - 1;
+        int cEnd = cols - 1;
+        
+        float[] d = toFloats(mat);
 
         // CHECK EACH ROW MAXIMA FOR LOCAL 2D MAXIMA
         for (int r = 0; r <= rEnd; r++) {
+            int row = r * cols;
+            int above = row - cols;
+            int below = row + cols;
             MinMaxState state = MinMaxState.BEFORE_INFLECTION;
-            double curVal = mat.get(r, 0)[0];
+            double curVal = d[row];
             for (int c = 1; c <= cEnd; c++) {
-                double val = mat.get(r, c)[0];
+                double val = d[row + c];
 
                 if (val == curVal) {
                     continue;
                 }
                 else if (curVal < val) {
-                    if (state == MinMaxState.BEFORE_INFLECTION) {
-                        // n/a
-                    }
-                    else {
-                        state = MinMaxState.BEFORE_INFLECTION;
-                    }
+                    state = MinMaxState.BEFORE_INFLECTION;
                 }
                 else { // curVal > val
                     if (state == MinMaxState.BEFORE_INFLECTION) {
                         if (rangeMin <= curVal && curVal <= rangeMax) { // ROW
                                                                         // MAXIMA
                             if (0 < r
-                                    && (mat.get(r - 1, c - 1)[0] >= curVal || mat
-                                            .get(r - 1, c)[0] >= curVal)) {
-                                // cout << "reject:r-1 " << r << "," << c-1 <<
-                                // endl;
+                                    && (d[above + c - 1] >= curVal || d[above + c] >= curVal)) {
                                 // - x x
                                 // - - -
                                 // - - -
                             }
                             else if (r < rEnd
-                                    && (mat.get(r + 1, c - 1)[0] > curVal || mat
-                                            .get(r + 1, c)[0] > curVal)) {
-                                // cout << "reject:r+1 " << r << "," << c-1 <<
-                                // endl;
+                                    && (d[below + c - 1] > curVal || d[below + c] > curVal)) {
                                 // - - -
                                 // - - -
                                 // - x x
                             }
                             else if (1 < c
-                                    && (0 < r
-                                            && mat.get(r - 1, c - 2)[0] >= curVal
-                                            || mat.get(r, c - 2)[0] > curVal || r < rEnd
-                                            && mat.get(r + 1, c - 2)[0] > curVal)) {
-                                // cout << "reject:c-2 " << r << "," << c-1 <<
-                                // endl;
+                                    && (0 < r && d[above + c - 2] >= curVal
+                                            || d[row + c - 2] > curVal 
+                                            || r < rEnd && d[below + c - 2] > curVal)) {
                                 // x - -
                                 // x - -
                                 // x - -
@@ -343,9 +693,6 @@ public class OpenCvVisionProvider implements VisionProvider {
                         }
                         state = MinMaxState.AFTER_INFLECTION;
                     }
-                    else {
-                        // n/a
-                    }
                 }
 
                 curVal = val;
@@ -355,28 +702,20 @@ public class OpenCvVisionProvider implements VisionProvider {
             if (state == MinMaxState.BEFORE_INFLECTION) {
                 if (rangeMin <= curVal && curVal <= rangeMax) { // ROW MAXIMA
                     if (0 < r
-                            && (mat.get(r - 1, cEnd - 1)[0] >= curVal || mat
-                                    .get(r - 1, cEnd)[0] >= curVal)) {
-                        // cout << "rejectEnd:r-1 " << r << "," << cEnd-1 <<
-                        // endl;
+                            && (d[above + cEnd - 1] >= curVal || d[above + cEnd] >= curVal)) {
                         // - x x
                         // - - -
                         // - - -
                     }
                     else if (r < rEnd
-                            && (mat.get(r + 1, cEnd - 1)[0] > curVal || mat
-                                    .get(r + 1, cEnd)[0] > curVal)) {
-                        // cout << "rejectEnd:r+1 " << r << "," << cEnd-1 <<
-                        // endl;
+                            && (d[below + cEnd - 1] > curVal || d[below + cEnd] > curVal)) {
                         // - - -
                         // - - -
                         // - x x
                     }
-                    else if (1 < r && mat.get(r - 1, cEnd - 2)[0] >= curVal
-                            || mat.get(r, cEnd - 2)[0] > curVal || r < rEnd
-                            && mat.get(r + 1, cEnd - 2)[0] > curVal) {
-                        // cout << "rejectEnd:cEnd-2 " << r << "," << cEnd-1 <<
-                        // endl;
+                    else if (1 < r && d[above + cEnd - 2] >= curVal
+                            || d[row + cEnd - 2] > curVal 
+                            || r < rEnd && d[below + cEnd - 2] > curVal) {
                         // x - -
                         // x - -
                         // x - -
@@ -389,5 +728,26 @@ public class OpenCvVisionProvider implements VisionProvider {
         }
 
         return locations;
-    }        
+    }
+    
+    /**
+     * Copies a single channel Mat into a row major float[] with one JNI
+     * call, converting and compacting it first if needed.
+     */
+    private static float[] toFloats(Mat mat) {
+        Mat m = mat;
+        if (m.type() != CvType.CV_32FC1) {
+            m = new Mat();
+            mat.convertTo(m, CvType.CV_32FC1);
+        }
+        else if (!m.isContinuous()) {
+            m = m.clone();
+        }
+        float[] data = new float[m.rows() * m.cols()];
+        m.get(0, 0, data);
+        if (m != mat) {
+            m.release();
+        }
+        return data;
+    }
 }
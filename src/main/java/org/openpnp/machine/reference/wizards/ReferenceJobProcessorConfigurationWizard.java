@@ -41,6 +41,7 @@ public class ReferenceJobProcessorConfigurationWizard extends
     private final ReferenceJobProcessor jobProcessor;
     private JPanel panelGeneral;
     private JCheckBox chckbxDemoMode;
+    private JCheckBox chckbxPipelined;
 
     public ReferenceJobProcessorConfigurationWizard(ReferenceJobProcessor jobProcessor) {
         this.jobProcessor = jobProcessor;
@@ -60,16 +61,24 @@ public class ReferenceJobProcessorConfigurationWizard extends
                 FormSpecs.RELATED_GAP_COLSPEC,
                 ColumnSpec.decode("default:grow"),},
             new RowSpec[] {
+                FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,}));
         
         chckbxDemoMode = new JCheckBox("Demo Mode?");
         panelGeneral.add(chckbxDemoMode, "2, 2");
+        
+        chckbxPipelined = new JCheckBox("Pipelined?");
+        chckbxPipelined.setToolTipText("Overlap planning and vision analysis with machine movement.");
+        panelGeneral.add(chckbxPipelined, "2, 4");
     }
 
     @Override
     public void createBindings() {
         addWrappedBinding(jobProcessor, "demoMode", chckbxDemoMode,
                 "selected");
+        addWrappedBinding(jobProcessor, "pipelined", chckbxPipelined,
+                "selected");
     }
 }
\ No newline at end of file
@@ -14,6 +14,7 @@ import org.openpnp.machine.reference.driver.MarlinDriver;
 import org.openpnp.machine.reference.driver.NullDriver;
 import org.openpnp.machine.reference.driver.SimulatorDriver;
 import org.openpnp.machine.reference.driver.SprinterDriver;
+import org.openpnp.machine.reference.driver.TimedNullDriver;
 import org.openpnp.machine.reference.driver.TinygDriver;
 
 import com.jgoodies.forms.layout.ColumnSpec;
@@ -51,6 +52,7 @@ public class ReferenceMachineConfigurationWizard extends
         comboBoxDriver.addItem(MarlinDriver.class.getCanonicalName());
         comboBoxDriver.addItem(SimulatorDriver.class.getCanonicalName());
         comboBoxDriver.addItem(SprinterDriver.class.getCanonicalName());
+        comboBoxDriver.addItem(TimedNullDriver.class.getCanonicalName());
         comboBoxDriver.addItem(TinygDriver.class.getCanonicalName());
         comboBoxDriver.addItem(OpenBuildsDriver.class.getCanonicalName());
         comboBoxDriver.addItem(org.firepick.driver.MarlinDriver.class.getCanonicalName());
@@ -21,14 +21,25 @@
 
 package org.openpnp.model;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Executors;
@@ -77,6 +88,28 @@ public class Configuration extends AbstractModelObject {
 	private Set<ConfigurationListener> listeners = Collections.synchronizedSet(new HashSet<ConfigurationListener>());
 	private File configurationDirectory;
 	private Preferences prefs;
+	private final Serializer serializer = createSerializer();
+	/**
+	 * Digest of the content last read from or written to each file, so that
+	 * files whose content hasn't changed are not rewritten.
+	 */
+	private final Map<File, byte[]> fileDigests = new HashMap<File, byte[]>();
+	/**
+	 * Parts are observable, so unlike the machine and packages they are
+	 * only serialized when one has been added, removed or changed.
+	 */
+	private boolean partsDirty;
+	private final PropertyChangeListener partListener = new PropertyChangeListener() {
+		@Override
+		public void propertyChange(PropertyChangeEvent evt) {
+			partsDirty = true;
+		}
+	};
+	/**
+	 * Milliseconds spent in each phase of the last load(), in order.
+	 */
+	private final LinkedHashMap<String, Double> loadTimes = new LinkedHashMap<String, Double>();
+	private boolean lastReadFromSnapshot;
 	
 	public static Configuration get() {
 		if (instance == null) {
@@ -200,7 +233,10 @@ public class Configuration extends AbstractModelObject {
 	}
 	
 	public synchronized void load() throws Exception {
+		long loadStart = System.nanoTime();
+		loadTimes.clear();
 		boolean forceSave = false;
+		boolean partsFromDefaults = false;
 		boolean overrideUserConfig = Boolean.getBoolean("overrideUserConfig");
 		
 		try {
@@ -229,8 +265,12 @@ public class Configuration extends AbstractModelObject {
 				file = File.createTempFile("parts", "xml");
 				FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/parts.xml"), file);
 				forceSave = true;
+				partsFromDefaults = true;
 			}
 			loadParts(file);
+			long t = System.nanoTime();
+			resolvePackages();
+			addLoadTime("resolve packages of " + parts.size() + " parts", t);
 		}
 		catch (Exception e) {
 			String message = e.getMessage();
@@ -261,9 +301,14 @@ public class Configuration extends AbstractModelObject {
 		
         loaded = true;
 
+        long t = System.nanoTime();
         for (ConfigurationListener listener : listeners) {
             listener.configurationLoaded(this);
         }
+        addLoadTime("configurationLoaded, " + listeners.size() + " listeners", t);
+        // Resolving packages above fires changes on every Part, which
+        // doesn't make them any different from what is in parts.xml.
+        partsDirty = partsFromDefaults;
 
         if (forceSave) {
 			logger.info("Defaults were loaded. Saving to configuration directory.");
@@ -271,11 +316,40 @@ public class Configuration extends AbstractModelObject {
 			save();
 		}
         
+		t = System.nanoTime();
 		for (ConfigurationListener listener : listeners) {
             listener.configurationComplete(this);
         }
+		addLoadTime("configurationComplete", t);
+		
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Double> entry : loadTimes.entrySet()) {
+			sb.append(String.format("\n  %8.1f ms %s", entry.getValue(), entry.getKey()));
+		}
+		logger.info("Configuration loaded in {} ms:{}", 
+				(System.nanoTime() - loadStart) / 1000000, sb);
 	}
 	
+	/**
+	 * Returns how many milliseconds each phase of the last load() took,
+	 * in the order they ran: reading each file, from its snapshot or its
+	 * XML, indexing the packages and parts, and calling the listeners.
+	 * @return
+	 */
+	public synchronized Map<String, Double> getLoadTimes() {
+		return new LinkedHashMap<String, Double>(loadTimes);
+	}
+	
+	private void addLoadTime(String phase, long startNanos) {
+		loadTimes.put(phase, (System.nanoTime() - startNanos) / 1e6);
+	}
+	
+	/**
+	 * Saves machine.xml, packages.xml and parts.xml. Each file is replaced
+	 * atomically, and only if its content has changed. parts.xml is not even
+	 * serialized unless a Part has been added, removed or modified.
+	 * @throws Exception
+	 */
 	public synchronized void save() throws Exception {
 		try {
 			saveMachine(new File(configurationDirectory, "machine.xml"));
@@ -290,7 +364,11 @@ public class Configuration extends AbstractModelObject {
 			throw new Exception("Error while saving packages.xml (" + e.getMessage() + ")", e);
 		}
 		try {
-			saveParts(new File(configurationDirectory, "parts.xml"));
+			File file = new File(configurationDirectory, "parts.xml");
+			if (partsDirty || !file.exists() 
+					|| (isSnapshotsEnabled() && !Snapshot.isCurrent(file, getFileDigest(file)))) {
+				saveParts(file);
+			}
 		}
 		catch (Exception e) {
 			throw new Exception("Error while saving parts.xml (" + e.getMessage() + ")", e);
@@ -336,12 +414,19 @@ public class Configuration extends AbstractModelObject {
 	    if (null == part.getId()) {
             throw new Error("Part with null Id cannot be added to Configuration.");
 	    }
-		parts.put(part.getId().toUpperCase(), part);
+		Part old = parts.put(part.getId().toUpperCase(), part);
+		if (old != null) {
+			old.removePropertyChangeListener(partListener);
+		}
+		part.addPropertyChangeListener(partListener);
+		partsDirty = true;
 		firePropertyChange("parts", null, parts);
 	}
 	
 	public void removePart(Part part) {
 	    parts.remove(part.getId());
+	    part.removePropertyChangeListener(partListener);
+	    partsDirty = true;
 	    firePropertyChange("parts", null, parts);
 	}
 	
@@ -357,8 +442,7 @@ public class Configuration extends AbstractModelObject {
 		if (!file.exists()) {
 			Board board = new Board(file);
 			board.setName(file.getName());
-			Serializer serializer = createSerializer();
-			serializer.write(board, file);
+			write(board, file);
 		}
 		file = file.getCanonicalFile();
 		if (boards.containsKey(file)) {
@@ -371,54 +455,55 @@ public class Configuration extends AbstractModelObject {
 	}
 	
 	private void loadMachine(File file) throws Exception {
-		Serializer serializer = createSerializer();
-		MachineConfigurationHolder holder = serializer.read(MachineConfigurationHolder.class, file);
+		long t = System.nanoTime();
+		MachineConfigurationHolder holder = read(MachineConfigurationHolder.class, file, false);
+		addLoadTime("read machine.xml", t);
 		machine = holder.machine;
 	}
 	
 	private void saveMachine(File file) throws Exception {
 		MachineConfigurationHolder holder = new MachineConfigurationHolder();
 		holder.machine = machine;
-		Serializer serializer = createSerializer();
-		serializer.write(holder, new ByteArrayOutputStream());
-		serializer.write(holder, file);
+		write(holder, file);
 	}
 	
 	private void loadPackages(File file) throws Exception {
-		Serializer serializer = createSerializer();
-		PackagesConfigurationHolder holder = serializer.read(PackagesConfigurationHolder.class, file);
+		long t = System.nanoTime();
+		PackagesConfigurationHolder holder = read(PackagesConfigurationHolder.class, file, true);
+		addLoadTime("read packages.xml" + (lastReadFromSnapshot ? " snapshot" : ""), t);
+		t = System.nanoTime();
 		for (Package pkg : holder.packages) {
 			addPackage(pkg);
 		}
+		addLoadTime("index " + holder.packages.size() + " packages", t);
 	}
 	
 	private void savePackages(File file) throws Exception {
-		Serializer serializer = createSerializer();
 		PackagesConfigurationHolder holder = new PackagesConfigurationHolder();
 		holder.packages = new ArrayList<Package>(packages.values());
-		serializer.write(holder, new ByteArrayOutputStream());
-		serializer.write(holder, file);
+		writeSnapshot(holder, file, write(holder, file));
 	}
 	
 	private void loadParts(File file) throws Exception {
-		Serializer serializer = createSerializer();
-		PartsConfigurationHolder holder = serializer.read(PartsConfigurationHolder.class, file);
+		long t = System.nanoTime();
+		PartsConfigurationHolder holder = read(PartsConfigurationHolder.class, file, true);
+		addLoadTime("read parts.xml" + (lastReadFromSnapshot ? " snapshot" : ""), t);
+		t = System.nanoTime();
 		for (Part part : holder.parts) {
 			addPart(part);
 		}
+		addLoadTime("index " + holder.parts.size() + " parts", t);
 	}
 	
 	private void saveParts(File file) throws Exception {
-		Serializer serializer = createSerializer();
 		PartsConfigurationHolder holder = new PartsConfigurationHolder();
 		holder.parts = new ArrayList<Part>(parts.values());
-		serializer.write(holder, new ByteArrayOutputStream());
-		serializer.write(holder, file);
+		writeSnapshot(holder, file, write(holder, file));
+		partsDirty = false;
 	}
 	
 	public Job loadJob(File file) throws Exception {
-		Serializer serializer = createSerializer();
-		Job job = serializer.read(Job.class, file);
+		Job job = read(Job.class, file, false);
 		job.setFile(file);
 		
 		// Once the Job is loaded we need to resolve any Boards that it
@@ -446,8 +531,14 @@ public class Configuration extends AbstractModelObject {
 		return job;
 	}
 	
+	/**
+	 * Saves the Job to the file, along with any of its Boards that have
+	 * unsaved changes. Other Boards and the configuration are not touched.
+	 * @param job
+	 * @param file
+	 * @throws Exception
+	 */
 	public void saveJob(Job job, File file) throws Exception {
-		Serializer serializer = createSerializer();
 		Set<Board> boards = new HashSet<Board>();
 		// Fix the paths to any boards in the Job
 		for (BoardLocation boardLocation : job.getBoardLocations()) {
@@ -464,32 +555,191 @@ public class Configuration extends AbstractModelObject {
 				boardLocation.setBoardFile(board.getFile().getAbsolutePath());
 			}
 		}
-		// Save any boards in the job
+		// Save any modified boards in the job
 		for (Board board : boards) {
-		    saveBoard(board);
+		    if (board.isDirty() || !board.getFile().exists()) {
+		        saveBoard(board);
+		    }
 		}
 		// Save the job
-		serializer.write(job, new ByteArrayOutputStream());
-		serializer.write(job, file);
+		write(job, file);
 		job.setFile(file);
 		job.setDirty(false);
 	}
 	
 	public void saveBoard(Board board) throws Exception {
-		Serializer serializer = createSerializer();
-		serializer.write(board, new ByteArrayOutputStream());
-		serializer.write(board, board.getFile());
+		writeSnapshot(board, board.getFile(), write(board, board.getFile()));
 		board.setDirty(false);
 	}
 	
 	private Board loadBoard(File file) throws Exception {
-		Serializer serializer = createSerializer();
-		Board board = serializer.read(Board.class, file);
+		long t = System.nanoTime();
+		Board board = read(Board.class, file, true);
+		logger.debug("Read {}{} in {} ms", new Object[] { file, 
+				lastReadFromSnapshot ? " snapshot" : "", (System.nanoTime() - t) / 1000000 });
 		board.setFile(file);
+		resolveParts(board);
 		board.setDirty(false);
 		return board;
 	}
 	
+	/**
+	 * Reads the file, or its Snapshot if useSnapshot is true and it has a
+	 * current one.
+	 * @param type
+	 * @param file
+	 * @param useSnapshot
+	 * @return
+	 * @throws Exception
+	 */
+	private <T> T read(Class<T> type, File file, boolean useSnapshot) throws Exception {
+		lastReadFromSnapshot = false;
+		if (useSnapshot && isSnapshotsEnabled()) {
+			try {
+				Snapshot snapshot = Snapshot.open(file);
+				if (snapshot != null) {
+					T value = snapshot.read(type);
+					synchronized (fileDigests) {
+						fileDigests.put(file.getAbsoluteFile(), snapshot.getXmlDigest());
+					}
+					lastReadFromSnapshot = true;
+					return value;
+				}
+			}
+			catch (Exception e) {
+				logger.warn("Unable to read the snapshot of {}, reading the XML instead ({})",
+						file, e.toString());
+			}
+		}
+		byte[] content = Files.readAllBytes(file.toPath());
+		T value = serializer.read(type, new ByteArrayInputStream(content));
+		synchronized (fileDigests) {
+			fileDigests.put(file.getAbsoluteFile(), digest(content, content.length));
+		}
+		return value;
+	}
+	
+	/**
+	 * Returns the digest of what was last read from or written to the file,
+	 * or null if it hasn't been read or written.
+	 * @param file
+	 * @return
+	 */
+	private byte[] getFileDigest(File file) {
+		synchronized (fileDigests) {
+			return fileDigests.get(file.getAbsoluteFile());
+		}
+	}
+	
+	/**
+	 * Links every Part that doesn't have a Package yet to the Package with
+	 * the id it was saved with, in one pass over the parts.
+	 */
+	private void resolvePackages() {
+		for (Part part : parts.values()) {
+			if (part.getPackage() == null && part.getPackageId() != null) {
+				part.setPackage(getPackage(part.getPackageId()));
+			}
+		}
+	}
+	
+	/**
+	 * Links every Placement on the Board that doesn't have a Part yet to
+	 * the Part with the id it was saved with.
+	 * @param board
+	 */
+	private void resolveParts(Board board) {
+		for (Placement placement : board.getPlacements()) {
+			if (placement.getPart() == null) {
+				placement.setPart(getPart(placement.getPartId()));
+			}
+		}
+	}
+	
+	/**
+	 * Serializes the object to the file. Nothing is written if the result is
+	 * the same as what was last read from or written to the file. Otherwise
+	 * it is written to a temporary file next to the file, which then
+	 * replaces the file, so the file is never left partly written, even if
+	 * serialization fails.
+	 * @param source
+	 * @param file
+	 * @return The digest of the serialized content.
+	 * @throws Exception
+	 */
+	private byte[] write(Object source, File file) throws Exception {
+		ContentBuffer content = new ContentBuffer();
+		serializer.write(source, content);
+		file = file.getAbsoluteFile();
+		byte[] digest = digest(content.getBuffer(), content.size());
+		synchronized (fileDigests) {
+			if (file.exists() && Arrays.equals(digest, fileDigests.get(file))) {
+				return digest;
+			}
+		}
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				content.writeTo(out);
+				out.getFD().sync();
+			}
+			finally {
+				out.close();
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			temp.delete();
+		}
+		synchronized (fileDigests) {
+			fileDigests.put(file, digest);
+		}
+		return digest;
+	}
+	
+	/**
+	 * Brings the file's Snapshot up to date. Failing to is not an error since
+	 * the XML has already been saved, so it is only logged.
+	 * @param root
+	 * @param file
+	 * @param digest The digest returned by write() for root.
+	 */
+	private void writeSnapshot(Object root, File file, byte[] digest) {
+		if (!isSnapshotsEnabled()) {
+			Snapshot.delete(file);
+			return;
+		}
+		try {
+			Snapshot.write(root, file, digest);
+		}
+		catch (Exception e) {
+			logger.warn("Unable to write a snapshot of " + file, e);
+		}
+	}
+	
+	/**
+	 * Snapshots are used unless the disableSnapshots system property is set.
+	 * @return
+	 */
+	private static boolean isSnapshotsEnabled() {
+		return !Boolean.getBoolean("disableSnapshots");
+	}
+	
+	private static byte[] digest(byte[] content, int length) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("MD5");
+		md.update(content, 0, length);
+		return md.digest();
+	}
+	
 	public static Serializer createSerializer() {
 		Style style = new HyphenStyle();
 		Format format = new Format(style);
@@ -502,6 +752,19 @@ public class Configuration extends AbstractModelObject {
         return UUID.randomUUID().toString();
     }	
 	
+	/**
+	 * Gives access to the buffer so it can be digested without a copy.
+	 */
+	private static class ContentBuffer extends ByteArrayOutputStream {
+		public ContentBuffer() {
+			super(64 * 1024);
+		}
+		
+		public byte[] getBuffer() {
+			return buf;
+		}
+	}
+	
 	/**
 	 * Used to provide a fixed root for the Machine when serializing. 
 	 */
@@ -21,7 +21,6 @@
 
 package org.openpnp.model;
 
-import org.openpnp.ConfigurationListener;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.core.Persist;
 
@@ -53,15 +52,6 @@ public class Part extends AbstractModelObject implements Identifiable {
 	
 	public Part(String id) {
 		this.id = id;
-		Configuration.get().addListener(new ConfigurationListener.Adapter() {
-            @Override
-            public void configurationLoaded(Configuration configuration)
-                    throws Exception {
-                if (getPackage() == null) {
-                    setPackage(configuration.getPackage(packageId));
-                }
-            }
-		});
 	}
 	
 	@Persist
@@ -73,6 +63,15 @@ public class Part extends AbstractModelObject implements Identifiable {
 	public String getId() {
 		return id;
 	}
+	
+	/**
+	 * The id of the Package as it was read, used by Configuration to
+	 * resolve the Package once all of them have been loaded.
+	 * @return
+	 */
+	String getPackageId() {
+		return packageId;
+	}
 
 	public String getName() {
 		return name;
@@ -91,9 +91,6 @@ public class Placement extends AbstractModelObject implements Identifiable {
 	@Commit
 	private void commit() {
 		setLocation(location);
-        if (getPart() == null) {
-            setPart(Configuration.get().getPart(partId));
-        }
         
         if (version == 1.0) {
             if (place != null && !place) {
@@ -116,6 +113,15 @@ public class Placement extends AbstractModelObject implements Identifiable {
 	public String getId() {
 		return id;
 	}
+	
+	/**
+	 * The id of the Part as it was read, used by Configuration to resolve
+	 * the Part when the Board is loaded.
+	 * @return
+	 */
+	String getPartId() {
+		return partId;
+	}
 
 	public Location getLocation() {
 		return location;
@@ -0,0 +1,518 @@
+package org.openpnp.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.Element;
+import org.simpleframework.xml.ElementList;
+import org.simpleframework.xml.ElementListUnion;
+import org.simpleframework.xml.Transient;
+import org.simpleframework.xml.Version;
+import org.simpleframework.xml.core.Commit;
+import org.simpleframework.xml.core.Persist;
+
+/**
+ * A compact binary copy of the objects in an XML file, kept next to it with
+ * a .snapshot suffix. Reading a snapshot is much faster than reading the XML
+ * since there is no XML to parse and no text to convert.
+ *
+ * The XML remains the source of truth. A snapshot records the length,
+ * modification time and digest of the XML file it was written for, and is
+ * only used while the XML file still has the same length and modification
+ * time. Since modification times can be as coarse as a second, saving
+ * compares the digest as well, so a change that keeps the length and lands
+ * in the same second still replaces the snapshot.
+ *
+ * Objects are written by walking the same SimpleXML annotated fields that
+ * the XML is made from, and @Persist and @Commit methods are called just as
+ * SimpleXML calls them. The field names of each class are stored in the
+ * snapshot, so a snapshot written before a model class changed either still
+ * reads correctly or fails to read, in which case the XML should be used.
+ */
+public class Snapshot {
+    public static final String SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x4f50534e;
+    private static final int FORMAT = 1;
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int BOOLEAN = 5;
+    private static final int ENUM = 6;
+    private static final int LIST = 7;
+    private static final int OBJECT = 8;
+
+    private static final Map<Class<?>, ClassInfo> classInfos = Collections
+            .synchronizedMap(new HashMap<Class<?>, ClassInfo>());
+
+    private final File file;
+    private final byte[] xmlDigest;
+    private final DataInputStream in;
+
+    private Snapshot(File file, byte[] xmlDigest, DataInputStream in) {
+        this.file = file;
+        this.xmlDigest = xmlDigest;
+        this.in = in;
+    }
+
+    public static File getFile(File xmlFile) {
+        return new File(xmlFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Opens the snapshot of the XML file.
+     * @param xmlFile
+     * @return The snapshot, or null if there is none or the XML file has
+     * changed since it was written.
+     * @throws IOException
+     */
+    public static Snapshot open(File xmlFile) throws IOException {
+        File file = getFile(xmlFile);
+        if (!file.exists() || !xmlFile.exists()) {
+            return null;
+        }
+        byte[] content = Files.readAllBytes(file.toPath());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        byte[] xmlDigest = readHeader(in, xmlFile);
+        if (xmlDigest == null) {
+            return null;
+        }
+        return new Snapshot(file, xmlDigest, in);
+    }
+
+    /**
+     * Returns true if the XML file has a snapshot that was written for its
+     * current content. Only the snapshot's header is read.
+     * @param xmlFile
+     * @return
+     */
+    public static boolean isCurrent(File xmlFile) {
+        File file = getFile(xmlFile);
+        if (!file.exists() || !xmlFile.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return readHeader(in, xmlFile) != null;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the XML file has a current snapshot that was written
+     * for the XML with the given digest.
+     * @param xmlFile
+     * @param xmlDigest MD5 digest of the XML, or null if it isn't known.
+     * @return
+     */
+    public static boolean isCurrent(File xmlFile, byte[] xmlDigest) {
+        if (xmlDigest == null) {
+            return false;
+        }
+        File file = getFile(xmlFile);
+        if (!file.exists() || !xmlFile.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return Arrays.equals(xmlDigest, readHeader(in, xmlFile));
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a snapshot of root for the XML file, unless the XML file already
+     * has a current snapshot written for xmlDigest. The XML file must hold
+     * exactly what root serializes to, which is verified against xmlDigest,
+     * otherwise any existing snapshot is deleted and none is written.
+     * @param root
+     * @param xmlFile
+     * @param xmlDigest MD5 digest of the XML that root serializes to.
+     * @return True if a snapshot was written.
+     * @throws Exception If root contains something that can't be written
+     * to a snapshot. No snapshot is left behind in that case.
+     */
+    public static boolean write(Object root, File xmlFile, byte[] xmlDigest) throws Exception {
+        File file = getFile(xmlFile);
+        if (isCurrent(xmlFile, xmlDigest)) {
+            return false;
+        }
+        if (!Arrays.equals(xmlDigest, digest(Files.readAllBytes(xmlFile.toPath())))) {
+            file.delete();
+            return false;
+        }
+        long xmlLength = xmlFile.length();
+        long xmlModified = xmlFile.lastModified();
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile()
+                .getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp), 64 * 1024));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeLong(xmlLength);
+                out.writeLong(xmlModified);
+                out.write(xmlDigest);
+                new Writer(out).writeValue(root);
+            }
+            finally {
+                out.close();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (Exception e) {
+            file.delete();
+            throw e;
+        }
+        finally {
+            temp.delete();
+        }
+        return true;
+    }
+
+    public static void delete(File xmlFile) {
+        getFile(xmlFile).delete();
+    }
+
+    /**
+     * Returns the MD5 digest of the XML the snapshot was written for.
+     * @return
+     */
+    public byte[] getXmlDigest() {
+        return xmlDigest;
+    }
+
+    /**
+     * Reads the object the snapshot was written from.
+     * @param type
+     * @return
+     * @throws Exception If the snapshot can't be read, for instance because
+     * a model class has changed since it was written.
+     */
+    public <T> T read(Class<T> type) throws Exception {
+        try {
+            return type.cast(new Reader(in).readValue());
+        }
+        catch (EOFException e) {
+            throw new IOException("Snapshot " + file + " is truncated", e);
+        }
+    }
+
+    static byte[] digest(byte[] content) throws Exception {
+        return MessageDigest.getInstance("MD5").digest(content);
+    }
+
+    private static byte[] readHeader(DataInputStream in, File xmlFile) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+            return null;
+        }
+        long xmlLength = in.readLong();
+        long xmlModified = in.readLong();
+        byte[] xmlDigest = new byte[16];
+        in.readFully(xmlDigest);
+        if (xmlLength != xmlFile.length() || xmlModified != xmlFile.lastModified()) {
+            return null;
+        }
+        return xmlDigest;
+    }
+
+    private static ClassInfo getClassInfo(Class<?> type) throws Exception {
+        ClassInfo info = classInfos.get(type);
+        if (info == null) {
+            info = new ClassInfo(type);
+            classInfos.put(type, info);
+        }
+        return info;
+    }
+
+    /**
+     * The constructor, persisted fields and callbacks of a class.
+     */
+    private static class ClassInfo {
+        final Class<?> type;
+        final Map<String, Field> fields = new HashMap<String, Field>();
+        final List<Field> fieldList = new ArrayList<Field>();
+        final List<Method> persistMethods = new ArrayList<Method>();
+        final List<Method> commitMethods = new ArrayList<Method>();
+        Constructor<?> constructor;
+
+        ClassInfo(Class<?> type) throws Exception {
+            this.type = type;
+            List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                hierarchy.add(0, c);
+            }
+            for (Class<?> c : hierarchy) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || !isPersisted(field)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    if (fields.put(field.getName(), field) != null) {
+                        throw new Exception("Snapshots don't support hidden field " + field);
+                    }
+                    fieldList.add(field);
+                }
+                for (Method method : c.getDeclaredMethods()) {
+                    if (method.isAnnotationPresent(Persist.class)) {
+                        method.setAccessible(true);
+                        persistMethods.add(method);
+                    }
+                    if (method.isAnnotationPresent(Commit.class)) {
+                        method.setAccessible(true);
+                        commitMethods.add(method);
+                    }
+                }
+            }
+        }
+
+        Object newInstance() throws Exception {
+            if (constructor == null) {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            }
+            return constructor.newInstance();
+        }
+
+        static boolean isPersisted(Field field) throws Exception {
+            boolean persisted = false;
+            for (Annotation annotation : field.getAnnotations()) {
+                Class<?> type = annotation.annotationType();
+                if (type == Attribute.class || type == Element.class
+                        || type == ElementList.class || type == ElementListUnion.class) {
+                    persisted = true;
+                }
+                else if (type == Version.class || type == Transient.class) {
+                    return false;
+                }
+                else if (type.getPackage().getName().startsWith("org.simpleframework")) {
+                    throw new Exception("Snapshots don't support @" + type.getSimpleName()
+                            + " on " + field);
+                }
+            }
+            return persisted;
+        }
+    }
+
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeValue(Object value) throws Exception {
+            if (value == null) {
+                out.writeByte(NULL);
+            }
+            else if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value);
+            }
+            else if (value instanceof Integer) {
+                out.writeByte(INT);
+                out.writeInt((Integer) value);
+            }
+            else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            }
+            else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            }
+            else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            }
+            else if (value instanceof Enum) {
+                out.writeByte(ENUM);
+                writeString(((Enum<?>) value).getDeclaringClass().getName());
+                writeString(((Enum<?>) value).name());
+            }
+            else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                out.writeByte(LIST);
+                out.writeInt(list.size());
+                for (Object o : list) {
+                    writeValue(o);
+                }
+            }
+            else if (value.getClass().getName().startsWith("java.")) {
+                throw new Exception("Snapshots don't support " + value.getClass());
+            }
+            else {
+                ClassInfo info = getClassInfo(value.getClass());
+                for (Method method : info.persistMethods) {
+                    method.invoke(value);
+                }
+                out.writeByte(OBJECT);
+                writeClass(info);
+                for (Field field : info.fieldList) {
+                    writeValue(field.get(value));
+                }
+            }
+        }
+
+        private void writeClass(ClassInfo info) throws IOException {
+            Integer index = classes.get(info.type);
+            if (index != null) {
+                out.writeInt(index);
+                return;
+            }
+            out.writeInt(classes.size());
+            classes.put(info.type, classes.size());
+            writeString(info.type.getName());
+            out.writeInt(info.fieldList.size());
+            for (Field field : info.fieldList) {
+                writeString(field.getName());
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            Integer index = strings.get(s);
+            if (index != null) {
+                out.writeInt(index);
+                return;
+            }
+            out.writeInt(strings.size());
+            strings.put(s, strings.size());
+            out.writeUTF(s);
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<Class<?>> classes = new ArrayList<Class<?>>();
+        private final List<Field[]> classFields = new ArrayList<Field[]>();
+        private final List<String> strings = new ArrayList<String>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Object readValue() throws Exception {
+            int tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString();
+                case INT:
+                    return in.readInt();
+                case LONG:
+                    return in.readLong();
+                case DOUBLE:
+                    return in.readDouble();
+                case BOOLEAN:
+                    return in.readBoolean();
+                case ENUM: {
+                    Class type = Class.forName(readString());
+                    return Enum.valueOf(type, readString());
+                }
+                case LIST: {
+                    int size = in.readInt();
+                    ArrayList<Object> list = new ArrayList<Object>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case OBJECT: {
+                    int index = readClass();
+                    ClassInfo info = getClassInfo(classes.get(index));
+                    Object value = info.newInstance();
+                    for (Field field : classFields.get(index)) {
+                        field.set(value, readValue());
+                    }
+                    for (Method method : info.commitMethods) {
+                        method.invoke(value);
+                    }
+                    return value;
+                }
+                default:
+                    throw new IOException("Unknown snapshot tag " + tag);
+            }
+        }
+
+        private int readClass() throws Exception {
+            int index = in.readInt();
+            if (index < classes.size()) {
+                return index;
+            }
+            Class<?> type = Class.forName(readString());
+            ClassInfo info = getClassInfo(type);
+            Field[] fields = new Field[in.readInt()];
+            for (int i = 0; i < fields.length; i++) {
+                String name = readString();
+                fields[i] = info.fields.get(name);
+                if (fields[i] == null) {
+                    throw new IOException("Field " + name + " no longer exists in " + type);
+                }
+            }
+            classes.add(type);
+            classFields.add(fields);
+            return index;
+        }
+
+        private String readString() throws IOException {
+            int index = in.readInt();
+            if (index < strings.size()) {
+                return strings.get(index);
+            }
+            String s = in.readUTF();
+            strings.add(s);
+            return s;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.openpnp.model;
+
+/**
+ * A single segment of a path given to Movable.moveAlong(). A Waypoint is
+ * either a Location with a speed, following the same rules as
+ * Movable.moveTo(), or a move to the Movable's own safe Z, which is
+ * resolved by the Movable since only it knows its safe Z.
+ */
+public class Waypoint {
+    private final Location location;
+    private final double speed;
+    private final boolean safeZ;
+
+    public Waypoint(Location location, double speed) {
+        this(location, speed, false);
+    }
+
+    private Waypoint(Location location, double speed, boolean safeZ) {
+        this.location = location;
+        this.speed = speed;
+        this.safeZ = safeZ;
+    }
+
+    /**
+     * Returns a Waypoint that moves the Movable to its safe Z without
+     * moving any other axis.
+     *
+     * @param speed
+     * @return
+     */
+    public static Waypoint safeZ(double speed) {
+        return new Waypoint(null, speed, true);
+    }
+
+    /**
+     * The Location to move to, or null if this is a safe Z Waypoint.
+     *
+     * @return
+     */
+    public Location getLocation() {
+        return location;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public boolean isSafeZ() {
+        return safeZ;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s @ %s", safeZ ? "safe Z" : location, speed);
+    }
+}
@@ -0,0 +1,284 @@
+package org.openpnp.planner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.model.Part;
+import org.openpnp.model.Placement;
+import org.openpnp.model.Placement.Type;
+import org.openpnp.spi.Feeder;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.spi.NozzleTip;
+import org.simpleframework.xml.Attribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A JobPlanner that makes the same choices as SimpleJobPlanner, preferring
+ * placements that do not require a NozzleTip change and otherwise taking
+ * placements in Job order, but which builds its indexes once in setJob
+ * instead of re-evaluating every remaining placement on every call.
+ *
+ * Because a placement's eligibility only depends on its Part, placements of
+ * the same Part are always consumed in Job order. The planner therefore
+ * keeps one queue of remaining placements per Part and, for every
+ * Nozzle / NozzleTip pair, an ordered set of the compatible Parts keyed by
+ * the Job position of each Part's next placement. Taking a placement only
+ * touches the sets that contain its Part.
+ *
+ * Feeders are indexed by Part. Whether a Feeder is enabled is checked when
+ * a Part is considered, so enabling or disabling a Feeder during a Job takes
+ * effect on the next call without rebuilding anything. Feeders added to or
+ * removed from the Machine, or a Feeder being given a different Part,
+ * cause the Feeder index to be rebuilt.
+ */
+public class IndexedJobPlanner extends AbstractJobPlanner {
+    private final static Logger logger = LoggerFactory.getLogger(IndexedJobPlanner.class);
+
+    @SuppressWarnings("unused")
+    @Attribute(required = false)
+    private String placeHolder;
+
+    /**
+     * Every remaining solution in Job order. Only used to report unplannable
+     * placements to the processor.
+     */
+    protected Set<PlacementSolution> solutions = new LinkedHashSet<PlacementSolution>();
+
+    protected Map<Part, PartQueue> partQueues = new LinkedHashMap<Part, PartQueue>();
+
+    protected Map<Nozzle, Map<NozzleTip, TreeSet<PartQueue>>> nozzleQueues = new HashMap<Nozzle, Map<NozzleTip, TreeSet<PartQueue>>>();
+
+    protected List<Feeder> indexedFeeders = new ArrayList<Feeder>();
+
+    /**
+     * The Part of each Feeder in indexedFeeders when the index was built.
+     */
+    protected List<Part> indexedParts = new ArrayList<Part>();
+
+    @Override
+    public synchronized void setJob(Job job) {
+        super.setJob(job);
+        solutions.clear();
+        partQueues.clear();
+        nozzleQueues.clear();
+        int sequence = 0;
+        for (BoardLocation boardLocation : job.getBoardLocations()) {
+            for (Placement placement : boardLocation.getBoard().getPlacements()) {
+                if (placement.getType() != Type.Place) {
+                    continue;
+                }
+
+                if (placement.getSide() != boardLocation.getSide()) {
+                    continue;
+                }
+
+                IndexedSolution solution = new IndexedSolution(placement, boardLocation, sequence++);
+                solutions.add(solution);
+                Part part = placement.getPart();
+                if (part == null) {
+                    continue;
+                }
+                PartQueue queue = partQueues.get(part);
+                if (queue == null) {
+                    queue = new PartQueue(part);
+                    partQueues.put(part, queue);
+                }
+                queue.solutions.add(solution);
+            }
+        }
+        indexFeeders(Configuration.get().getMachine());
+
+        logger.debug("Planned {} solutions for {} parts", solutions.size(), partQueues.size());
+    }
+
+    @Override
+    public synchronized Set<PlacementSolution> getNextPlacementSolutions(Head head) {
+        Machine machine = Configuration.get().getMachine();
+        if (isFeederIndexStale(machine)) {
+            indexFeeders(machine);
+        }
+        Set<PlacementSolution> results = new LinkedHashSet<PlacementSolution>();
+        for (Nozzle nozzle : head.getNozzles()) {
+            Map<NozzleTip, TreeSet<PartQueue>> tipQueues = getTipQueues(nozzle);
+
+            // Prefer the NozzleTip that is already loaded.
+            NozzleTip nozzleTip = nozzle.getNozzleTip();
+            PartQueue best = null;
+            if (nozzleTip != null && tipQueues.containsKey(nozzleTip)) {
+                best = firstFeedable(tipQueues.get(nozzleTip));
+            }
+            // Otherwise take whichever other NozzleTip can service the
+            // earliest remaining placement.
+            if (best == null) {
+                for (Map.Entry<NozzleTip, TreeSet<PartQueue>> entry : tipQueues.entrySet()) {
+                    PartQueue queue = firstFeedable(entry.getValue());
+                    if (queue != null && (best == null || queue.sequence() < best.sequence())) {
+                        best = queue;
+                        nozzleTip = entry.getKey();
+                    }
+                }
+            }
+            if (best == null) {
+                continue;
+            }
+
+            IndexedSolution solution = take(best);
+            results.add(new PlacementSolution(
+                    solution.placement,
+                    solution.boardLocation,
+                    nozzle.getHead(),
+                    nozzle,
+                    nozzleTip,
+                    best.getEnabledFeeder()));
+        }
+        // See SimpleJobPlanner: if nothing could be planned but placements
+        // remain, return them unfilled so the processor reports the error.
+        if (results.size() == 0 && solutions.size() > 0) {
+            return solutions;
+        }
+        return results.size() > 0 ? results : null;
+    }
+
+    /**
+     * Lazily builds the Part sets for a Nozzle the first time it is seen.
+     * Compatibility is checked once per NozzleTip and Part.
+     */
+    protected Map<NozzleTip, TreeSet<PartQueue>> getTipQueues(Nozzle nozzle) {
+        Map<NozzleTip, TreeSet<PartQueue>> tipQueues = nozzleQueues.get(nozzle);
+        if (tipQueues != null) {
+            return tipQueues;
+        }
+        tipQueues = new LinkedHashMap<NozzleTip, TreeSet<PartQueue>>();
+        for (NozzleTip nozzleTip : nozzle.getNozzleTips()) {
+            TreeSet<PartQueue> set = new TreeSet<PartQueue>(sequenceComparator);
+            for (PartQueue queue : partQueues.values()) {
+                if (queue.solutions.isEmpty() || !nozzleTip.canHandle(queue.part)) {
+                    continue;
+                }
+                set.add(queue);
+                queue.sets.add(set);
+            }
+            tipQueues.put(nozzleTip, set);
+        }
+        nozzleQueues.put(nozzle, tipQueues);
+        return tipQueues;
+    }
+
+    /**
+     * Removes the next solution for the Part and repositions the Part in
+     * every set that contains it.
+     */
+    protected IndexedSolution take(PartQueue queue) {
+        for (TreeSet<PartQueue> set : queue.sets) {
+            set.remove(queue);
+        }
+        IndexedSolution solution = queue.solutions.removeFirst();
+        solutions.remove(solution);
+        if (!queue.solutions.isEmpty()) {
+            for (TreeSet<PartQueue> set : queue.sets) {
+                set.add(queue);
+            }
+        }
+        return solution;
+    }
+
+    /**
+     * Returns true if Feeders were added or removed, or a Feeder's Part was
+     * changed, since the Feeder index was built.
+     */
+    protected boolean isFeederIndexStale(Machine machine) {
+        if (!indexedFeeders.equals(machine.getFeeders())) {
+            return true;
+        }
+        for (int i = 0; i < indexedFeeders.size(); i++) {
+            if (indexedFeeders.get(i).getPart() != indexedParts.get(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void indexFeeders(Machine machine) {
+        indexedFeeders = new ArrayList<Feeder>(machine.getFeeders());
+        indexedParts = new ArrayList<Part>(indexedFeeders.size());
+        for (PartQueue queue : partQueues.values()) {
+            queue.feeders.clear();
+        }
+        for (Feeder feeder : indexedFeeders) {
+            indexedParts.add(feeder.getPart());
+            PartQueue queue = partQueues.get(feeder.getPart());
+            if (queue != null) {
+                queue.feeders.add(feeder);
+            }
+        }
+    }
+
+    private static PartQueue firstFeedable(TreeSet<PartQueue> set) {
+        for (PartQueue queue : set) {
+            if (queue.getEnabledFeeder() != null) {
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    static Comparator<PartQueue> sequenceComparator = new Comparator<PartQueue>() {
+        @Override
+        public int compare(PartQueue o1, PartQueue o2) {
+            return Integer.compare(o1.sequence(), o2.sequence());
+        }
+    };
+
+    static class IndexedSolution extends PlacementSolution {
+        public final int sequence;
+
+        public IndexedSolution(Placement placement, BoardLocation boardLocation, int sequence) {
+            super(placement, boardLocation, null, null, null, null);
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * The remaining placements for a single Part, in Job order, along with
+     * the Feeders that supply it and the sets the Part is currently a
+     * member of.
+     */
+    static class PartQueue {
+        final Part part;
+        final Deque<IndexedSolution> solutions = new ArrayDeque<IndexedSolution>();
+        final List<Feeder> feeders = new ArrayList<Feeder>();
+        final List<TreeSet<PartQueue>> sets = new ArrayList<TreeSet<PartQueue>>();
+
+        public PartQueue(Part part) {
+            this.part = part;
+        }
+
+        int sequence() {
+            return solutions.peekFirst().sequence;
+        }
+
+        Feeder getEnabledFeeder() {
+            for (Feeder feeder : feeders) {
+                if (feeder.isEnabled()) {
+                    return feeder;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.openpnp.planner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.model.Location;
+import org.openpnp.model.Part;
+import org.openpnp.model.Placement;
+import org.openpnp.model.Placement.Type;
+import org.openpnp.spi.Feeder;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.spi.NozzleTip;
+import org.simpleframework.xml.Attribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A JobPlanner that tries to minimize the distance the head travels over the
+ * course of a job. Each call selects one placement per Nozzle and then
+ * orders the batch as a small routing problem.
+ *
+ * Selection is greedy: the first Nozzle takes the solution closest to the
+ * current head position and each following Nozzle takes the solution whose
+ * pick location is closest to the previous pick and whose placement location
+ * is closest to the previous placement, so that a batch is clustered both at
+ * the feeders and on the board. Loading a different NozzleTip adds
+ * nozzleTipChangeCost to a candidate, so tip changes are only made when they
+ * pay for themselves or when no compatible solution remains.
+ *
+ * The selected batch is then ordered with a nearest neighbour tour over the
+ * pick locations, improved with 2-opt against the full pick then place route
+ * as modeled by TravelCostModel.
+ *
+ * Use it by setting the job-planner class of a ReferenceJobProcessor:
+ * <pre>
+ * &lt;job-planner class="org.openpnp.planner.ShortestTravelJobPlanner" nozzle-tip-change-cost="500"/&gt;
+ * </pre>
+ */
+public class ShortestTravelJobPlanner extends AbstractJobPlanner {
+    private final static Logger logger = LoggerFactory.getLogger(ShortestTravelJobPlanner.class);
+
+    /**
+     * Cost, expressed as millimeters of travel, that is added to a candidate
+     * which requires a NozzleTip change.
+     */
+    @Attribute(required = false)
+    private double nozzleTipChangeCost = 500;
+
+    protected Set<PlacementSolution> solutions = new LinkedHashSet<PlacementSolution>();
+
+    /**
+     * Where the head will be once the previously returned batch has been
+     * processed. Used as the start of the next batch so that planning does
+     * not depend on the job processor having finished its moves.
+     */
+    protected Location lastBatchEnd;
+
+    @Override
+    public void setJob(Job job) {
+        super.setJob(job);
+        solutions.clear();
+        lastBatchEnd = null;
+        for (BoardLocation boardLocation : job.getBoardLocations()) {
+            for (Placement placement : boardLocation.getBoard().getPlacements()) {
+                if (placement.getType() != Type.Place) {
+                    continue;
+                }
+
+                if (placement.getSide() != boardLocation.getSide()) {
+                    continue;
+                }
+
+                solutions.add(new PlacementSolution(placement, boardLocation, null, null, null, null));
+            }
+        }
+
+        logger.debug("Planned {} solutions", solutions.size());
+    }
+
+    @Override
+    public synchronized Set<PlacementSolution> getNextPlacementSolutions(Head head) {
+        Machine machine = Configuration.get().getMachine();
+        TravelCostModel model = new TravelCostModel();
+        Map<Part, List<Feeder>> feedersByPart = getFeedersByPart(machine);
+
+        List<PlacementSolution> batch = new ArrayList<PlacementSolution>();
+        Location start = lastBatchEnd;
+        Location lastPick = null;
+        Location lastPlace = null;
+        for (Nozzle nozzle : head.getNozzles()) {
+            if (start == null) {
+                start = model.getCurrentHeadLocation(nozzle);
+            }
+            Candidate best = null;
+            for (PlacementSolution solution : solutions) {
+                Part part = solution.placement.getPart();
+                if (part == null) {
+                    continue;
+                }
+                List<Feeder> feeders = feedersByPart.get(part);
+                if (feeders == null) {
+                    continue;
+                }
+                Location place = model.getHeadLocation(nozzle,
+                        model.getPlacementLocation(solution.boardLocation, solution.placement));
+                for (NozzleTip nozzleTip : nozzle.getNozzleTips()) {
+                    if (!nozzleTip.canHandle(part)) {
+                        continue;
+                    }
+                    double tipCost = nozzle.getNozzleTip() == nozzleTip ? 0 : nozzleTipChangeCost;
+                    for (Feeder feeder : feeders) {
+                        Location pick = model.getHeadLocation(nozzle, model.getPickLocation(feeder));
+                        double cost = tipCost;
+                        if (lastPick == null) {
+                            cost += TravelCostModel.getDistance(start, pick);
+                            cost += TravelCostModel.getDistance(pick, place);
+                        }
+                        else {
+                            cost += TravelCostModel.getDistance(lastPick, pick);
+                            cost += TravelCostModel.getDistance(lastPlace, place);
+                        }
+                        if (best == null || cost < best.cost) {
+                            best = new Candidate(solution, nozzle, nozzleTip, feeder, pick, place, cost);
+                        }
+                    }
+                }
+            }
+            if (best == null) {
+                continue;
+            }
+            solutions.remove(best.originalSolution);
+            batch.add(new PlacementSolution(
+                    best.originalSolution.placement,
+                    best.originalSolution.boardLocation,
+                    head,
+                    best.nozzle,
+                    best.nozzleTip,
+                    best.feeder));
+            lastPick = best.pick == null ? lastPick : best.pick;
+            lastPlace = best.place == null ? lastPlace : best.place;
+        }
+        // Same as SimpleJobPlanner: if nothing could be planned but placements
+        // remain, return them unfilled so the processor reports the error.
+        if (batch.isEmpty() && solutions.size() > 0) {
+            return solutions;
+        }
+        if (batch.isEmpty()) {
+            return null;
+        }
+        batch = orderBatch(model, start, batch);
+        lastBatchEnd = model.getBatchEnd(start, batch);
+        return new LinkedHashSet<PlacementSolution>(batch);
+    }
+
+    /**
+     * Orders the batch using a nearest neighbour tour over the pick locations
+     * followed by 2-opt improvement of the complete pick and place route.
+     */
+    protected List<PlacementSolution> orderBatch(TravelCostModel model, Location start, List<PlacementSolution> batch) {
+        List<PlacementSolution> remaining = new ArrayList<PlacementSolution>(batch);
+        List<PlacementSolution> route = new ArrayList<PlacementSolution>();
+        Location last = start;
+        while (!remaining.isEmpty()) {
+            PlacementSolution nearest = null;
+            double nearestDistance = 0;
+            for (PlacementSolution solution : remaining) {
+                double distance = TravelCostModel.getDistance(last, model.getPickHeadLocation(solution));
+                if (nearest == null || distance < nearestDistance) {
+                    nearest = solution;
+                    nearestDistance = distance;
+                }
+            }
+            remaining.remove(nearest);
+            route.add(nearest);
+            Location l = model.getPickHeadLocation(nearest);
+            last = l == null ? last : l;
+        }
+
+        double bestCost = model.getBatchCost(start, route);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int i = 0; i < route.size() - 1; i++) {
+                for (int j = i + 1; j < route.size(); j++) {
+                    List<PlacementSolution> candidate = twoOptSwap(route, i, j);
+                    double cost = model.getBatchCost(start, candidate);
+                    if (cost < bestCost - 1e-9) {
+                        route = candidate;
+                        bestCost = cost;
+                        improved = true;
+                    }
+                }
+            }
+        }
+        return route;
+    }
+
+    private static List<PlacementSolution> twoOptSwap(List<PlacementSolution> route, int i, int j) {
+        List<PlacementSolution> result = new ArrayList<PlacementSolution>(route.size());
+        result.addAll(route.subList(0, i));
+        for (int k = j; k >= i; k--) {
+            result.add(route.get(k));
+        }
+        result.addAll(route.subList(j + 1, route.size()));
+        return result;
+    }
+
+    private static Map<Part, List<Feeder>> getFeedersByPart(Machine machine) {
+        Map<Part, List<Feeder>> feedersByPart = new HashMap<Part, List<Feeder>>();
+        for (Feeder feeder : machine.getFeeders()) {
+            if (!feeder.isEnabled() || feeder.getPart() == null) {
+                continue;
+            }
+            List<Feeder> feeders = feedersByPart.get(feeder.getPart());
+            if (feeders == null) {
+                feeders = new ArrayList<Feeder>();
+                feedersByPart.put(feeder.getPart(), feeders);
+            }
+            feeders.add(feeder);
+        }
+        return feedersByPart;
+    }
+
+    public double getNozzleTipChangeCost() {
+        return nozzleTipChangeCost;
+    }
+
+    public void setNozzleTipChangeCost(double nozzleTipChangeCost) {
+        this.nozzleTipChangeCost = nozzleTipChangeCost;
+    }
+
+    static class Candidate {
+        final PlacementSolution originalSolution;
+        final Nozzle nozzle;
+        final NozzleTip nozzleTip;
+        final Feeder feeder;
+        final Location pick;
+        final Location place;
+        final double cost;
+
+        public Candidate(PlacementSolution originalSolution, Nozzle nozzle,
+                NozzleTip nozzleTip, Feeder feeder, Location pick,
+                Location place, double cost) {
+            this.originalSolution = originalSolution;
+            this.nozzle = nozzle;
+            this.nozzleTip = nozzleTip;
+            this.feeder = feeder;
+            this.pick = pick;
+            this.place = place;
+            this.cost = cost;
+        }
+    }
+}
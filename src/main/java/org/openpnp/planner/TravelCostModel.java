@@ -0,0 +1,155 @@
+package org.openpnp.planner;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Placement;
+import org.openpnp.spi.Feeder;
+import org.openpnp.spi.HeadMountable;
+import org.openpnp.spi.JobPlanner.PlacementSolution;
+import org.openpnp.util.Utils2D;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Estimates the XY distance the head has to travel to service a set of
+ * PlacementSolutions. All distances are computed in head coordinates, i.e.
+ * with the head offsets of the Nozzle removed, and in millimeters, so that
+ * moves made by different Nozzles on the same Head can be compared directly.
+ *
+ * The model mirrors the way ReferenceJobProcessor executes a batch: every
+ * solution is picked in order and then every solution is placed in the same
+ * order.
+ *
+ * Feeder pick locations are cached for the lifetime of the model since some
+ * Feeders do real work to calculate them. Create a new model whenever the
+ * Feeders may have changed, typically once per planning cycle.
+ */
+public class TravelCostModel {
+    private final static Logger logger = LoggerFactory.getLogger(TravelCostModel.class);
+
+    private final Map<Feeder, Location> pickLocations = new HashMap<Feeder, Location>();
+
+    /**
+     * Converts a Location for the given HeadMountable into the Location the
+     * Head must be at for the HeadMountable to reach it.
+     */
+    public Location getHeadLocation(HeadMountable hm, Location location) {
+        if (location == null) {
+            return null;
+        }
+        location = location.convertToUnits(LengthUnit.Millimeters);
+        if (hm instanceof ReferenceHeadMountable) {
+            Location headOffsets = ((ReferenceHeadMountable) hm).getHeadOffsets();
+            if (headOffsets != null) {
+                location = location.subtract(headOffsets);
+            }
+        }
+        return location;
+    }
+
+    /**
+     * Gets the current Location of the Head that holds the given
+     * HeadMountable, or null if it cannot be determined.
+     */
+    public Location getCurrentHeadLocation(HeadMountable hm) {
+        try {
+            return getHeadLocation(hm, hm.getLocation());
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    public Location getPickLocation(Feeder feeder) {
+        if (feeder == null) {
+            return null;
+        }
+        if (pickLocations.containsKey(feeder)) {
+            return pickLocations.get(feeder);
+        }
+        Location location = null;
+        try {
+            location = feeder.getPickLocation();
+        }
+        catch (Exception e) {
+            logger.debug("Unable to get pick location for {}: {}", feeder.getName(), e.getMessage());
+        }
+        pickLocations.put(feeder, location);
+        return location;
+    }
+
+    public Location getPlacementLocation(BoardLocation boardLocation, Placement placement) {
+        return Utils2D.calculateBoardPlacementLocation(
+                boardLocation.getLocation(),
+                boardLocation.getSide(),
+                placement.getLocation());
+    }
+
+    /**
+     * Gets the Head Location for picking the solution's part with the
+     * solution's Nozzle.
+     */
+    public Location getPickHeadLocation(PlacementSolution solution) {
+        return getHeadLocation(solution.nozzle, getPickLocation(solution.feeder));
+    }
+
+    /**
+     * Gets the Head Location for placing the solution's part with the
+     * solution's Nozzle.
+     */
+    public Location getPlaceHeadLocation(PlacementSolution solution) {
+        return getHeadLocation(solution.nozzle,
+                getPlacementLocation(solution.boardLocation, solution.placement));
+    }
+
+    /**
+     * Returns the XY distance in millimeters between two head Locations.
+     * Unknown Locations are treated as free.
+     */
+    public static double getDistance(Location a, Location b) {
+        if (a == null || b == null) {
+            return 0;
+        }
+        return a.getLinearDistanceTo(b);
+    }
+
+    /**
+     * Returns the distance the Head travels when starting at start and then
+     * picking and placing each of the solutions in the given order.
+     */
+    public double getBatchCost(Location start, List<? extends PlacementSolution> batch) {
+        double cost = 0;
+        Location last = start;
+        for (PlacementSolution solution : batch) {
+            Location l = getPickHeadLocation(solution);
+            cost += getDistance(last, l);
+            last = l == null ? last : l;
+        }
+        for (PlacementSolution solution : batch) {
+            Location l = getPlaceHeadLocation(solution);
+            cost += getDistance(last, l);
+            last = l == null ? last : l;
+        }
+        return cost;
+    }
+
+    /**
+     * Returns the Head Location after the batch has been completed, which is
+     * the place location of the last solution.
+     */
+    public Location getBatchEnd(Location start, List<? extends PlacementSolution> batch) {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            Location l = getPlaceHeadLocation(batch.get(i));
+            if (l != null) {
+                return l;
+            }
+        }
+        return start;
+    }
+}
@@ -0,0 +1,73 @@
+package org.openpnp.planner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.openpnp.model.Job;
+import org.openpnp.model.Location;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.JobPlanner;
+import org.openpnp.spi.JobPlanner.PlacementSolution;
+
+/**
+ * Dry runs JobPlanners against a Job and reports the head travel each of
+ * them would cause, as modeled by TravelCostModel. Nothing is moved and no
+ * Feeders are fed, so this can be used to compare planners before running
+ * a job.
+ */
+public class TravelEstimator {
+    /**
+     * Runs the planner over the entire Job and returns the estimated head
+     * travel in millimeters. Returns -1 if the planner was unable to fully
+     * plan the Job, for instance because a Feeder is missing.
+     */
+    public static double estimate(JobPlanner planner, Job job, Head head) {
+        TravelCostModel model = new TravelCostModel();
+        Location location = null;
+        if (!head.getNozzles().isEmpty()) {
+            location = model.getCurrentHeadLocation(head.getNozzles().get(0));
+        }
+        double total = 0;
+        planner.setJob(job);
+        Set<PlacementSolution> solutions;
+        while ((solutions = planner.getNextPlacementSolutions(head)) != null) {
+            List<PlacementSolution> batch = new ArrayList<PlacementSolution>(solutions);
+            for (PlacementSolution solution : batch) {
+                if (solution.nozzle == null || solution.feeder == null) {
+                    return -1;
+                }
+            }
+            total += model.getBatchCost(location, batch);
+            location = model.getBatchEnd(location, batch);
+        }
+        return total;
+    }
+
+    /**
+     * Returns a human readable comparison of the estimated head travel for
+     * each of the planners, relative to the first one.
+     */
+    public static String report(Job job, Head head, JobPlanner... planners) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Estimated head travel for %d nozzle(s):%n", head.getNozzles().size()));
+        double baseline = -1;
+        for (JobPlanner planner : planners) {
+            double travel = estimate(planner, job, head);
+            sb.append(String.format("  %-30s ", planner.getClass().getSimpleName()));
+            if (travel < 0) {
+                sb.append(String.format("unable to plan job%n"));
+                continue;
+            }
+            sb.append(String.format("%12.1f mm", travel));
+            if (baseline < 0) {
+                baseline = travel;
+            }
+            else if (baseline > 0) {
+                sb.append(String.format(" (%+.1f%%)", (travel - baseline) / baseline * 100.0));
+            }
+            sb.append(String.format("%n"));
+        }
+        return sb.toString();
+    }
+}
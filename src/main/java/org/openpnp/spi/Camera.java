@@ -63,11 +63,18 @@ public interface Camera extends Identifiable, Named, HeadMountable, WizardConfig
 	public BufferedImage capture();
 	
 	/**
-	 * Same as capture(), but waits the settle time before capturing.
+	 * Same as capture(), but settles the camera first. See settle().
 	 * @return
 	 */
 	public BufferedImage settleAndCapture();
 	
+	/**
+	 * Blocks until images from the camera can be considered stable after a
+	 * move. Depending on the configuration of the Camera this may be a fixed
+	 * delay or may be determined by comparing frames.
+	 */
+	public void settle();
+	
 	/**
 	 * Registers a listener to receive continuous images from the camera at a rate less than
 	 * or equal to maximumFps images per second.
@@ -76,6 +83,18 @@ public interface Camera extends Identifiable, Named, HeadMountable, WizardConfig
 	 */
 	public void startContinuousCapture(CameraListener listener, int maximumFps);
 	
+	/**
+	 * Same as startContinuousCapture(CameraListener, int) but the images sent to the listener
+	 * are downscaled by the camera, if needed, to be at most maximumWidth pixels wide. This is
+	 * meant for previews, which can then skip the cost of handling full resolution frames.
+	 * Calling this again for the same listener replaces its settings. Vision operations are not
+	 * affected and still get full resolution images from capture().
+	 * @param listener
+	 * @param maximumFps
+	 * @param maximumWidth The maximum width of the images, or 0 for full resolution.
+	 */
+	public void startContinuousCapture(CameraListener listener, int maximumFps, int maximumWidth);
+	
 	/**
 	 * Requests that the continuous capture be stopped for the previously registered listener. If the
 	 * Camera has other listeners they should still receive updates.
@@ -38,6 +38,30 @@ import com.google.common.util.concurrent.FutureCallback;
  * Unless otherwise noted, the methods in this class block while performing their operations.
  */
 public interface Machine extends WizardConfigurable, PropertySheetHolder, Closeable {
+    /**
+     * The priority of a task submitted with submit(). Queued tasks with a
+     * higher priority run first, tasks with the same priority run in the
+     * order they were submitted.
+     */
+    public enum TaskPriority {
+        /**
+         * Stopping and starting the machine.
+         */
+        Immediate,
+        /**
+         * Interactive moves such as jogging, which the user is waiting on.
+         */
+        Jog,
+        /**
+         * Everything else, the default.
+         */
+        Job,
+        /**
+         * Long running work that nobody is waiting on, such as calibration.
+         */
+        Background
+    }
+    
 	/**
 	 * Gets all active heads on the machine.
 	 * @return
@@ -104,6 +128,17 @@ public interface Machine extends WizardConfigurable, PropertySheetHolder, Closea
 	
 	public void addListener(MachineListener listener);
 	
+	/**
+	 * Adds a listener that receives machineHeadActivity() at most maxRate
+	 * times per second per Head. Head activity is always delivered on a
+	 * separate thread and coalesced, so a listener may not see every event
+	 * but always sees the last one. Listeners added with
+	 * addListener(MachineListener) are limited to a default rate.
+	 * @param listener
+	 * @param maxRate Events per second, or 0 for no limit.
+	 */
+	public void addListener(MachineListener listener, double maxRate);
+	
 	public void removeListener(MachineListener listener);
 	
 	public List<Class<? extends Feeder>> getCompatibleFeederClasses();
@@ -144,8 +179,9 @@ public interface Machine extends WizardConfigurable, PropertySheetHolder, Closea
      * TODO: When any task is running the driver for the machine is locked
      * and any calls to the driver outside of the task will throw an Exception.
      * 
-     * If any tasks throws an Exception then all queued future tasks are
-     * cancelled.
+     * If a task throws an Exception only that task's Future fails. Queued
+     * tasks are not affected and can be cancelled individually through their
+     * Futures.
      * 
      * If a task includes a callback the callback is executed before the next
      * task begins.
@@ -165,5 +201,27 @@ public interface Machine extends WizardConfigurable, PropertySheetHolder, Closea
             final FutureCallback<T> callback, 
             boolean ignoreEnabled);
     
+    /**
+     * Submit a task with the given priority, see
+     * submit(Callable, FutureCallback, boolean).
+     * 
+     * If coalesceKey is not null and a task submitted with an equal key is
+     * still queued, that task is cancelled and replaced by this one. Its
+     * callback is not called. This is used for requests that supersede each
+     * other, such as jogging to a new target.
+     * 
+     * @param callable
+     * @param callback
+     * @param ignoreEnabled
+     * @param priority
+     * @param coalesceKey
+     */
+    public <T> Future<T> submit(
+            final Callable<T> callable, 
+            final FutureCallback<T> callback, 
+            boolean ignoreEnabled,
+            TaskPriority priority,
+            Object coalesceKey);
+    
     public Head getDefaultHead();
 }
@@ -0,0 +1,22 @@
+package org.openpnp.spi;
+
+import org.opencv.core.Mat;
+
+/**
+ * Optional capability of a Camera which can deliver frames as OpenCV Mats
+ * without going through a BufferedImage. Vision code should prefer these
+ * methods when the Camera supports them, see OpenCvUtils.captureMat.
+ */
+public interface MatCamera extends Camera {
+    /**
+     * Same as capture() but returns the frame as a Mat in BGR or grayscale
+     * format. The caller owns the returned Mat, may modify it and should
+     * release it when done.
+     */
+    public Mat captureMat();
+
+    /**
+     * Same as captureMat(), but settles the camera first. See settle().
+     */
+    public Mat settleAndCaptureMat();
+}
@@ -1,6 +1,9 @@
 package org.openpnp.spi;
 
+import java.util.List;
+
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 
 public interface Movable extends Locatable {
     /**
@@ -15,5 +18,16 @@ public interface Movable extends Locatable {
      */
     public void moveTo(Location location, double speed) throws Exception;
     
+    /**
+     * Move the object through each of the Waypoints in order. This has the
+     * same result as calling moveTo() or moveToSafeZ() for each Waypoint but
+     * lets the driver send the whole path to the machine at once instead of
+     * waiting for each segment to finish before sending the next.
+     * 
+     * @param path
+     * @throws Exception
+     */
+    public void moveAlong(List<Waypoint> path) throws Exception;
+    
     public void moveToSafeZ(double speed) throws Exception;
 }
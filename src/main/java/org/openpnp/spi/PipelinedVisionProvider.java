@@ -0,0 +1,26 @@
+package org.openpnp.spi;
+
+import java.util.concurrent.Callable;
+
+import org.openpnp.model.Location;
+import org.openpnp.model.Part;
+
+/**
+ * Optional capability of a VisionProvider which splits bottom vision into
+ * the work that needs the machine and the work that only needs the image.
+ * A pipelined JobProcessor uses this to analyze the image of one Nozzle's
+ * part while the machine is already moving the next Nozzle.
+ */
+public interface PipelinedVisionProvider extends VisionProvider {
+    /**
+     * Performs all of the machine work needed for bottom vision of the Part
+     * on the Nozzle, such as positioning the Nozzle over the Camera and
+     * capturing the image, and returns a Callable which computes the same
+     * offsets getPartBottomOffsets would. 
+     * 
+     * This method is called on the thread that commands the machine. The
+     * returned Callable may be called on any thread and must not move the
+     * machine or use the Camera.
+     */
+    public Callable<Location> capturePartBottom(Part part, Nozzle nozzle) throws Exception;
+}
@@ -26,6 +26,7 @@ import java.awt.image.BufferedImage;
 import java.util.List;
 
 import org.openpnp.gui.support.Wizard;
+import org.openpnp.model.Length;
 import org.openpnp.model.Location;
 import org.openpnp.model.Part;
 
@@ -45,8 +46,29 @@ public interface VisionProvider {
 
     public Wizard getConfigurationWizard();
     
+    /**
+     * Finds matches of the template in the current camera frame, sorted best
+     * score first. Implementations may cache their converted form of the
+     * template by identity, so a template image must not be modified after
+     * it has been passed in.
+     * @param template
+     * @return
+     */
     public List<TemplateMatch> getTemplateMatches(BufferedImage template);
     
+    /**
+     * Same as getTemplateMatches(BufferedImage) but only searches the part of
+     * the image within searchRadius of the expected Location. Use this
+     * whenever the approximate location is known, such as when checking
+     * fiducials, since it is much faster on large images.
+     * @param template
+     * @param expected Where the center of the template is expected to be.
+     * @param searchRadius Maximum distance from expected to search.
+     * @return
+     */
+    public List<TemplateMatch> getTemplateMatches(BufferedImage template, 
+            Location expected, Length searchRadius);
+    
     /**
      * @deprecated This function's interface will change in the near future
      * to return real units instead of pixels.
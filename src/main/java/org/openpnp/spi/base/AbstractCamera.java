@@ -2,12 +2,18 @@ package org.openpnp.spi.base;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.swing.Icon;
 
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
 import org.openpnp.CameraListener;
 import org.openpnp.ConfigurationListener;
 import org.openpnp.gui.support.Icons;
@@ -16,11 +22,30 @@ import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Head;
+import org.openpnp.spi.MatCamera;
 import org.openpnp.spi.VisionProvider;
+import org.openpnp.util.OpenCvUtils;
+import org.openpnp.vision.FluentCv;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public abstract class AbstractCamera implements Camera {
+public abstract class AbstractCamera implements MatCamera {
+    private final static Logger logger = LoggerFactory.getLogger(AbstractCamera.class);
+    
+    public enum SettleMethod {
+        /**
+         * Always wait settleTimeMs.
+         */
+        FixedTime,
+        /**
+         * Capture frames until two consecutive frames are at least
+         * settleThreshold dB PSNR alike, or until settleTimeoutMs passes.
+         */
+        Adaptive
+    }
+    
     @Attribute
     protected String id;
     
@@ -39,8 +64,58 @@ public abstract class AbstractCamera implements Camera {
     @Attribute(required=false)
     protected long settleTimeMs = 250;
     
+    @Attribute(required=false)
+    protected SettleMethod settleMethod = SettleMethod.FixedTime;
+    
+    /**
+     * PSNR in dB between two consecutive frames above which the image is
+     * considered settled when using SettleMethod.Adaptive.
+     */
+    @Attribute(required=false)
+    protected double settleThreshold = 35;
+    
+    /**
+     * Maximum time to wait for the image to settle when using
+     * SettleMethod.Adaptive.
+     */
+    @Attribute(required=false)
+    protected long settleTimeoutMs = 500;
+    
+    protected SettleStatistics settleStatistics = new SettleStatistics();
+    
+    /**
+     * How long settleAdaptive() waits before capturing again when the
+     * camera returns no image.
+     */
+    protected static final long SETTLE_NULL_FRAME_DELAY_MS = 10;
+    
     protected Set<ListenerEntry> listeners = Collections.synchronizedSet(new HashSet<ListenerEntry>());
     
+    /**
+     * Number of recently published frames kept on the frame bus.
+     */
+    protected static final int FRAME_BUFFER_SIZE = 4;
+    
+    /**
+     * Ring buffer of the most recently published frames, indexed by
+     * sequence % FRAME_BUFFER_SIZE. Guarded by frameLock.
+     */
+    private final Frame[] frames = new Frame[FRAME_BUFFER_SIZE];
+    
+    private final Object frameLock = new Object();
+    
+    /**
+     * Sequence number of the last published frame, 0 if none has been
+     * published yet. Guarded by frameLock.
+     */
+    private long frameSequence;
+    
+    /**
+     * Number of consumers currently blocked waiting for a frame. Lets the
+     * capture thread skip its frame rate delay. Guarded by frameLock.
+     */
+    private int frameWaiters;
+    
     protected Head head;
     
     protected Integer width;
@@ -108,12 +183,20 @@ public abstract class AbstractCamera implements Camera {
     
     @Override
     public void startContinuousCapture(CameraListener listener, int maximumFps) {
-        listeners.add(new ListenerEntry(listener, maximumFps));
+        startContinuousCapture(listener, maximumFps, 0);
+    }
+    
+    @Override
+    public void startContinuousCapture(CameraListener listener, int maximumFps, int maximumWidth) {
+        ListenerEntry entry = new ListenerEntry(listener, maximumFps, maximumWidth);
+        // Replace any existing entry so new settings take effect.
+        listeners.remove(entry);
+        listeners.add(entry);
     }
 
     @Override
     public void stopContinuousCapture(CameraListener listener) {
-        listeners.remove(new ListenerEntry(listener, 0));
+        listeners.remove(new ListenerEntry(listener, 0, 0));
     }
     
     @Override
@@ -128,13 +211,127 @@ public abstract class AbstractCamera implements Camera {
     }
     
     public BufferedImage settleAndCapture() {
+        if (settleMethod == SettleMethod.Adaptive) {
+            Mat mat = settleAdaptive();
+            if (mat == null) {
+                return null;
+            }
+            BufferedImage image = OpenCvUtils.toBufferedImage(mat);
+            mat.release();
+            return image;
+        }
+        settle();
+    	return capture();
+    }
+    
+    /**
+     * Converts the result of capture(). Cameras that produce Mats natively
+     * should override this to avoid the conversion.
+     */
+    @Override
+    public Mat captureMat() {
+        BufferedImage image = capture();
+        return image == null ? null : OpenCvUtils.toMat(image);
+    }
+    
+    @Override
+    public Mat settleAndCaptureMat() {
+        if (settleMethod == SettleMethod.Adaptive) {
+            // settleAdaptive already captured a settled frame.
+            return settleAdaptive();
+        }
+        settle();
+        return captureMat();
+    }
+    
+    @Override
+    public void settle() {
+        if (settleMethod == SettleMethod.Adaptive) {
+            Mat mat = settleAdaptive();
+            if (mat != null) {
+                mat.release();
+            }
+            return;
+        }
+        long t = System.currentTimeMillis();
     	try {
     		Thread.sleep(getSettleTimeMs());
     	}
     	catch (Exception e) {
     		
     	}
-    	return capture();
+    	settleStatistics.add(System.currentTimeMillis() - t, false);
+    }
+    
+    /**
+     * Captures frames until two consecutive frames differ by less than the
+     * threshold, or the timeout expires, and returns the last frame. The
+     * caller owns the returned Mat.
+     */
+    protected Mat settleAdaptive() {
+        long t = System.currentTimeMillis();
+        Mat image = captureMat();
+        Mat last = toGray(image);
+        boolean timedOut = false;
+        while (true) {
+            if (System.currentTimeMillis() - t >= settleTimeoutMs) {
+                timedOut = true;
+                break;
+            }
+            if (image != null) {
+                image.release();
+            }
+            image = captureMat();
+            Mat mat = toGray(image);
+            if (last == null || mat == null) {
+                // Camera is not returning images, nothing to compare.
+                last = mat;
+                if (mat == null) {
+                    try {
+                        Thread.sleep(SETTLE_NULL_FRAME_DELAY_MS);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        timedOut = true;
+                        break;
+                    }
+                }
+                continue;
+            }
+            double psnr = FluentCv.calculatePsnr(last, mat);
+            last.release();
+            last = mat;
+            // calculatePsnr returns 0 for identical frames.
+            if (psnr == 0 || psnr >= settleThreshold) {
+                break;
+            }
+        }
+        if (last != null) {
+            last.release();
+        }
+        long elapsed = System.currentTimeMillis() - t;
+        settleStatistics.add(elapsed, timedOut);
+        logger.debug("{} settled in {} ms{}, {}", new Object[] { 
+                getName(), elapsed, timedOut ? " (timed out)" : "", settleStatistics });
+        return image;
+    }
+    
+    /**
+     * Returns a new grayscale Mat for comparing frames, leaving the source
+     * untouched.
+     */
+    private static Mat toGray(Mat mat) {
+        if (mat == null) {
+            return null;
+        }
+        Mat gray = new Mat();
+        if (mat.channels() > 1) {
+            Imgproc.cvtColor(mat, gray, Imgproc.COLOR_BGR2GRAY);
+        }
+        else {
+            mat.copyTo(gray);
+        }
+        return gray;
     }
     
     protected void broadcastCapture(BufferedImage img) {
@@ -146,12 +343,282 @@ public abstract class AbstractCamera implements Camera {
         }
     }
     
+    /**
+     * Same as broadcastCapture but only converts the frame to a
+     * BufferedImage if at least one listener is due a frame, and sends
+     * listeners that asked for a maximum width a downscaled copy.
+     */
+    private void broadcastFrame(Frame frame) {
+        for (ListenerEntry listener : new ArrayList<ListenerEntry>(listeners)) {
+            if (listener.lastFrameSent < (System.currentTimeMillis() - (1000 / listener.maximumFps))) {
+                listener.listener.frameReceived(frame.getPreview(listener.maximumWidth));
+                listener.lastFrameSent = System.currentTimeMillis();
+            }
+        }
+    }
+    
+    /**
+     * Returns the width a capture thread may downscale frames to when they
+     * are only needed for the continuous capture listeners: the largest
+     * width asked for by a listener. Returns 0 if full resolution frames
+     * are needed, which is when any listener asked for full resolution,
+     * when there are no listeners, or when a consumer is waiting for a
+     * frame on the frame bus.
+     */
+    protected int getPreviewWidth() {
+        synchronized (frameLock) {
+            if (frameWaiters > 0) {
+                return 0;
+            }
+        }
+        int previewWidth = 0;
+        for (ListenerEntry listener : new ArrayList<ListenerEntry>(listeners)) {
+            if (listener.maximumWidth <= 0) {
+                return 0;
+            }
+            previewWidth = Math.max(previewWidth, listener.maximumWidth);
+        }
+        return previewWidth;
+    }
+    
+    /**
+     * Sends a frame that was captured at a reduced size, see
+     * getPreviewWidth(), to the continuous capture listeners. The frame is
+     * not published on the frame bus since vision needs full resolution.
+     * The listeners are sent BufferedImages, so the Mat is released as soon
+     * as they have been notified.
+     * @param mat
+     * @param timestamp
+     * @param fullWidth The width the frame would have had at full
+     * resolution.
+     * @param fullHeight
+     */
+    protected void publishPreview(Mat mat, long timestamp, int fullWidth, int fullHeight) {
+        width = fullWidth;
+        height = fullHeight;
+        Frame frame = new Frame(null, mat, 0, timestamp);
+        try {
+            broadcastFrame(frame);
+        }
+        finally {
+            frame.release();
+        }
+    }
+    
+    /**
+     * Publishes a frame captured by this camera's capture thread. The frame
+     * is stored in the frame bus, any consumers blocked in waitForFrame are
+     * woken and the image is sent to the continuous capture listeners.
+     * 
+     * Frames are shared between all consumers and must be treated as read
+     * only. A frame's Mat is released when the frame is overwritten in the
+     * ring buffer, so consumers that need the Mat must take a copy with
+     * Frame.cloneMat(), and should use waitForImageAfter() or
+     * waitForMatAfter(), which keep the frame pinned until that is done.
+     * @param image
+     * @param timestamp The System.nanoTime() at which the device read that
+     * produced the image was started.
+     * @return The published Frame.
+     */
+    protected Frame publishFrame(BufferedImage image, long timestamp) {
+        return publishFrame(image, null, timestamp);
+    }
+    
+    /**
+     * Same as publishFrame(BufferedImage, long) for cameras that produce
+     * Mats. The Mat is owned by the frame bus from this point on. The
+     * BufferedImage is only created if a listener or a capture() caller
+     * asks for it.
+     */
+    protected Frame publishFrame(Mat mat, long timestamp) {
+        return publishFrame(null, mat, timestamp);
+    }
+    
+    private Frame publishFrame(BufferedImage image, Mat mat, long timestamp) {
+        if (image != null) {
+            width = image.getWidth();
+            height = image.getHeight();
+        }
+        else {
+            width = mat.cols();
+            height = mat.rows();
+        }
+        Frame frame;
+        synchronized (frameLock) {
+            frameSequence++;
+            frame = new Frame(image, mat, frameSequence, timestamp);
+            int slot = (int) (frameSequence % FRAME_BUFFER_SIZE);
+            if (frames[slot] != null) {
+                frames[slot].release();
+            }
+            frames[slot] = frame;
+            frameLock.notifyAll();
+        }
+        broadcastFrame(frame);
+        return frame;
+    }
+    
+    /**
+     * Discards the buffered frames, for instance after the device has been
+     * reopened with a different resolution, and releases their Mats.
+     * Sequence numbers keep counting.
+     */
+    protected void clearFrames() {
+        synchronized (frameLock) {
+            for (Frame frame : frames) {
+                if (frame != null) {
+                    frame.release();
+                }
+            }
+            Arrays.fill(frames, null);
+        }
+    }
+    
+    /**
+     * Returns the most recently published frame without waiting, or null if
+     * no frame has been published yet.
+     */
+    public Frame getLatestFrame() {
+        synchronized (frameLock) {
+            if (frameSequence == 0) {
+                return null;
+            }
+            return frames[(int) (frameSequence % FRAME_BUFFER_SIZE)];
+        }
+    }
+    
+    /**
+     * Returns the sequence number of the most recently published frame, or
+     * 0 if none has been published yet.
+     */
+    public long getFrameSequence() {
+        synchronized (frameLock) {
+            return frameSequence;
+        }
+    }
+    
+    /**
+     * Returns the first frame in the buffer whose sequence is greater than
+     * afterSequence, waiting up to timeoutMs for one to be published.
+     * Returns null on timeout or interrupt.
+     */
+    public Frame waitForFrame(long afterSequence, long timeoutMs) {
+        return waitForFrame(afterSequence, Long.MIN_VALUE, timeoutMs, false);
+    }
+    
+    /**
+     * Returns the first frame whose capture was started after timestamp,
+     * as given by System.nanoTime(), waiting up to timeoutMs for one to be
+     * published. Pass System.nanoTime() taken after a move completes to get
+     * a frame that cannot predate the move. Returns null on timeout or
+     * interrupt.
+     */
+    public Frame waitForFrameAfter(long timestamp, long timeoutMs) {
+        return waitForFrame(0, timestamp, timeoutMs, false);
+    }
+    
+    /**
+     * Same as waitForFrameAfter() but returns the frame's image. The frame
+     * is pinned until the image has been converted, so it can't be released
+     * in between even if the capture thread publishes a buffer's worth of
+     * frames in the meantime.
+     */
+    public BufferedImage waitForImageAfter(long timestamp, long timeoutMs) {
+        Frame frame = waitForFrame(0, timestamp, timeoutMs, true);
+        if (frame == null) {
+            return null;
+        }
+        try {
+            return frame.getImage();
+        }
+        finally {
+            frame.unpin();
+        }
+    }
+    
+    /**
+     * Same as waitForImageAfter() but returns a copy of the frame's Mat,
+     * which the caller owns and must release.
+     */
+    public Mat waitForMatAfter(long timestamp, long timeoutMs) {
+        Frame frame = waitForFrame(0, timestamp, timeoutMs, true);
+        if (frame == null) {
+            return null;
+        }
+        try {
+            return frame.cloneMat();
+        }
+        finally {
+            frame.unpin();
+        }
+    }
+    
+    /**
+     * Waits for a frame as described by waitForFrame() and
+     * waitForFrameAfter(). If pin is true the frame is pinned before
+     * frameLock is let go, and the caller must unpin it.
+     */
+    private Frame waitForFrame(long afterSequence, long afterTimestamp, long timeoutMs, boolean pin) {
+        // Clamp so that Long.MAX_VALUE can be used to wait forever.
+        long deadline = System.currentTimeMillis() + Math.min(timeoutMs, Long.MAX_VALUE / 2);
+        synchronized (frameLock) {
+            frameWaiters++;
+            // Wake the capture thread in case it is idling between frames.
+            frameLock.notifyAll();
+            try {
+                while (true) {
+                    // Oldest first so the earliest qualifying frame is returned.
+                    for (long seq = Math.max(afterSequence + 1, frameSequence - FRAME_BUFFER_SIZE + 1); seq <= frameSequence; seq++) {
+                        Frame frame = frames[(int) (seq % FRAME_BUFFER_SIZE)];
+                        if (frame != null && frame.timestamp > afterTimestamp) {
+                            // Frames in the buffer haven't been released, so
+                            // pinning can't fail here.
+                            if (pin) {
+                                frame.pin();
+                            }
+                            return frame;
+                        }
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    frameLock.wait(remaining);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            finally {
+                frameWaiters--;
+            }
+        }
+    }
+    
+    /**
+     * Called by a capture thread between frames. Sleeps for up to periodMs
+     * but returns as soon as a consumer is waiting for a frame so that
+     * vision operations are not delayed by the preview frame rate.
+     * @throws InterruptedException if the capture thread is interrupted.
+     */
+    protected void waitForNextFrameTime(long periodMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + periodMs;
+        synchronized (frameLock) {
+            while (frameWaiters == 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+                frameLock.wait(remaining);
+            }
+        }
+    }
+    
     @Override
     public int getWidth() {
         if (width == null) {
-            BufferedImage image = capture();
-            width = image.getWidth();
-            height = image.getHeight();
+            updateDimensions();
         }
         return width;
     }
@@ -159,13 +626,23 @@ public abstract class AbstractCamera implements Camera {
     @Override
     public int getHeight() {
         if (width == null) {
-            BufferedImage image = capture();
-            width = image.getWidth();
-            height = image.getHeight();
+            updateDimensions();
         }
         return height;
     }
     
+    private void updateDimensions() {
+        // Use a frame already on the bus if there is one rather than
+        // issuing another capture.
+        Frame frame = getLatestFrame();
+        BufferedImage image = frame == null ? null : frame.getImage();
+        if (image == null) {
+            image = capture();
+        }
+        width = image.getWidth();
+        height = image.getHeight();
+    }
+    
     public long getSettleTimeMs() {
 		return settleTimeMs;
 	}
@@ -174,19 +651,245 @@ public abstract class AbstractCamera implements Camera {
     	this.settleTimeMs = settleTimeMs;
     }
 
+    public SettleMethod getSettleMethod() {
+        return settleMethod;
+    }
+
+    public void setSettleMethod(SettleMethod settleMethod) {
+        this.settleMethod = settleMethod;
+    }
+
+    public double getSettleThreshold() {
+        return settleThreshold;
+    }
+
+    public void setSettleThreshold(double settleThreshold) {
+        this.settleThreshold = settleThreshold;
+    }
+
+    public long getSettleTimeoutMs() {
+        return settleTimeoutMs;
+    }
+
+    public void setSettleTimeoutMs(long settleTimeoutMs) {
+        this.settleTimeoutMs = settleTimeoutMs;
+    }
+    
+    /**
+     * Statistics about the time actually spent settling this camera since
+     * it was loaded.
+     */
+    public SettleStatistics getSettleStatistics() {
+        return settleStatistics;
+    }
+
 	@Override
     public Icon getPropertySheetHolderIcon() {
         return Icons.captureCamera;
     }
 
+    public static class SettleStatistics {
+        private long count;
+        private long timeouts;
+        private long totalMs;
+        private long minMs = Long.MAX_VALUE;
+        private long maxMs;
+        
+        public synchronized void add(long ms, boolean timedOut) {
+            count++;
+            totalMs += ms;
+            minMs = Math.min(minMs, ms);
+            maxMs = Math.max(maxMs, ms);
+            if (timedOut) {
+                timeouts++;
+            }
+        }
+        
+        public synchronized void reset() {
+            count = timeouts = totalMs = maxMs = 0;
+            minMs = Long.MAX_VALUE;
+        }
+        
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getTimeouts() {
+            return timeouts;
+        }
+
+        public synchronized long getTotalMs() {
+            return totalMs;
+        }
+
+        public synchronized long getMinMs() {
+            return count == 0 ? 0 : minMs;
+        }
+
+        public synchronized long getMaxMs() {
+            return maxMs;
+        }
+
+        public synchronized double getAverageMs() {
+            return count == 0 ? 0 : (double) totalMs / count;
+        }
+        
+        @Override
+        public synchronized String toString() {
+            return String.format("%d settles, avg %.1f ms, min %d ms, max %d ms, total %d ms, %d timeouts", 
+                    count, getAverageMs(), getMinMs(), maxMs, totalMs, timeouts);
+        }
+    }
+    
+    /**
+     * A frame published on the frame bus. A frame is published either as a
+     * BufferedImage or as a Mat and the other form is created on first use.
+     * Both are shared by every consumer and must not be modified.
+     * 
+     * The Mat, whether published or created by a conversion, is owned by
+     * the frame and released when the frame is dropped from the frame bus,
+     * or if the frame is pinned at that point, once the last pin is removed.
+     * After that getImage() and getPreview() only return what was already
+     * converted, and null otherwise.
+     */
+    public static class Frame {
+        private BufferedImage image;
+        private Mat mat;
+        /**
+         * Downscaled copies made by getPreview(), by maximum width.
+         */
+        private Map<Integer, BufferedImage> previews;
+        private boolean released;
+        private int pins;
+        /**
+         * Increases by one for every frame published by the camera.
+         */
+        public final long sequence;
+        /**
+         * System.nanoTime() at which the device read for this frame began.
+         */
+        public final long timestamp;
+        
+        public Frame(BufferedImage image, Mat mat, long sequence, long timestamp) {
+            this.image = image;
+            this.mat = mat;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+        }
+        
+        public synchronized BufferedImage getImage() {
+            if (image == null && mat != null) {
+                image = OpenCvUtils.toBufferedImage(mat);
+            }
+            return image;
+        }
+        
+        /**
+         * Returns a copy of the frame as a Mat which the caller owns and must
+         * release, or null if the frame has already been released.
+         */
+        public synchronized Mat cloneMat() {
+            Mat mat = getMat();
+            return mat == null ? null : mat.clone();
+        }
+        
+        private Mat getMat() {
+            if (mat == null && image != null && !released) {
+                mat = OpenCvUtils.toMat(image);
+            }
+            return mat;
+        }
+        
+        /**
+         * Keeps the Mat from being released until unpin() is called, so the
+         * frame can be converted or copied after it has been dropped from
+         * the frame bus.
+         * @return False if the frame has already been released, in which
+         * case it isn't pinned.
+         */
+        public synchronized boolean pin() {
+            if (released) {
+                return false;
+            }
+            pins++;
+            return true;
+        }
+        
+        /**
+         * Removes a pin added by pin(), releasing the Mat if the frame was
+         * dropped from the frame bus while it was pinned.
+         */
+        public synchronized void unpin() {
+            pins--;
+            if (pins == 0 && released) {
+                releaseMat();
+            }
+        }
+        
+        /**
+         * Releases the Mat, or marks it to be released by the last unpin().
+         * Called with the camera's frame lock held when the frame is dropped
+         * from the frame bus.
+         */
+        private synchronized void release() {
+            released = true;
+            if (pins == 0) {
+                releaseMat();
+            }
+        }
+        
+        private void releaseMat() {
+            if (mat != null) {
+                mat.release();
+                mat = null;
+            }
+        }
+        
+        /**
+         * Returns the image downscaled to at most maximumWidth pixels wide,
+         * or getImage() if it is no wider than that or maximumWidth is 0.
+         * The downscaling is done by OpenCV and shared by every caller
+         * asking for the same width.
+         */
+        public synchronized BufferedImage getPreview(int maximumWidth) {
+            if (image == null && mat == null) {
+                return null;
+            }
+            int width = image != null ? image.getWidth() : mat.cols();
+            if (maximumWidth <= 0 || width <= maximumWidth) {
+                return getImage();
+            }
+            if (previews == null) {
+                previews = new HashMap<Integer, BufferedImage>();
+            }
+            BufferedImage preview = previews.get(maximumWidth);
+            if (preview == null) {
+                Mat source = getMat();
+                if (source == null) {
+                    // Released before a preview of this size was made.
+                    return image;
+                }
+                long height = Math.max(1, Math.round(source.rows() * (double) maximumWidth / width));
+                Mat scaled = new Mat();
+                Imgproc.resize(source, scaled, new Size(maximumWidth, height), 0, 0, Imgproc.INTER_AREA);
+                preview = OpenCvUtils.toBufferedImage(scaled);
+                scaled.release();
+                previews.put(maximumWidth, preview);
+            }
+            return preview;
+        }
+    }
+    
     protected class ListenerEntry {
         public CameraListener listener;
         public int maximumFps;
+        public int maximumWidth;
         public long lastFrameSent;
 
-        public ListenerEntry(CameraListener listener, int maximumFps) {
+        public ListenerEntry(CameraListener listener, int maximumFps, int maximumWidth) {
             this.listener = listener;
             this.maximumFps = maximumFps;
+            this.maximumWidth = maximumWidth;
         }
 
         @Override
@@ -10,9 +10,6 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import javax.swing.Icon;
 
@@ -65,7 +62,14 @@ public abstract class AbstractMachine implements Machine {
     
     protected Set<MachineListener> listeners = Collections.synchronizedSet(new HashSet<MachineListener>());
     
-    protected ThreadPoolExecutor executor;
+    protected HeadActivityDispatcher headActivityDispatcher = new HeadActivityDispatcher(this);
+    
+    protected MachineTaskScheduler scheduler = new MachineTaskScheduler() {
+        @Override
+        protected void busyChanged(boolean busy) {
+            fireMachineBusy(busy);
+        }
+    };
     
     protected AbstractMachine() {
     }
@@ -119,12 +123,19 @@ public abstract class AbstractMachine implements Machine {
 
     @Override
     public void addListener(MachineListener listener) {
+        addListener(listener, HeadActivityDispatcher.DEFAULT_MAX_RATE);
+    }
+
+    @Override
+    public void addListener(MachineListener listener, double maxRate) {
         listeners.add(listener);
+        headActivityDispatcher.addListener(listener, maxRate);
     }
 
     @Override
     public void removeListener(MachineListener listener) {
         listeners.remove(listener);
+        headActivityDispatcher.removeListener(listener);
     }
     
     @Override
@@ -152,10 +163,13 @@ public abstract class AbstractMachine implements Machine {
         return Collections.unmodifiableMap(jobProcessors);
     }
 
+    /**
+     * Queues machineHeadActivity() for the listeners and returns without
+     * waiting for them, see HeadActivityDispatcher.
+     * @param head
+     */
     public void fireMachineHeadActivity(Head head) {
-        for (MachineListener listener : listeners) {
-            listener.machineHeadActivity(this, head);
-        }
+        headActivityDispatcher.post(head);
     }
     
     public void fireMachineEnabled() {
@@ -211,24 +225,16 @@ public abstract class AbstractMachine implements Machine {
     
     @Override
     public <T> Future<T> submit(final Callable<T> callable, final FutureCallback<T> callback, final boolean ignoreEnabled) {
-        synchronized(this) {
-            if (executor == null || executor.isShutdown()) {
-                executor = new ThreadPoolExecutor(
-                        1, 
-                        1, 
-                        1,
-                        TimeUnit.SECONDS,
-                        new LinkedBlockingQueue<Runnable>());
-            }
-        }
-        
+        return submit(callable, callback, ignoreEnabled, TaskPriority.Job, null);
+    }
+    
+    @Override
+    public <T> Future<T> submit(final Callable<T> callable, final FutureCallback<T> callback,
+            final boolean ignoreEnabled, TaskPriority priority, Object coalesceKey) {
         Callable<T> wrapper = new Callable<T>() {
             public T call() throws Exception {
                 // TODO: lock driver
                 
-                // Notify listeners that the machine is now busy
-                fireMachineBusy(true);
-                
                 // Call the task, storing the result and exception if any
                 T result = null;
                 Exception exception = null;
@@ -252,19 +258,8 @@ public abstract class AbstractMachine implements Machine {
                     }
                 }
                 
-                // If there was an error cancel all pending tasks.
-                if (exception != null) {
-                    executor.shutdownNow();
-                }
-                
                 // TODO: unlock driver
   
-                // If no more tasks are scheduled notify listeners that
-                // the machine is no longer busy
-                if (executor.getQueue().isEmpty()) {
-                    fireMachineBusy(false);
-                }
-                
                 // Finally, fulfill the Future by either throwing the
                 // exception or returning the result.
                 if (exception != null) {
@@ -274,7 +269,13 @@ public abstract class AbstractMachine implements Machine {
             }
         };
         
-        return executor.submit(wrapper); 
+        // The scheduler notifies listeners with machineBusy() when it
+        // starts running tasks and when it runs out of them.
+        return scheduler.submit(wrapper, priority, coalesceKey); 
+    }
+
+    public MachineTaskScheduler getScheduler() {
+        return scheduler;
     }
 
 	@Override
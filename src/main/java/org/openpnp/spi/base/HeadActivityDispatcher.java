@@ -0,0 +1,156 @@
+package org.openpnp.spi.base;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openpnp.spi.Head;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.MachineListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers machineHeadActivity() events to MachineListeners on a dedicated
+ * thread, so that the code moving the machine never waits on a listener.
+ *
+ * Events are coalesced per listener and per Head: while an event for a Head
+ * is waiting to be delivered to a listener, further events for the same Head
+ * are dropped. Each listener receives events at most at its maximum rate.
+ * An event that arrives too soon after the last one is delivered once the
+ * interval has passed, so the listener always sees the final state.
+ */
+public class HeadActivityDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(HeadActivityDispatcher.class);
+
+    /**
+     * Maximum events per second for listeners that don't ask for a rate.
+     */
+    public static final double DEFAULT_MAX_RATE = 60;
+
+    private final Machine machine;
+    private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+    private Thread thread;
+
+    public HeadActivityDispatcher(Machine machine) {
+        this.machine = machine;
+    }
+
+    /**
+     * @param listener
+     * @param maxRate The maximum number of events per second to deliver to
+     * the listener, or 0 for no limit.
+     */
+    public synchronized void addListener(MachineListener listener, double maxRate) {
+        removeListener(listener);
+        subscriptions.add(new Subscription(listener, maxRate));
+    }
+
+    public synchronized void removeListener(MachineListener listener) {
+        for (Iterator<Subscription> i = subscriptions.iterator(); i.hasNext();) {
+            if (i.next().listener == listener) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Queues a machineHeadActivity() event for every listener and returns
+     * immediately.
+     * @param head
+     */
+    public synchronized void post(Head head) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.pending.add(head);
+        }
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch();
+                }
+            }, "HeadActivityDispatcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    private void dispatch() {
+        List<Subscription> due = new ArrayList<Subscription>();
+        List<List<Head>> heads = new ArrayList<List<Head>>();
+        while (true) {
+            synchronized (this) {
+                while (due.isEmpty()) {
+                    long now = System.nanoTime();
+                    long waitNanos = Long.MAX_VALUE;
+                    for (Subscription subscription : subscriptions) {
+                        if (subscription.pending.isEmpty()) {
+                            continue;
+                        }
+                        long remaining = subscription.lastDelivered
+                                + subscription.minIntervalNanos - now;
+                        if (remaining <= 0) {
+                            due.add(subscription);
+                            heads.add(new ArrayList<Head>(subscription.pending));
+                            subscription.pending.clear();
+                            subscription.lastDelivered = now;
+                        }
+                        else {
+                            waitNanos = Math.min(waitNanos, remaining);
+                        }
+                    }
+                    if (!due.isEmpty()) {
+                        break;
+                    }
+                    try {
+                        if (waitNanos == Long.MAX_VALUE) {
+                            wait();
+                        }
+                        else {
+                            long millis = waitNanos / 1000000;
+                            wait(millis, (int) (waitNanos - millis * 1000000));
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        thread = null;
+                        return;
+                    }
+                }
+            }
+            for (int i = 0; i < due.size(); i++) {
+                MachineListener listener = due.get(i).listener;
+                for (Head head : heads.get(i)) {
+                    try {
+                        listener.machineHeadActivity(machine, head);
+                    }
+                    catch (Exception e) {
+                        logger.warn("Head activity listener failed", e);
+                    }
+                }
+            }
+            due.clear();
+            heads.clear();
+        }
+    }
+
+    private static class Subscription {
+        final MachineListener listener;
+        final long minIntervalNanos;
+        final Set<Head> pending = new LinkedHashSet<Head>();
+        /**
+         * Far enough in the past that the first event is delivered at once.
+         */
+        long lastDelivered = System.nanoTime() - 1000000000000L;
+
+        Subscription(MachineListener listener, double maxRate) {
+            this.listener = listener;
+            this.minIntervalNanos = maxRate <= 0 ? 0 : (long) (1e9 / maxRate);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.openpnp.spi.base;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.openpnp.spi.Machine.TaskPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs machine tasks one at a time on a single thread, highest priority
+ * first and in submission order within a priority. A task that fails only
+ * fails its own Future, every other queued task still runs. Queued tasks
+ * can be cancelled individually through their Future.
+ *
+ * A task can be submitted with a coalesce key. If a task with the same key
+ * is still queued when it is submitted, the queued task is cancelled and
+ * replaced, so that for instance a burst of jog requests results in a
+ * single move to the latest target.
+ *
+ * The time each task spent queued before it started is recorded per
+ * priority.
+ */
+public class MachineTaskScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(MachineTaskScheduler.class);
+
+    private final PriorityQueue<Task<?>> queue = new PriorityQueue<Task<?>>();
+    private final Map<Object, Task<?>> coalescing = new HashMap<Object, Task<?>>();
+    private final long[] tasksRun = new long[TaskPriority.values().length];
+    private final long[] totalWaitNanos = new long[TaskPriority.values().length];
+    private final long[] maxWaitNanos = new long[TaskPriority.values().length];
+    private Thread thread;
+    private boolean busy;
+    private long sequence;
+
+    /**
+     * Queues the callable to be run on the scheduler's thread.
+     * @param callable
+     * @param priority
+     * @param coalesceKey If not null, a queued task submitted with an equal
+     * key is cancelled and replaced by this one.
+     * @return
+     */
+    public synchronized <T> Future<T> submit(Callable<T> callable, TaskPriority priority,
+            Object coalesceKey) {
+        Task<T> task = new Task<T>(callable, priority, coalesceKey, sequence++);
+        if (coalesceKey != null) {
+            Task<?> superseded = coalescing.put(coalesceKey, task);
+            if (superseded != null && queue.remove(superseded)) {
+                superseded.cancel(false);
+            }
+        }
+        queue.add(task);
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runTasks();
+                }
+            }, "MachineTaskScheduler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+        return task;
+    }
+
+    /**
+     * Cancels every queued task. The running task, if any, is not
+     * interrupted.
+     */
+    public synchronized void cancelQueued() {
+        for (Task<?> task : queue) {
+            task.cancel(false);
+        }
+        queue.clear();
+        coalescing.clear();
+    }
+
+    /**
+     * Returns the number of tasks waiting to run, not counting the one that
+     * is running.
+     * @return
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getQueueDepth(TaskPriority priority) {
+        int depth = 0;
+        for (Task<?> task : queue) {
+            if (task.priority == priority) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    public synchronized boolean isBusy() {
+        return busy;
+    }
+
+    public synchronized long getTasksRun(TaskPriority priority) {
+        return tasksRun[priority.ordinal()];
+    }
+
+    /**
+     * Returns the mean time tasks of the given priority waited in the queue
+     * before starting, in milliseconds.
+     * @param priority
+     * @return
+     */
+    public synchronized double getMeanWaitMillis(TaskPriority priority) {
+        int i = priority.ordinal();
+        if (tasksRun[i] == 0) {
+            return 0;
+        }
+        return totalWaitNanos[i] / (double) tasksRun[i] / 1e6;
+    }
+
+    public synchronized double getMaxWaitMillis(TaskPriority priority) {
+        return maxWaitNanos[priority.ordinal()] / 1e6;
+    }
+
+    /**
+     * Called on the scheduler's thread when it starts running tasks after
+     * being idle, with true, and when it runs out of tasks, with false.
+     * @param busy
+     */
+    protected void busyChanged(boolean busy) {
+    }
+
+    private void runTasks() {
+        while (true) {
+            Task<?> task;
+            boolean becameBusy = false;
+            synchronized (this) {
+                purgeCancelled();
+                if (queue.isEmpty() && busy) {
+                    busy = false;
+                    task = null;
+                }
+                else {
+                    while ((task = queue.poll()) == null) {
+                        try {
+                            wait();
+                        }
+                        catch (InterruptedException e) {
+                            thread = null;
+                            return;
+                        }
+                    }
+                    if (task.coalesceKey != null && coalescing.get(task.coalesceKey) == task) {
+                        coalescing.remove(task.coalesceKey);
+                    }
+                    if (task.isCancelled()) {
+                        continue;
+                    }
+                    if (!busy) {
+                        busy = true;
+                        becameBusy = true;
+                    }
+                    long wait = System.nanoTime() - task.submittedNanos;
+                    int i = task.priority.ordinal();
+                    tasksRun[i]++;
+                    totalWaitNanos[i] += wait;
+                    maxWaitNanos[i] = Math.max(maxWaitNanos[i], wait);
+                    logger.trace("Running {} task after {} ms, {} queued", new Object[] {
+                            task.priority, wait / 1000000, queue.size() });
+                }
+            }
+            if (task == null) {
+                busyChanged(false);
+                continue;
+            }
+            if (becameBusy) {
+                busyChanged(true);
+            }
+            // Exceptions are captured by the task's Future.
+            task.run();
+            // Clear the interrupted flag in case the task was cancelled
+            // while running, so it doesn't affect the next task.
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Removes tasks that were cancelled through their Future while queued.
+     */
+    private void purgeCancelled() {
+        for (Iterator<Task<?>> i = queue.iterator(); i.hasNext();) {
+            Task<?> task = i.next();
+            if (task.isCancelled()) {
+                i.remove();
+                if (task.coalesceKey != null && coalescing.get(task.coalesceKey) == task) {
+                    coalescing.remove(task.coalesceKey);
+                }
+            }
+        }
+    }
+
+    private static class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        final TaskPriority priority;
+        final Object coalesceKey;
+        final long sequence;
+        final long submittedNanos = System.nanoTime();
+
+        Task(Callable<T> callable, TaskPriority priority, Object coalesceKey, long sequence) {
+            super(callable);
+            this.priority = priority;
+            this.coalesceKey = coalesceKey;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task<?> o) {
+            if (priority != o.priority) {
+                return priority.compareTo(o.priority);
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package org.openpnp.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.HeadMountable;
 
@@ -17,7 +22,27 @@ public class MovableUtils {
     public static void moveToLocationAtSafeZ(HeadMountable hm, Location location, double speed) throws Exception {
         Head head = hm.getHead();
         head.moveToSafeZ(speed);
-        hm.moveTo(location.derive(null, null, Double.NaN, null), speed);
-        hm.moveTo(location, speed);
+        hm.moveAlong(Arrays.asList(
+                new Waypoint(location.derive(null, null, Double.NaN, null), speed),
+                new Waypoint(location, speed)));
+    }
+    
+    /**
+     * Returns a copy of the path with every safe Z Waypoint replaced by a
+     * move to the given safe Z Location. Used by Movables to turn a path
+     * into one that only contains Locations.
+     * @param path
+     * @param safeZ
+     * @return
+     */
+    public static List<Waypoint> resolveSafeZ(List<Waypoint> path, Location safeZ) {
+        List<Waypoint> resolved = new ArrayList<Waypoint>(path.size());
+        for (Waypoint waypoint : path) {
+            if (waypoint.isSafeZ()) {
+                waypoint = new Waypoint(safeZ, waypoint.getSpeed());
+            }
+            resolved.add(waypoint);
+        }
+        return resolved;
     }
 }
@@ -19,6 +19,7 @@ import org.openpnp.model.Configuration;
 import org.openpnp.model.Length;
 import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
+import org.openpnp.spi.MatCamera;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -74,6 +75,21 @@ public class OpenCvUtils {
         return mat;
     }    
     
+    /**
+     * Captures a frame from the Camera as a Mat, using the Camera's native
+     * Mat path if it has one. The caller owns the returned Mat.
+     * @param camera
+     * @param settle If true, settle the Camera before capturing.
+     * @return
+     */
+    public static Mat captureMat(Camera camera, boolean settle) {
+        if (camera instanceof MatCamera) {
+            MatCamera matCamera = (MatCamera) camera;
+            return settle ? matCamera.settleAndCaptureMat() : matCamera.captureMat();
+        }
+        return toMat(settle ? camera.settleAndCapture() : camera.capture());
+    }
+    
     /**
      * Finds circles of the given min and maxDiameter, no less than minDistance apart
      * by capturing an image from the given Camera. Results are returned as a List of Location
@@ -108,8 +124,7 @@ public class OpenCvUtils {
         double maxDiameterPixels = maxDiameter.getValue() / avgUnitsPerPixel;
         double minDistancePixels = minDistance.getValue() / avgUnitsPerPixel;
 
-        BufferedImage image = camera.capture(); 
-        Mat mat = toMat(image);
+        Mat mat = captureMat(camera, false);
         Mat circles = houghCircles(mat, minDiameterPixels, maxDiameterPixels, minDistancePixels);
         
     	// convert the results into Locations
@@ -1,5 +1,6 @@
 package org.openpnp.util;
 
+import java.awt.geom.Point2D;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -59,6 +60,23 @@ public class VisionUtils {
         return camera.getLocation().add(getPixelCenterOffsets(camera, x, y));
     }
     
+    /**
+     * The inverse of {@link VisionUtils#getPixelLocation(Camera, double, double)}.
+     * Returns the pixel coordinates at which the given Location appears in
+     * the Camera's image, which may be outside the image.
+     * @param camera
+     * @param location
+     * @return
+     */
+    public static Point2D.Double getLocationPixels(Camera camera, Location location) {
+        Location unitsPerPixel = camera.getUnitsPerPixel();
+        Location offsets = location.convertToUnits(unitsPerPixel.getUnits())
+                .subtract(camera.getLocation().convertToUnits(unitsPerPixel.getUnits()));
+        double x = (camera.getWidth() / 2.0) + offsets.getX() / unitsPerPixel.getX();
+        double y = (camera.getHeight() / 2.0) - offsets.getY() / unitsPerPixel.getY();
+        return new Point2D.Double(x, y);
+    }
+    
     public static List<Location> sortLocationsByDistance(final Location origin, List<Location> locations) {
     	// sort the results by distance from center ascending
         Collections.sort(locations, new Comparator<Location>() {
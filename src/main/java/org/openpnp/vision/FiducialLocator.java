@@ -11,13 +11,16 @@ import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.openpnp.model.Board;
 import org.openpnp.model.Board.Side;
 import org.openpnp.model.BoardLocation;
 import org.openpnp.model.Configuration;
 import org.openpnp.model.Footprint;
+import org.openpnp.model.Footprint.Pad;
 import org.openpnp.model.Length;
 import org.openpnp.model.Location;
 import org.openpnp.model.Placement;
@@ -40,6 +43,32 @@ public class FiducialLocator {
     private static final Logger logger = LoggerFactory
             .getLogger(FiducialLocator.class);
     
+    /**
+     * How far from its ideal location the first search for a fiducial
+     * looks, as a multiple of the template size. Later passes only look
+     * within one template size since the camera is then centered on the
+     * previous result.
+     */
+    private static final double INITIAL_SEARCH_SCALE = 4;
+    
+    private static final int TEMPLATE_CACHE_SIZE = 32;
+    
+    /**
+     * Rendered templates keyed by footprint content and camera scale, see
+     * getTemplateKey. Least recently used templates are dropped first.
+     * Returning the same BufferedImage for the same fiducial also lets the
+     * VisionProvider reuse its converted copy of the template.
+     */
+    private static final Map<String, BufferedImage> templateCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                    return size() > TEMPLATE_CACHE_SIZE;
+                }
+            });
+    
     public FiducialLocator() {
         
     }
@@ -110,10 +139,10 @@ public class FiducialLocator {
     
     public static Location getFiducialLocation(Footprint footprint, Camera camera) throws Exception {
         // Create the template
-        BufferedImage template = createTemplate(camera.getUnitsPerPixel(), footprint);
+        BufferedImage template = getTemplate(camera.getUnitsPerPixel(), footprint);
         
         // Wait for camera to settle
-        Thread.sleep(camera.getSettleTimeMs());
+        camera.settle();
         // Perform vision operation
         return getBestTemplateMatch(camera, template);
     }
@@ -137,7 +166,7 @@ public class FiducialLocator {
         logger.debug("Locating {}", fid.getId());
         
         // Create the template
-        BufferedImage template = createTemplate(camera.getUnitsPerPixel(), fid.getPart().getPackage().getFootprint());
+        BufferedImage template = getTemplate(camera.getUnitsPerPixel(), fid.getPart().getPackage().getFootprint());
         
         // Move to where we expect to find the fid
         Location location = Utils2D.calculateBoardPlacementLocation(
@@ -154,11 +183,21 @@ public class FiducialLocator {
         
         
         
+        // Search radius in the Camera's units based on the template size.
+        Location unitsPerPixel = camera.getUnitsPerPixel();
+        double templateSize = Math.max(
+                template.getWidth() * unitsPerPixel.getX(), 
+                template.getHeight() * unitsPerPixel.getY());
+        
         for (int i = 0; i < 3; i++) {
             // Wait for camera to settle
-            Thread.sleep(camera.getSettleTimeMs());
-            // Perform vision operation
-            location = getBestTemplateMatch(camera, template);
+            camera.settle();
+            // Perform vision operation, only looking near where we expect
+            // the fid to be.
+            Length searchRadius = new Length(
+                    templateSize * (i == 0 ? INITIAL_SEARCH_SCALE : 1), 
+                    unitsPerPixel.getUnits());
+            location = getBestTemplateMatch(camera, template, location, searchRadius);
             if (location == null) {
                 logger.debug("No matches found!");
                 return null;
@@ -172,9 +211,24 @@ public class FiducialLocator {
     }
     
     private static Location getBestTemplateMatch(final Camera camera, BufferedImage template) throws Exception {
+        return getBestTemplateMatch(camera, template, null, null);
+    }
+    
+    /**
+     * If expected is not null only the area within searchRadius of it is
+     * searched. 
+     */
+    private static Location getBestTemplateMatch(final Camera camera, BufferedImage template, 
+            Location expected, Length searchRadius) throws Exception {
         VisionProvider visionProvider = camera.getVisionProvider();
         
-        List<TemplateMatch> matches = visionProvider.getTemplateMatches(template);
+        List<TemplateMatch> matches;
+        if (expected == null) {
+            matches = visionProvider.getTemplateMatches(template);
+        }
+        else {
+            matches = visionProvider.getTemplateMatches(template, expected, searchRadius);
+        }
         
         if (matches.isEmpty()) {
             return null;
@@ -194,6 +248,43 @@ public class FiducialLocator {
         return matches.get(0).location;
     }
     
+    /**
+     * Returns the template for the footprint at the given scale, rendering
+     * it only if an identical footprint has not been rendered at the same
+     * scale before. Since the key is built from the footprint's content and
+     * the scale, editing a footprint or recalibrating the camera simply
+     * results in a new entry.
+     */
+    public static BufferedImage getTemplate(Location unitsPerPixel, Footprint footprint) {
+        String key = getTemplateKey(unitsPerPixel, footprint);
+        BufferedImage template = templateCache.get(key);
+        if (template == null) {
+            template = createTemplate(unitsPerPixel, footprint);
+            templateCache.put(key, template);
+            logger.debug("Created {}x{} template for {}", 
+                    new Object[] { template.getWidth(), template.getHeight(), key });
+        }
+        return template;
+    }
+    
+    private static String getTemplateKey(Location unitsPerPixel, Footprint footprint) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(unitsPerPixel.getUnits()).append(' ')
+            .append(unitsPerPixel.getX()).append(' ')
+            .append(unitsPerPixel.getY()).append(' ')
+            .append(footprint.getUnits());
+        for (Pad pad : footprint.getPads()) {
+            sb.append(" [")
+                .append(pad.getX()).append(' ')
+                .append(pad.getY()).append(' ')
+                .append(pad.getWidth()).append(' ')
+                .append(pad.getHeight()).append(' ')
+                .append(pad.getRotation()).append(' ')
+                .append(pad.getRoundness()).append(']');
+        }
+        return sb.toString();
+    }
+    
     /**
      * Create a template image based on a Placement's footprint. The image
      * will be scaled to match the dimensions of the current camera.
@@ -83,6 +83,7 @@ import org.openpnp.model.Length;
 import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
 import org.openpnp.util.HslColor;
+import org.openpnp.util.OpenCvUtils;
 import org.openpnp.util.VisionUtils;
 
 /**
@@ -376,7 +377,7 @@ public class FluentCv {
 
 	public FluentCv settleAndCapture(String... tag) {
 		checkCamera();
-		return toMat(camera.settleAndCapture(), tag);
+		return store(OpenCvUtils.captureMat(camera, true), tag);
 	}
 	
 	/**
@@ -0,0 +1,324 @@
+import java.awt.image.BufferedImage;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.swing.Action;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.openpnp.CameraListener;
+import org.openpnp.gui.support.Wizard;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
+import org.openpnp.spi.PropertySheetHolder;
+import org.openpnp.spi.base.AbstractCamera;
+import org.openpnp.util.OpenCvUtils;
+
+import com.google.common.io.Files;
+
+public class AbstractCameraTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+        System.loadLibrary(org.opencv.core.Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Configuration.initialize(Files.createTempDir());
+    }
+
+    /**
+     * Adaptive settling returns as soon as two frames are alike, without
+     * waiting for the timeout.
+     */
+    @Test
+    public void testSettleAdaptiveConverges() throws Exception {
+        TestCamera camera = new TestCamera();
+        camera.setSettleMethod(AbstractCamera.SettleMethod.Adaptive);
+        camera.setSettleTimeoutMs(5000);
+        // Noise that halves with every frame, as if vibration were dying out.
+        for (int i = 0; i < 10; i++) {
+            Mat noise = new Mat(120, 160, CvType.CV_8UC3);
+            Core.randn(noise, 0, 64.0 / (1 << i));
+            Mat frame = new Mat(120, 160, CvType.CV_8UC3, new Scalar(128, 128, 128));
+            Core.add(frame, noise, frame);
+            noise.release();
+            camera.frames.add(frame);
+        }
+        long t = System.currentTimeMillis();
+        Mat mat = camera.settleAndCaptureMat();
+        Assert.assertTrue(System.currentTimeMillis() - t < 5000);
+        Assert.assertNotNull(mat);
+        Assert.assertTrue(camera.captures < 10);
+        Assert.assertEquals(1, camera.getSettleStatistics().getCount());
+        Assert.assertEquals(0, camera.getSettleStatistics().getTimeouts());
+    }
+
+    /**
+     * A camera that returns no images times out without capturing in a
+     * busy loop.
+     */
+    @Test
+    public void testSettleAdaptiveNullFrames() throws Exception {
+        TestCamera camera = new TestCamera();
+        camera.setSettleMethod(AbstractCamera.SettleMethod.Adaptive);
+        camera.setSettleTimeoutMs(200);
+        Assert.assertNull(camera.settleAndCaptureMat());
+        Assert.assertEquals(1, camera.getSettleStatistics().getTimeouts());
+        Assert.assertTrue(camera.getSettleStatistics().getMaxMs() >= 200);
+        // Roughly 200 / SETTLE_NULL_FRAME_DELAY_MS, not thousands.
+        Assert.assertTrue("" + camera.captures, camera.captures <= 25);
+    }
+
+    /**
+     * Waiting consumers get the oldest buffered frame that qualifies, by
+     * sequence or by capture timestamp.
+     */
+    @Test
+    public void testFrameBusOrdering() throws Exception {
+        TestCamera camera = new TestCamera();
+        Assert.assertNull(camera.getLatestFrame());
+        BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+        camera.publish(image, 100);
+        camera.publish(image, 200);
+        camera.publish(image, 300);
+        Assert.assertEquals(3, camera.getFrameSequence());
+        Assert.assertEquals(300, camera.getLatestFrame().timestamp);
+        Assert.assertEquals(2, camera.waitForFrame(1, 0).sequence);
+        Assert.assertEquals(200, camera.waitForFrameAfter(150, 0).timestamp);
+        Assert.assertEquals(300, camera.waitForFrameAfter(200, 0).timestamp);
+        Assert.assertNull(camera.waitForFrameAfter(300, 0));
+        Assert.assertNull(camera.waitForFrame(3, 0));
+        Assert.assertEquals(4, camera.getWidth());
+        Assert.assertEquals(3, camera.getHeight());
+    }
+
+    /**
+     * Once the ring buffer is full new frames overwrite the oldest ones.
+     */
+    @Test
+    public void testFrameBusOverwrite() throws Exception {
+        TestCamera camera = new TestCamera();
+        BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+        for (int i = 1; i <= TestCamera.BUFFER_SIZE + 2; i++) {
+            camera.publish(image, i * 100);
+        }
+        Assert.assertEquals(3, camera.waitForFrame(0, 0).sequence);
+        Assert.assertEquals(300, camera.waitForFrameAfter(0, 0).timestamp);
+        Assert.assertEquals(TestCamera.BUFFER_SIZE + 2, camera.getLatestFrame().sequence);
+    }
+
+    /**
+     * Mats are released when their frame is overwritten or cleared, while
+     * copies taken with cloneMat() stay valid.
+     */
+    @Test
+    public void testFrameBusReleasesMats() throws Exception {
+        TestCamera camera = new TestCamera();
+        Mat first = new Mat(3, 4, CvType.CV_8UC3, new Scalar(0, 0, 255));
+        camera.publish(first, 100);
+        Mat copy = camera.getLatestFrame().cloneMat();
+        for (int i = 2; i <= TestCamera.BUFFER_SIZE; i++) {
+            camera.publish(new Mat(3, 4, CvType.CV_8UC3), i * 100);
+        }
+        Assert.assertFalse(first.empty());
+        Mat last = new Mat(3, 4, CvType.CV_8UC3);
+        camera.publish(last, 1000);
+        Assert.assertTrue(first.empty());
+        Assert.assertFalse(copy.empty());
+        copy.release();
+
+        AbstractCamera.Frame frame = camera.getLatestFrame();
+        camera.clear();
+        Assert.assertTrue(last.empty());
+        Assert.assertNull(frame.cloneMat());
+        Assert.assertNull(frame.getImage());
+    }
+
+    /**
+     * A pinned frame keeps its Mat after it is dropped from the frame bus,
+     * until the last pin is removed.
+     */
+    @Test
+    public void testFrameBusPinnedFrame() throws Exception {
+        TestCamera camera = new TestCamera();
+        Mat first = new Mat(3, 4, CvType.CV_8UC3, new Scalar(0, 0, 255));
+        camera.publish(first, 100);
+        AbstractCamera.Frame frame = camera.getLatestFrame();
+        Assert.assertTrue(frame.pin());
+        for (int i = 2; i <= TestCamera.BUFFER_SIZE + 1; i++) {
+            camera.publish(new Mat(3, 4, CvType.CV_8UC3), i * 100);
+        }
+        Assert.assertFalse(first.empty());
+        Assert.assertNotNull(frame.getImage());
+        Mat copy = frame.cloneMat();
+        Assert.assertNotNull(copy);
+        frame.unpin();
+        Assert.assertTrue(first.empty());
+        Assert.assertFalse(copy.empty());
+        copy.release();
+        Assert.assertFalse(frame.pin());
+
+        Mat mat = camera.waitForMatAfter(0, 0);
+        Assert.assertNotNull(mat);
+        mat.release();
+        Assert.assertNotNull(camera.waitForImageAfter(0, 0));
+    }
+
+    /**
+     * A waiting consumer is woken by the next published frame, and gets
+     * null once the timeout passes without one.
+     */
+    @Test
+    public void testFrameBusTimeout() throws Exception {
+        final TestCamera camera = new TestCamera();
+        final BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+        camera.publish(image, System.nanoTime());
+
+        long t = System.currentTimeMillis();
+        Assert.assertNull(camera.waitForFrameAfter(System.nanoTime(), 100));
+        Assert.assertTrue(System.currentTimeMillis() - t >= 100);
+
+        long after = System.nanoTime();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                camera.publish(image, System.nanoTime());
+            }
+        };
+        t = System.currentTimeMillis();
+        thread.start();
+        AbstractCamera.Frame frame = camera.waitForFrameAfter(after, 5000);
+        Assert.assertNotNull(frame);
+        Assert.assertEquals(2, frame.sequence);
+        Assert.assertTrue(frame.timestamp > after);
+        Assert.assertTrue(System.currentTimeMillis() - t < 5000);
+        thread.join();
+    }
+
+    /**
+     * Preview frames are sent to the listeners and then released, since
+     * they are not kept on the frame bus.
+     */
+    @Test
+    public void testPreviewReleased() throws Exception {
+        TestCamera camera = new TestCamera();
+        final List<BufferedImage> received = new LinkedList<>();
+        camera.startContinuousCapture(new CameraListener() {
+            @Override
+            public void frameReceived(BufferedImage img) {
+                received.add(img);
+            }
+        }, 10, 80);
+        Mat preview = new Mat(60, 80, CvType.CV_8UC3, new Scalar(0, 0, 255));
+        camera.preview(preview, System.nanoTime(), 160, 120);
+        Assert.assertEquals(1, received.size());
+        Assert.assertEquals(80, received.get(0).getWidth());
+        Assert.assertTrue(preview.empty());
+        Assert.assertEquals(160, camera.getWidth());
+        Assert.assertNull(camera.getLatestFrame());
+    }
+
+    /**
+     * Returns the queued frames from captureMat() and then repeats the last
+     * one, or returns null if none were queued. Stays at location.
+     */
+    static class TestCamera extends AbstractCamera {
+        final List<Mat> frames = new LinkedList<>();
+        Mat last;
+        int captures;
+        Location location = new Location(LengthUnit.Millimeters);
+
+        static final int BUFFER_SIZE = FRAME_BUFFER_SIZE;
+
+        Frame publish(BufferedImage image, long timestamp) {
+            return publishFrame(image, timestamp);
+        }
+
+        Frame publish(Mat mat, long timestamp) {
+            return publishFrame(mat, timestamp);
+        }
+
+        void clear() {
+            clearFrames();
+        }
+
+        void preview(Mat mat, long timestamp, int fullWidth, int fullHeight) {
+            publishPreview(mat, timestamp, fullWidth, fullHeight);
+        }
+
+        @Override
+        public Mat captureMat() {
+            captures++;
+            if (!frames.isEmpty()) {
+                last = frames.remove(0);
+            }
+            return last == null ? null : last.clone();
+        }
+
+        @Override
+        public BufferedImage capture() {
+            Mat mat = captureMat();
+            return mat == null ? null : OpenCvUtils.toBufferedImage(mat);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Location getLocation() {
+            return location;
+        }
+
+        @Override
+        public void moveTo(Location location, double speed) throws Exception {
+        }
+
+        @Override
+        public void moveAlong(List<Waypoint> path) throws Exception {
+        }
+
+        @Override
+        public void moveToSafeZ(double speed) throws Exception {
+        }
+
+        @Override
+        public Wizard getConfigurationWizard() {
+            return null;
+        }
+
+        @Override
+        public String getPropertySheetHolderTitle() {
+            return null;
+        }
+
+        @Override
+        public PropertySheetHolder[] getChildPropertySheetHolders() {
+            return null;
+        }
+
+        @Override
+        public PropertySheet[] getPropertySheets() {
+            return null;
+        }
+
+        @Override
+        public Action[] getPropertySheetHolderActions() {
+            return null;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.openpnp.JobProcessorDelegate;
 import org.openpnp.JobProcessorListener;
 import org.openpnp.machine.reference.ReferenceActuator;
 import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.machine.reference.ReferenceJobProcessor;
 import org.openpnp.machine.reference.ReferenceMachine;
 import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.driver.test.TestDriver;
@@ -52,6 +53,21 @@ public class BasicJobTest {
      */
     @Test
     public void testSimpleJob() throws Exception {
+        runSimpleJob(false);
+    }
+
+    /**
+     * Runs the same job with the pipelined ReferenceJobProcessor. Without a
+     * bottom vision camera it must issue exactly the same moves.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSimpleJobPipelined() throws Exception {
+        runSimpleJob(true);
+    }
+
+    private void runSimpleJob(boolean pipelined) throws Exception {
         File workingDirectory = Files.createTempDir();
         workingDirectory = new File(workingDirectory, ".openpnp");
         System.out.println("Configuration directory: " + workingDirectory);
@@ -68,6 +84,7 @@ public class BasicJobTest {
         TestCompleteNotifier notifier = new TestCompleteNotifier();
 
         JobProcessor jobProcessor = machine.getJobProcessors().get(JobProcessor.Type.PickAndPlace);
+        ((ReferenceJobProcessor) jobProcessor).setPipelined(pipelined);
         jobProcessor.addListener(new BasicJobTestProcessorListener(notifier));
         jobProcessor.setDelegate(new BasicJobTestJobProcessorDelegate());
 
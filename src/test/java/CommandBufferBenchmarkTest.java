@@ -0,0 +1,121 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import jssc.SerialPort;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.AbstractSerialPortDriver.SerialOutputStream;
+import org.openpnp.machine.reference.driver.CommandBuffer;
+
+public class CommandBufferBenchmarkTest {
+    /**
+     * CommandBuffer must format numbers exactly like String.format, including
+     * values that are exact decimal ties and values that round to zero.
+     */
+    @Test
+    public void testSameAsStringFormat() {
+        double[] values = { 0, -0.0, 1.005, 0.125, 12.345, -12.345, 2.675,
+                -0.001, 0.004999, 0.995, 9.9999, 99999.995, 1e-9, 123456789.123,
+                Double.NaN, Double.POSITIVE_INFINITY, 1e20 };
+        CommandBuffer buffer = new CommandBuffer(4);
+        for (int decimals = 0; decimals <= 4; decimals++) {
+            for (double value : values) {
+                assertFormat(buffer, value, decimals);
+            }
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 200000; i++) {
+            double value = (random.nextDouble() - 0.5) * 1000;
+            if (i % 2 == 0) {
+                // Short decimals, like typed in coordinates.
+                value = Math.round(value * 1000) / 1000.0;
+            }
+            assertFormat(buffer, value, 2);
+            assertFormat(buffer, value, 4);
+        }
+    }
+
+    /**
+     * Sends a typical move command through SerialOutputStream, formatted
+     * with String.format as the drivers did and with CommandBuffer as
+     * writeLine() does, checks that the port receives the same bytes and
+     * prints the timings.
+     */
+    @Test
+    public void testBenchmark() throws Exception {
+        Random random = new Random(2);
+        int count = 20000;
+        double[][] moves = new double[count][4];
+        for (double[] move : moves) {
+            for (int i = 0; i < move.length; i++) {
+                move[i] = random.nextDouble() * 300;
+            }
+        }
+        CommandBuffer buffer = new CommandBuffer();
+        CommandBuffer lineBuffer = new CommandBuffer();
+        RecordingSerialPort formatPort = new RecordingSerialPort();
+        RecordingSerialPort bufferPort = new RecordingSerialPort();
+        SerialOutputStream formatOutput = new SerialOutputStream(formatPort);
+        SerialOutputStream bufferOutput = new SerialOutputStream(bufferPort);
+        for (int round = 0; round < 3; round++) {
+            long t = System.nanoTime();
+            for (double[] move : moves) {
+                StringBuffer sb = new StringBuffer();
+                sb.append(String.format(Locale.US, "X%2.2f ", move[0]));
+                sb.append(String.format(Locale.US, "Y%2.2f ", move[1]));
+                sb.append(String.format(Locale.US, "Z%2.2f ", move[2]));
+                sb.append(String.format(Locale.US, "C%2.2f ", move[3]));
+                sb.append(String.format(Locale.US, "F%2.2f", 5000.0));
+                String command = "G1 " + sb.toString();
+                formatOutput.write((command + "\n").getBytes());
+            }
+            double formatNs = (System.nanoTime() - t) / (double) count;
+            t = System.nanoTime();
+            for (double[] move : moves) {
+                buffer.clear().append("G1 ")
+                    .append('X', move[0], 2)
+                    .append('Y', move[1], 2)
+                    .append('Z', move[2], 2)
+                    .append('C', move[3], 2)
+                    .append('F').append(5000.0, 2);
+                lineBuffer.clear().append(buffer).append('\n');
+                lineBuffer.writeTo(bufferOutput);
+            }
+            double bufferNs = (System.nanoTime() - t) / (double) count;
+            if (round == 2) {
+                System.out.println(String.format(
+                        "G1 command: String.format %.0f ns, CommandBuffer %.0f ns (%.0fx)",
+                        formatNs, bufferNs, formatNs / bufferNs));
+            }
+        }
+        Assert.assertEquals(3 * count, bufferPort.writes);
+        Assert.assertEquals(formatPort.writes, bufferPort.writes);
+        Assert.assertEquals(formatPort.hash, bufferPort.hash);
+    }
+
+    /**
+     * Counts the writes and hashes the bytes instead of sending them.
+     */
+    static class RecordingSerialPort extends SerialPort {
+        int writes;
+        int hash;
+
+        RecordingSerialPort() {
+            super("test");
+        }
+
+        @Override
+        public boolean writeBytes(byte[] buffer) {
+            writes++;
+            hash = 31 * hash + Arrays.hashCode(buffer);
+            return true;
+        }
+    }
+
+    private static void assertFormat(CommandBuffer buffer, double value, int decimals) {
+        String expected = String.format(Locale.US, "%." + decimals + "f", value);
+        Assert.assertEquals("" + value, expected, buffer.clear().append(value, decimals).toString());
+    }
+}
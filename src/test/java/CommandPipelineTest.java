@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.CommandPipeline;
+
+public class CommandPipelineTest {
+    /**
+     * Responses must be matched to commands in order, including when an
+     * earlier command times out and is acknowledged late.
+     */
+    @Test
+    public void testMatching() throws Exception {
+        final List<String> written = new ArrayList<String>();
+        CommandPipeline pipeline = new CommandPipeline(new CommandPipeline.Output() {
+            @Override
+            public void writeLine(CharSequence line) throws IOException {
+                written.add(line.toString());
+            }
+        }, 4, 0);
+
+        pipeline.responseReceived("Grbl 0.9j ['$' for help]");
+        Assert.assertEquals("Grbl 0.9j ['$' for help]", pipeline.drainUnsolicited().get(0));
+
+        CommandPipeline.Command a = pipeline.send("$I");
+        CommandPipeline.Command b = pipeline.send("G4 P0");
+        Assert.assertEquals(2, written.size());
+        try {
+            a.get(10, TimeUnit.MILLISECONDS);
+            Assert.fail("Expected a timeout");
+        }
+        catch (TimeoutException e) {
+        }
+
+        pipeline.responseReceived("[0.9j.20150622:]");
+        pipeline.acknowledged("ok", false);
+        pipeline.acknowledged("error: Bad number format", true);
+        Assert.assertEquals(2, a.get().size());
+        Assert.assertEquals("[0.9j.20150622:]", a.get().get(0));
+        Assert.assertFalse(a.isError());
+        Assert.assertTrue(b.isError());
+        Assert.assertEquals(1, b.get().size());
+        Assert.assertEquals(0, pipeline.getInFlight());
+    }
+
+    /**
+     * Sending must block while the character limit is reached, and an error
+     * for a detached command must be thrown from the next send.
+     */
+    @Test
+    public void testFlowControl() throws Exception {
+        final CommandPipeline pipeline = new CommandPipeline(new CommandPipeline.Output() {
+            @Override
+            public void writeLine(CharSequence line) throws IOException {
+            }
+        }, 4, 20);
+
+        pipeline.send("G1 X100.00 ", true);
+        Thread acker = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException e) {
+                }
+                pipeline.acknowledged("error: 1", true);
+            }
+        };
+        acker.start();
+        long t = System.currentTimeMillis();
+        try {
+            pipeline.send("G1 Y100.00 ", true);
+            Assert.fail("Expected the detached error");
+        }
+        catch (Exception e) {
+            Assert.assertTrue(e.getMessage().contains("error: 1"));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - t >= 50);
+        pipeline.send("G1 Y100.00 ", true);
+        Assert.assertEquals(1, pipeline.getInFlight());
+    }
+
+    /**
+     * A lost acknowledgement must not block drain() forever. The commands
+     * in flight are failed with the TimeoutException.
+     */
+    @Test
+    public void testDrainTimeout() throws Exception {
+        CommandPipeline pipeline = new CommandPipeline(new CommandPipeline.Output() {
+            @Override
+            public void writeLine(CharSequence line) throws IOException {
+            }
+        }, 4, 0);
+        pipeline.setTimeoutMs(100);
+
+        CommandPipeline.Command command = pipeline.send("G4 P0");
+        long t = System.currentTimeMillis();
+        try {
+            pipeline.drain();
+            Assert.fail("Expected a timeout");
+        }
+        catch (TimeoutException e) {
+        }
+        Assert.assertTrue(System.currentTimeMillis() - t >= 100);
+        Assert.assertEquals(0, pipeline.getInFlight());
+        try {
+            command.get();
+            Assert.fail("Expected the command to fail");
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.model.Board;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Part;
+import org.openpnp.model.Placement;
+
+import com.google.common.io.Files;
+
+public class ConfigurationResolveTest {
+    /**
+     * Parts are linked to their packages when the configuration is loaded,
+     * and placements to their parts when a board is loaded, without any
+     * listeners being registered for them.
+     */
+    @Test
+    public void testResolve() throws Exception {
+        File workingDirectory = new File(Files.createTempDir(), ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        File boardFile = new File(Files.createTempDir(), "test.board.xml");
+        Board board = Configuration.get().getBoard(boardFile);
+        for (Part part : Configuration.get().getParts()) {
+            Placement placement = new Placement(part.getId());
+            placement.setPart(part);
+            board.addPlacement(placement);
+        }
+        Configuration.get().saveBoard(board);
+
+        System.setProperty("disableSnapshots", "true");
+        try {
+            Configuration.initialize(workingDirectory);
+            Configuration.get().load();
+            String listeners = null;
+            for (String phase : Configuration.get().getLoadTimes().keySet()) {
+                if (phase.startsWith("configurationLoaded")) {
+                    listeners = phase;
+                }
+            }
+            Configuration.initialize(workingDirectory);
+            for (int i = 0; i < 100; i++) {
+                new Part("NEW-" + i);
+            }
+            Configuration.get().load();
+            Assert.assertTrue(Configuration.get().getLoadTimes().containsKey(listeners));
+
+            Assert.assertFalse(Configuration.get().getParts().isEmpty());
+            for (Part part : Configuration.get().getParts()) {
+                Assert.assertNotNull(part.getId(), part.getPackage());
+                Assert.assertSame(part.getPackage(),
+                        Configuration.get().getPackage(part.getPackage().getId()));
+            }
+
+            board = Configuration.get().getBoard(boardFile);
+            Assert.assertFalse(board.isDirty());
+            Assert.assertEquals(Configuration.get().getParts().size(),
+                    board.getPlacements().size());
+            for (Placement placement : board.getPlacements()) {
+                Assert.assertSame(Configuration.get().getPart(placement.getId()),
+                        placement.getPart());
+            }
+        }
+        finally {
+            System.clearProperty("disableSnapshots");
+        }
+    }
+}
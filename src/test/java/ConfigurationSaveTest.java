@@ -0,0 +1,187 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openpnp.model.Board;
+import org.openpnp.model.Board.Side;
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Part;
+import org.openpnp.model.Placement;
+import org.openpnp.model.Snapshot;
+import org.openpnp.spi.base.AbstractHead;
+
+import com.google.common.io.Files;
+
+public class ConfigurationSaveTest {
+    private static final String MARKER = "<!-- not rewritten -->";
+
+    private File workingDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        workingDirectory = new File(Files.createTempDir(), ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+    }
+
+    /**
+     * Files are only rewritten when their content changes, and parts.xml
+     * only when a Part changes.
+     */
+    @Test
+    public void testOnlyChangedFilesAreWritten() throws Exception {
+        File machineFile = new File(workingDirectory, "machine.xml");
+        File packagesFile = new File(workingDirectory, "packages.xml");
+        File partsFile = new File(workingDirectory, "parts.xml");
+        mark(machineFile);
+        mark(packagesFile);
+        mark(partsFile);
+
+        Configuration.get().save();
+        Assert.assertTrue(isMarked(machineFile));
+        Assert.assertTrue(isMarked(packagesFile));
+        Assert.assertTrue(isMarked(partsFile));
+
+        Part part = Configuration.get().getPart("C-0805-100NF");
+        part.setName(part.getName() + " changed");
+        Configuration.get().save();
+        Assert.assertTrue(isMarked(machineFile));
+        Assert.assertTrue(isMarked(packagesFile));
+        Assert.assertFalse(isMarked(partsFile));
+        Assert.assertTrue(Files.toString(partsFile, StandardCharsets.UTF_8)
+                .contains(part.getName()));
+
+        ((AbstractHead) Configuration.get().getMachine().getHeads().get(0)).setName("Renamed");
+        Configuration.get().save();
+        Assert.assertFalse(isMarked(machineFile));
+        Assert.assertTrue(isMarked(packagesFile));
+
+        // Nothing is left behind from the temporary files.
+        for (String name : workingDirectory.list()) {
+            Assert.assertFalse(name, name.endsWith(".tmp"));
+        }
+    }
+
+    /**
+     * A current snapshot is read instead of the XML, and the XML is read
+     * again once it changes.
+     */
+    @Test
+    public void testSnapshot() throws Exception {
+        File partsFile = new File(workingDirectory, "parts.xml");
+        Part part = Configuration.get().getPart("C-0805-100NF");
+        part.setName("From snapshot");
+        Configuration.get().save();
+        Assert.assertTrue(Snapshot.isCurrent(partsFile));
+        Assert.assertTrue(Snapshot.isCurrent(new File(workingDirectory, "packages.xml")));
+
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Assert.assertTrue(Configuration.get().getLoadTimes().containsKey(
+                "read parts.xml snapshot"));
+        part = Configuration.get().getPart("C-0805-100NF");
+        Assert.assertEquals("From snapshot", part.getName());
+        Assert.assertNotNull(part.getPackage());
+        Assert.assertEquals(part.getPackage(),
+                Configuration.get().getPackage(part.getPackage().getId()));
+
+        // Nothing changed, so nothing is written.
+        long modified = partsFile.lastModified();
+        Configuration.get().save();
+        Assert.assertEquals(modified, partsFile.lastModified());
+
+        String xml = Files.toString(partsFile, StandardCharsets.UTF_8);
+        Files.write(xml.replace("From snapshot", "From XML"), partsFile, StandardCharsets.UTF_8);
+        partsFile.setLastModified(modified + 2000);
+        Assert.assertFalse(Snapshot.isCurrent(partsFile));
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Assert.assertTrue(Configuration.get().getLoadTimes().containsKey("read parts.xml"));
+        Assert.assertEquals("From XML", Configuration.get().getPart("C-0805-100NF").getName());
+
+        File boardFile = new File(Files.createTempDir(), "test.board.xml");
+        Board board = Configuration.get().getBoard(boardFile);
+        Placement placement = new Placement("R1");
+        placement.setPart(Configuration.get().getPart("C-0805-100NF"));
+        placement.setLocation(new Location(LengthUnit.Millimeters, 1, 2, 0, 90));
+        placement.setSide(Side.Bottom);
+        board.addPlacement(placement);
+        Configuration.get().saveBoard(board);
+        Assert.assertTrue(Snapshot.isCurrent(boardFile));
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        board = Configuration.get().getBoard(boardFile);
+        Assert.assertFalse(board.isDirty());
+        placement = board.getPlacements().get(0);
+        Assert.assertEquals("R1", placement.getId());
+        Assert.assertSame(Configuration.get().getPart("C-0805-100NF"), placement.getPart());
+        Assert.assertEquals(new Location(LengthUnit.Millimeters, 1, 2, 0, 90),
+                placement.getLocation());
+        Assert.assertEquals(Side.Bottom, placement.getSide());
+        placement.setSide(Side.Top);
+        Assert.assertTrue(board.isDirty());
+    }
+
+    /**
+     * A change that keeps the length of parts.xml and is saved within the
+     * resolution of its modification time still replaces the snapshot.
+     */
+    @Test
+    public void testSnapshotSavedTwiceInOneSecond() throws Exception {
+        File partsFile = new File(workingDirectory, "parts.xml");
+        Part part = Configuration.get().getPart("C-0805-100NF");
+        part.setName("Snapshot A");
+        Configuration.get().save();
+        long length = partsFile.length();
+        part.setName("Snapshot B");
+        Configuration.get().save();
+        Assert.assertEquals(length, partsFile.length());
+        Assert.assertTrue(Snapshot.isCurrent(partsFile));
+
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Assert.assertTrue(Configuration.get().getLoadTimes().containsKey(
+                "read parts.xml snapshot"));
+        Assert.assertEquals("Snapshot B", Configuration.get().getPart("C-0805-100NF").getName());
+    }
+
+    /**
+     * Saving a job only writes the boards that have been modified.
+     */
+    @Test
+    public void testSaveJobSkipsCleanBoards() throws Exception {
+        File directory = Files.createTempDir();
+        Board clean = Configuration.get().getBoard(new File(directory, "clean.board.xml"));
+        Board dirty = Configuration.get().getBoard(new File(directory, "dirty.board.xml"));
+        Job job = new Job();
+        job.addBoardLocation(new BoardLocation(clean));
+        job.addBoardLocation(new BoardLocation(dirty));
+        mark(clean.getFile());
+        mark(dirty.getFile());
+        dirty.setName("Modified");
+
+        File jobFile = new File(directory, "test.job.xml");
+        Configuration.get().saveJob(job, jobFile);
+        Assert.assertTrue(isMarked(clean.getFile()));
+        Assert.assertFalse(isMarked(dirty.getFile()));
+        Assert.assertFalse(dirty.isDirty());
+        Assert.assertTrue(jobFile.exists());
+
+        Job loaded = Configuration.get().loadJob(jobFile);
+        Assert.assertEquals(2, loaded.getBoardLocations().size());
+    }
+
+    private static void mark(File file) throws Exception {
+        Files.append(MARKER, file, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isMarked(File file) throws Exception {
+        return Files.toString(file, StandardCharsets.UTF_8).contains(MARKER);
+    }
+}
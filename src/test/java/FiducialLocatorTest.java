@@ -0,0 +1,53 @@
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.model.Footprint;
+import org.openpnp.model.Footprint.Pad;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.vision.FiducialLocator;
+
+public class FiducialLocatorTest {
+    /**
+     * Templates are reused for footprints with the same pads at the same
+     * camera scale, and rendered again when either changes.
+     */
+    @Test
+    public void testTemplateCache() {
+        Location unitsPerPixel = new Location(LengthUnit.Millimeters, 0.02, 0.02, 0, 0);
+        Footprint footprint = createFootprint(1);
+        BufferedImage template = FiducialLocator.getTemplate(unitsPerPixel, footprint);
+        Assert.assertSame(template, FiducialLocator.getTemplate(unitsPerPixel, footprint));
+        Assert.assertSame(template, FiducialLocator.getTemplate(
+                new Location(LengthUnit.Millimeters, 0.02, 0.02, 0, 0), createFootprint(1)));
+
+        // Editing the footprint invalidates the template.
+        footprint.getPads().get(0).setWidth(2);
+        BufferedImage changed = FiducialLocator.getTemplate(unitsPerPixel, footprint);
+        Assert.assertNotSame(template, changed);
+        Assert.assertTrue(changed.getWidth() > template.getWidth());
+        Assert.assertEquals(template.getHeight(), changed.getHeight());
+
+        // So does recalibrating the camera.
+        Location recalibrated = new Location(LengthUnit.Millimeters, 0.01, 0.01, 0, 0);
+        BufferedImage rescaled = FiducialLocator.getTemplate(recalibrated, createFootprint(1));
+        Assert.assertNotSame(template, rescaled);
+        Assert.assertTrue(rescaled.getWidth() > template.getWidth());
+        Assert.assertTrue(rescaled.getHeight() > template.getHeight());
+
+        // And the original is still cached.
+        Assert.assertSame(template, FiducialLocator.getTemplate(unitsPerPixel, createFootprint(1)));
+    }
+
+    private static Footprint createFootprint(double width) {
+        Footprint footprint = new Footprint();
+        Pad pad = new Pad();
+        pad.setName("1");
+        pad.setWidth(width);
+        pad.setHeight(1);
+        pad.setRoundness(100);
+        footprint.getPads().add(pad);
+        return footprint;
+    }
+}
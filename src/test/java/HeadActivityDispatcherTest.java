@@ -0,0 +1,80 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.MachineListener;
+import org.openpnp.spi.base.HeadActivityDispatcher;
+
+public class HeadActivityDispatcherTest {
+    /**
+     * Events posted while a listener is busy must be coalesced per Head, and
+     * the last event posted must always be delivered.
+     */
+    @Test
+    public void testCoalescing() throws Exception {
+        final Head a = createHead();
+        final Head b = createHead();
+        final List<Head> delivered = Collections.synchronizedList(new ArrayList<Head>());
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        HeadActivityDispatcher dispatcher = new HeadActivityDispatcher(null);
+        dispatcher.addListener(new MachineListener.Adapter() {
+            @Override
+            public void machineHeadActivity(Machine machine, Head head) {
+                delivered.add(head);
+                entered.countDown();
+                try {
+                    // Hold the dispatcher in the first delivery while the
+                    // burst is posted.
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                }
+                if (head == b) {
+                    done.countDown();
+                }
+            }
+        }, 10);
+
+        dispatcher.post(a);
+        Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100000; i++) {
+            dispatcher.post(a);
+        }
+        dispatcher.post(b);
+        release.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // The first event, then the burst coalesced to one event per Head.
+        Assert.assertEquals(3, delivered.size());
+        Assert.assertSame(a, delivered.get(0));
+        Assert.assertSame(a, delivered.get(1));
+        Assert.assertSame(b, delivered.get(2));
+    }
+
+    private static Head createHead() {
+        return (Head) Proxy.newProxyInstance(HeadActivityDispatcherTest.class.getClassLoader(),
+                new Class<?>[] { Head.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openpnp.machine.reference.feeder.ReferenceTubeFeeder;
+import org.openpnp.model.Board;
+import org.openpnp.model.Board.Side;
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.planner.IndexedJobPlanner;
+import org.openpnp.planner.SimpleJobPlanner;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.JobPlanner;
+import org.openpnp.spi.JobPlanner.PlacementSolution;
+import org.openpnp.spi.Machine;
+
+import com.google.common.io.Files;
+
+public class IndexedJobPlannerTest {
+    private Machine machine;
+    private Head head;
+    private ReferenceTubeFeeder feeder;
+
+    @Before
+    public void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        machine = Configuration.get().getMachine();
+        feeder = new ReferenceTubeFeeder();
+        feeder.setPart(Configuration.get().getPart("C-0805-100NF"));
+        feeder.setLocation(new Location(LengthUnit.Millimeters, 300, 0, 0, 0));
+        feeder.setEnabled(true);
+        machine.addFeeder(feeder);
+        head = machine.getHead("H1");
+    }
+
+    /**
+     * The indexed planner must produce exactly the same plan as
+     * SimpleJobPlanner.
+     */
+    @Test
+    public void testSameAsSimpleJobPlanner() throws Exception {
+        Job job = createJob(5, 40);
+        List<String> simple = plan(new SimpleJobPlanner(), job);
+        List<String> indexed = plan(new IndexedJobPlanner(), job);
+        Assert.assertEquals(200, indexed.size());
+        Assert.assertEquals(simple, indexed);
+    }
+
+    /**
+     * Disabling a Feeder mid job must stop the planner from using it and the
+     * placements that need it must be reported unfilled at the end.
+     */
+    @Test
+    public void testFeederDisabled() throws Exception {
+        Job job = createJob(1, 40);
+        JobPlanner planner = new IndexedJobPlanner();
+        planner.setJob(job);
+        planner.getNextPlacementSolutions(head);
+        feeder.setEnabled(false);
+        Set<PlacementSolution> solutions;
+        while ((solutions = planner.getNextPlacementSolutions(head)) != null) {
+            PlacementSolution first = solutions.iterator().next();
+            if (first.nozzle == null) {
+                for (PlacementSolution solution : solutions) {
+                    Assert.assertEquals("C-0805-100NF", solution.placement.getPart().getId());
+                }
+                return;
+            }
+            for (PlacementSolution solution : solutions) {
+                Assert.assertNotSame(feeder, solution.feeder);
+            }
+        }
+        Assert.fail("Expected unplannable placements");
+    }
+
+    /**
+     * Giving a Feeder a different Part mid job must move it to the new
+     * Part's placements.
+     */
+    @Test
+    public void testFeederPartChanged() throws Exception {
+        Job job = createJob(1, 40);
+        JobPlanner planner = new IndexedJobPlanner();
+        planner.setJob(job);
+        planner.getNextPlacementSolutions(head);
+        feeder.setPart(Configuration.get().getPart("R-0805-10K"));
+        Set<PlacementSolution> solutions;
+        while ((solutions = planner.getNextPlacementSolutions(head)) != null) {
+            for (PlacementSolution solution : solutions) {
+                if (solution.feeder == feeder) {
+                    Assert.assertEquals("R-0805-10K", solution.placement.getPart().getId());
+                }
+            }
+            if (solutions.iterator().next().nozzle == null) {
+                break;
+            }
+        }
+    }
+
+    private List<String> plan(JobPlanner planner, Job job) {
+        List<String> plan = new ArrayList<String>();
+        planner.setJob(job);
+        Set<PlacementSolution> solutions;
+        while ((solutions = planner.getNextPlacementSolutions(head)) != null) {
+            for (PlacementSolution solution : solutions) {
+                Assert.assertNotNull(solution.nozzle);
+                plan.add(solution.boardLocation.getBoard().getName() + " "
+                        + solution.placement.getId() + " "
+                        + solution.nozzle.getId() + " "
+                        + solution.nozzleTip.getId() + " "
+                        + solution.feeder.getId());
+            }
+        }
+        return plan;
+    }
+
+    private static Job createJob(int boards, int placementsPerBoard) {
+        Random random = new Random(2);
+        Job job = new Job();
+        for (int i = 0; i < boards; i++) {
+            Board board = new Board();
+            board.setName("test" + i);
+            for (int j = 0; j < placementsPerBoard; j++) {
+                String partId = random.nextBoolean() ? "R-0805-10K" : "C-0805-100NF";
+                board.addPlacement(BasicJobTest.createPlacement("R" + j, partId,
+                        random.nextDouble() * 50, random.nextDouble() * 50, 0,
+                        0, Side.Top));
+            }
+            BoardLocation boardLocation = new BoardLocation(board);
+            boardLocation.setLocation(new Location(LengthUnit.Millimeters, 60 * i, 100, 0, 0));
+            boardLocation.setSide(Side.Top);
+            job.addBoardLocation(boardLocation);
+        }
+        return job;
+    }
+}
@@ -0,0 +1,322 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.JobProcessorListener;
+import org.openpnp.machine.reference.ReferenceHeadMountable;
+import org.openpnp.machine.reference.ReferenceJobProcessor;
+import org.openpnp.machine.reference.ReferenceMachine;
+import org.openpnp.machine.reference.ReferenceNozzle;
+import org.openpnp.machine.reference.driver.TimedNullDriver;
+import org.openpnp.machine.reference.driver.test.TestDriver;
+import org.openpnp.machine.reference.driver.test.TestDriver.TestDriverDelegate;
+import org.openpnp.machine.reference.feeder.ReferenceTubeFeeder;
+import org.openpnp.model.Board;
+import org.openpnp.model.Board.Side;
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.model.Length;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Part;
+import org.openpnp.model.Placement;
+import org.openpnp.planner.IndexedJobPlanner;
+import org.openpnp.planner.ShortestTravelJobPlanner;
+import org.openpnp.planner.SimpleJobPlanner;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.JobPlanner;
+import org.openpnp.spi.JobProcessor;
+import org.openpnp.spi.JobProcessor.JobError;
+import org.openpnp.spi.JobProcessor.JobState;
+import org.openpnp.spi.Machine;
+
+import com.google.common.io.Files;
+
+/**
+ * Runs synthetic jobs through ReferenceJobProcessor with each JobPlanner,
+ * sequential and pipelined, against TestDriver with no latency, and prints
+ * the planning time, moves, head travel, the machine time TimedNullDriver
+ * predicts for those moves and the allocation rate for each.
+ * 
+ * The job size can be changed with the benchmark.boards,
+ * benchmark.placements, benchmark.parts and benchmark.seed system
+ * properties, for example:
+ * 
+ * mvn test -Dtest=JobThroughputBenchmarkTest -Dbenchmark.boards=500
+ */
+public class JobThroughputBenchmarkTest {
+    @Test
+    public void testThroughput() throws Exception {
+        int boards = Integer.getInteger("benchmark.boards", 10);
+        int placements = Integer.getInteger("benchmark.placements", 40);
+        int parts = Integer.getInteger("benchmark.parts", 24);
+        long seed = Long.getLong("benchmark.seed", 1);
+
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        Machine machine = Configuration.get().getMachine();
+        Part[] benchmarkParts = createParts(machine, parts);
+        TestDriver testDriver = (TestDriver) ((ReferenceMachine) machine).getDriver();
+        ReferenceJobProcessor jobProcessor = (ReferenceJobProcessor) machine
+                .getJobProcessors().get(JobProcessor.Type.PickAndPlace);
+        JobPlanner originalPlanner = jobProcessor.getJobPlanner();
+        Head head = machine.getHead("H1");
+
+        System.out.println(String.format(
+                "%d boards, %d placements each, %d parts on %d feeders, %d nozzles",
+                boards, placements, parts, machine.getFeeders().size(), head.getNozzles().size()));
+        System.out.println(String.format("%-26s %-10s %9s %10s %8s %11s %11s %10s %9s",
+                "Planner", "Mode", "Wall ms", "Plan ms", "Moves", "Travel m",
+                "Machine s", "Alloc MB", "MB/s"));
+
+        JobPlanner[] planners = { new SimpleJobPlanner(), new IndexedJobPlanner(),
+                new ShortestTravelJobPlanner() };
+        try {
+            for (JobPlanner planner : planners) {
+                for (boolean pipelined : new boolean[] { false, true }) {
+                    Job job = createJob(benchmarkParts, boards, placements, seed);
+                    AllocationMeter allocation = new AllocationMeter();
+                    TimingJobPlanner timingPlanner = new TimingJobPlanner(planner, allocation);
+                    CountingDriverDelegate driver = new CountingDriverDelegate(allocation);
+                    testDriver.setDelegate(driver);
+                    jobProcessor.setJobPlanner(timingPlanner);
+                    jobProcessor.setPipelined(pipelined);
+
+                    long start = System.nanoTime();
+                    allocation.sample();
+                    runJob(machine, jobProcessor, job);
+                    allocation.sample();
+                    double wallSeconds = (System.nanoTime() - start) / 1e9;
+
+                    Assert.assertEquals(boards * placements, driver.places);
+                    double allocatedMb = allocation.getAllocatedBytes() / 1e6;
+                    System.out.println(String.format("%-26s %-10s %9.0f %10.1f %8d %11.1f %11.1f %10.1f %9.1f",
+                            planner.getClass().getSimpleName(),
+                            pipelined ? "pipelined" : "sequential",
+                            wallSeconds * 1000,
+                            timingPlanner.nanos / 1e6,
+                            driver.moves,
+                            driver.travel / 1000,
+                            driver.machineSeconds,
+                            allocatedMb,
+                            allocatedMb / wallSeconds));
+                }
+            }
+        }
+        finally {
+            testDriver.setDelegate(new TestDriverDelegate());
+            jobProcessor.setJobPlanner(originalPlanner);
+            jobProcessor.setPipelined(false);
+        }
+    }
+
+    private static void runJob(Machine machine, JobProcessor jobProcessor, Job job)
+            throws Exception {
+        final Object lock = new Object();
+        final String[] error = new String[1];
+        final Thread[] stopped = new Thread[1];
+        JobProcessorListener listener = new JobProcessorListener.Adapter() {
+            @Override
+            public void jobStateChanged(JobState state) {
+                if (state == JobState.Stopped) {
+                    synchronized (lock) {
+                        stopped[0] = Thread.currentThread();
+                        lock.notifyAll();
+                    }
+                }
+            }
+
+            @Override
+            public void jobEncounteredError(JobError e, String description) {
+                synchronized (lock) {
+                    error[0] = e + " " + description;
+                    lock.notifyAll();
+                }
+            }
+        };
+        // Loading a job reports it as stopped, so listen only after.
+        jobProcessor.load(job);
+        jobProcessor.addListener(listener);
+        try {
+            machine.setEnabled(true);
+            synchronized (lock) {
+                jobProcessor.start();
+                while (stopped[0] == null && error[0] == null) {
+                    lock.wait();
+                }
+            }
+            if (error[0] != null) {
+                throw new Exception(error[0]);
+            }
+            // The next job can't start until the job thread has exited.
+            stopped[0].join();
+        }
+        finally {
+            jobProcessor.removeListener(listener);
+        }
+    }
+
+    /**
+     * Creates parts alternating between the two packages the test machine's
+     * nozzle tips handle, each on its own feeder along the front of the
+     * machine.
+     */
+    private static Part[] createParts(Machine machine, int count) throws Exception {
+        Part[] parts = new Part[count];
+        for (int i = 0; i < count; i++) {
+            String packageId = i % 2 == 0 ? "0805" : "0603";
+            Part part = new Part("BENCH-" + packageId + "-" + i);
+            part.setPackage(Configuration.get().getPackage(packageId));
+            part.setHeight(new Length(0.5, LengthUnit.Millimeters));
+            Configuration.get().addPart(part);
+
+            ReferenceTubeFeeder feeder = new ReferenceTubeFeeder();
+            feeder.setPart(part);
+            feeder.setLocation(new Location(LengthUnit.Millimeters, 12 * i, -50, 0, 0));
+            feeder.setEnabled(true);
+            machine.addFeeder(feeder);
+            parts[i] = part;
+        }
+        return parts;
+    }
+
+    private static Job createJob(Part[] parts, int boards, int placementsPerBoard, long seed) {
+        Random random = new Random(seed);
+        Job job = new Job();
+        for (int i = 0; i < boards; i++) {
+            Board board = new Board();
+            board.setName("bench" + i);
+            for (int j = 0; j < placementsPerBoard; j++) {
+                Placement placement = new Placement("P" + i + "-" + j);
+                placement.setPart(parts[random.nextInt(parts.length)]);
+                placement.setLocation(new Location(LengthUnit.Millimeters,
+                        random.nextDouble() * 100, random.nextDouble() * 80, 0,
+                        random.nextInt(4) * 90));
+                placement.setSide(Side.Top);
+                board.addPlacement(placement);
+            }
+            BoardLocation boardLocation = new BoardLocation(board);
+            boardLocation.setLocation(new Location(LengthUnit.Millimeters,
+                    (i % 4) * 110, (i / 4 % 4) * 90, 0, 0));
+            boardLocation.setSide(Side.Top);
+            job.addBoardLocation(boardLocation);
+        }
+        return job;
+    }
+
+    /**
+     * Counts what the job processor asks of the driver and predicts how long
+     * the moves would take with TimedNullDriver's default axis limits.
+     */
+    private static class CountingDriverDelegate extends TestDriverDelegate {
+        final TimedNullDriver model = new TimedNullDriver();
+        final AllocationMeter allocation;
+        Location location = new Location(LengthUnit.Millimeters, 0, 0, 0, 0);
+        int moves;
+        int picks;
+        int places;
+        double travel;
+        double machineSeconds;
+
+        CountingDriverDelegate(AllocationMeter allocation) {
+            this.allocation = allocation;
+        }
+
+        @Override
+        public void moveTo(ReferenceHeadMountable hm, Location location, double speed)
+                throws Exception {
+            allocation.sample();
+            moves++;
+            travel += this.location.getLinearDistanceTo(location);
+            machineSeconds += model.getMoveSeconds(this.location, location, speed);
+            this.location = location;
+        }
+
+        @Override
+        public void pick(ReferenceNozzle nozzle) throws Exception {
+            picks++;
+        }
+
+        @Override
+        public void place(ReferenceNozzle nozzle) throws Exception {
+            places++;
+        }
+    }
+
+    private static class TimingJobPlanner implements JobPlanner {
+        final JobPlanner planner;
+        final AllocationMeter allocation;
+        long nanos;
+
+        TimingJobPlanner(JobPlanner planner, AllocationMeter allocation) {
+            this.planner = planner;
+            this.allocation = allocation;
+        }
+
+        @Override
+        public synchronized void setJob(Job job) {
+            long t = System.nanoTime();
+            planner.setJob(job);
+            nanos += System.nanoTime() - t;
+        }
+
+        @Override
+        public synchronized Set<PlacementSolution> getNextPlacementSolutions(Head head) {
+            allocation.sample();
+            long t = System.nanoTime();
+            Set<PlacementSolution> solutions = planner.getNextPlacementSolutions(head);
+            nanos += System.nanoTime() - t;
+            allocation.sample();
+            return solutions;
+        }
+    }
+
+    /**
+     * Adds up the bytes allocated by every thread that calls sample(), from
+     * its first call to its last. The pipelined job processor plans and runs
+     * vision on pool threads that are gone by the time the job stops, so
+     * this is sampled from the planner and the driver as the job runs.
+     */
+    private static class AllocationMeter {
+        final com.sun.management.ThreadMXBean threads;
+        final Map<Long, long[]> samples = new HashMap<Long, long[]>();
+
+        AllocationMeter() {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            threads = bean instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) bean : null;
+        }
+
+        synchronized void sample() {
+            if (threads == null) {
+                return;
+            }
+            long id = Thread.currentThread().getId();
+            long bytes = threads.getThreadAllocatedBytes(id);
+            long[] sample = samples.get(id);
+            if (sample == null) {
+                samples.put(id, new long[] { bytes, bytes });
+            }
+            else {
+                sample[1] = bytes;
+            }
+        }
+
+        synchronized long getAllocatedBytes() {
+            long total = 0;
+            for (long[] sample : samples.values()) {
+                total += sample[1] - sample[0];
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.spi.Machine.TaskPriority;
+import org.openpnp.spi.base.MachineTaskScheduler;
+
+public class MachineTaskSchedulerTest {
+    /**
+     * Queued tasks must run by priority, superseded tasks must be replaced
+     * and a failing task must not affect the others.
+     */
+    @Test
+    public void testScheduling() throws Exception {
+        final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        final List<Boolean> busy = Collections.synchronizedList(new ArrayList<Boolean>());
+        MachineTaskScheduler scheduler = new MachineTaskScheduler() {
+            @Override
+            protected void busyChanged(boolean b) {
+                busy.add(b);
+            }
+        };
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                blocked.countDown();
+                release.await();
+                return null;
+            }
+        }, TaskPriority.Job, null);
+        blocked.await();
+
+        Future<String> background = scheduler.submit(task(ran, "background"), TaskPriority.Background, null);
+        Future<String> failing = scheduler.submit(new Callable<String>() {
+            public String call() throws Exception {
+                ran.add("failing");
+                throw new Exception("Vision failed");
+            }
+        }, TaskPriority.Job, null);
+        Future<String> job = scheduler.submit(task(ran, "job"), TaskPriority.Job, null);
+        Future<String> jog1 = scheduler.submit(task(ran, "jog1"), TaskPriority.Jog, "jog");
+        Future<String> jog2 = scheduler.submit(task(ran, "jog2"), TaskPriority.Jog, "jog");
+        Future<String> stop = scheduler.submit(task(ran, "stop"), TaskPriority.Immediate, null);
+        Assert.assertEquals(5, scheduler.getQueueDepth());
+        Assert.assertEquals(1, scheduler.getQueueDepth(TaskPriority.Jog));
+        Assert.assertTrue(jog1.isCancelled());
+
+        release.countDown();
+        Assert.assertEquals("background", background.get());
+        Assert.assertEquals("stop", stop.get());
+        Assert.assertEquals("jog2", jog2.get());
+        Assert.assertEquals("job", job.get());
+        try {
+            failing.get();
+            Assert.fail("Expected the task to fail");
+        }
+        catch (ExecutionException e) {
+            Assert.assertEquals("Vision failed", e.getCause().getMessage());
+        }
+        Assert.assertEquals("[stop, jog2, failing, job, background]", ran.toString());
+        Assert.assertEquals(1, scheduler.getTasksRun(TaskPriority.Jog));
+        Assert.assertTrue(scheduler.getMaxWaitMillis(TaskPriority.Background)
+                >= scheduler.getMaxWaitMillis(TaskPriority.Immediate));
+
+        // Idle notification comes after the last task completes.
+        for (int i = 0; i < 100 && busy.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("[true, false]", busy.toString());
+    }
+
+    private static Callable<String> task(final List<String> ran, final String name) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                ran.add(name);
+                return name;
+            }
+        };
+    }
+}
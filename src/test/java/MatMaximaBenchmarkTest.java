@@ -0,0 +1,145 @@
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Core.MinMaxLocResult;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.machine.reference.vision.OpenCvVisionProvider;
+
+public class MatMaximaBenchmarkTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+        System.loadLibrary(org.opencv.core.Core.NATIVE_LIBRARY_NAME);
+    }
+
+    /**
+     * Compares OpenCvVisionProvider.matMaxima with the previous per pixel
+     * Mat.get implementation on a 1280x720 template match sized result.
+     * Both must find exactly the same maxima. Timings are printed.
+     */
+    @Test
+    public void testMatMaxima() throws Exception {
+        Mat mat = createResult(1280, 720);
+        MinMaxLocResult mmr = Core.minMaxLoc(mat);
+        double rangeMin = mmr.minVal + (mmr.maxVal - mmr.minVal) * 0.6;
+        double rangeMax = mmr.maxVal;
+
+        List<Point> expected = legacyMatMaxima(mat, rangeMin, rangeMax);
+        List<Point> actual = OpenCvVisionProvider.matMaxima(mat, rangeMin, rangeMax);
+        Assert.assertTrue(expected.size() > 0);
+        Assert.assertEquals(expected, actual);
+
+        int iterations = 5;
+        long t = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            legacyMatMaxima(mat, rangeMin, rangeMax);
+        }
+        double legacyMs = (System.nanoTime() - t) / 1e6 / iterations;
+        t = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            OpenCvVisionProvider.matMaxima(mat, rangeMin, rangeMax);
+        }
+        double fastMs = (System.nanoTime() - t) / 1e6 / iterations;
+        System.out.println(String.format(
+                "matMaxima 1280x720, %d maxima: Mat.get %.1f ms, float[] %.1f ms (%.0fx)",
+                actual.size(), legacyMs, fastMs, legacyMs / fastMs));
+    }
+
+    /**
+     * Smoothed noise gives many plateaus and local maxima, which exercises
+     * every branch of the scan.
+     */
+    private static Mat createResult(int width, int height) {
+        Mat mat = new Mat(height, width, CvType.CV_32FC1);
+        Core.randu(mat, 0, 1);
+        Imgproc.GaussianBlur(mat, mat, new Size(9, 9), 0);
+        return mat;
+    }
+
+    enum MinMaxState {
+        BEFORE_INFLECTION,
+        AFTER_INFLECTION
+    }
+
+    /**
+     * The original implementation, kept here as the reference.
+     */
+    static List<Point> legacyMatMaxima(Mat mat, double rangeMin,
+            double rangeMax) {
+        List<Point> locations = new ArrayList<Point>();
+
+        int rEnd = mat.rows() - 1;
+        int cEnd = mat.cols() - 1;
+
+        for (int r = 0; r <= rEnd; r++) {
+            MinMaxState state = MinMaxState.BEFORE_INFLECTION;
+            double curVal = mat.get(r, 0)[0];
+            for (int c = 1; c <= cEnd; c++) {
+                double val = mat.get(r, c)[0];
+
+                if (val == curVal) {
+                    continue;
+                }
+                else if (curVal < val) {
+                    if (state != MinMaxState.BEFORE_INFLECTION) {
+                        state = MinMaxState.BEFORE_INFLECTION;
+                    }
+                }
+                else {
+                    if (state == MinMaxState.BEFORE_INFLECTION) {
+                        if (rangeMin <= curVal && curVal <= rangeMax) {
+                            if (0 < r
+                                    && (mat.get(r - 1, c - 1)[0] >= curVal || mat
+                                            .get(r - 1, c)[0] >= curVal)) {
+                            }
+                            else if (r < rEnd
+                                    && (mat.get(r + 1, c - 1)[0] > curVal || mat
+                                            .get(r + 1, c)[0] > curVal)) {
+                            }
+                            else if (1 < c
+                                    && (0 < r
+                                            && mat.get(r - 1, c - 2)[0] >= curVal
+                                            || mat.get(r, c - 2)[0] > curVal || r < rEnd
+                                            && mat.get(r + 1, c - 2)[0] > curVal)) {
+                            }
+                            else {
+                                locations.add(new Point(c - 1, r));
+                            }
+                        }
+                        state = MinMaxState.AFTER_INFLECTION;
+                    }
+                }
+
+                curVal = val;
+            }
+
+            if (state == MinMaxState.BEFORE_INFLECTION) {
+                if (rangeMin <= curVal && curVal <= rangeMax) {
+                    if (0 < r
+                            && (mat.get(r - 1, cEnd - 1)[0] >= curVal || mat
+                                    .get(r - 1, cEnd)[0] >= curVal)) {
+                    }
+                    else if (r < rEnd
+                            && (mat.get(r + 1, cEnd - 1)[0] > curVal || mat
+                                    .get(r + 1, cEnd)[0] > curVal)) {
+                    }
+                    else if (1 < r && mat.get(r - 1, cEnd - 2)[0] >= curVal
+                            || mat.get(r, cEnd - 2)[0] > curVal || r < rEnd
+                            && mat.get(r + 1, cEnd - 2)[0] > curVal) {
+                    }
+                    else {
+                        locations.add(new Point(cEnd, r));
+                    }
+                }
+            }
+        }
+
+        return locations;
+    }
+}
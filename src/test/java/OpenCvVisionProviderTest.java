@@ -0,0 +1,143 @@
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.machine.reference.vision.OpenCvVisionProvider;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Length;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.spi.VisionProvider.TemplateMatch;
+import org.openpnp.util.ImageUtils;
+import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.VisionUtils;
+
+import com.google.common.io.Files;
+
+public class OpenCvVisionProviderTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+        System.loadLibrary(org.opencv.core.Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Configuration.initialize(Files.createTempDir());
+    }
+
+    /**
+     * Templates and camera images of any type can be matched against each
+     * other.
+     */
+    @Test
+    public void testLocateTemplateMatchesMixedTypes() throws Exception {
+        Mat bgr = createImage(320, 240, 3);
+        Mat gray = new Mat();
+        Imgproc.cvtColor(bgr, gray, Imgproc.COLOR_BGR2GRAY);
+        BufferedImage template = crop(bgr, 150, 90, 40, 30);
+        BufferedImage[] templates = new BufferedImage[] {
+                template,
+                ImageUtils.convertBufferedImage(template, BufferedImage.TYPE_INT_ARGB),
+                ImageUtils.convertBufferedImage(template, BufferedImage.TYPE_BYTE_GRAY)
+        };
+        for (Mat image : new Mat[] { bgr, gray }) {
+            TestVisionProvider provider = new TestVisionProvider(image);
+            for (BufferedImage t : templates) {
+                Point[] points = provider.locateTemplateMatches(
+                        100, 50, 150, 120, 0, 0, t);
+                Assert.assertEquals(new Point(150, 90), points[0]);
+            }
+        }
+    }
+
+    /**
+     * The coarse to fine match finds the same best match as matching at
+     * full resolution.
+     */
+    @Test
+    public void testPyramidMatchesFullResolution() throws Exception {
+        Mat image = createImage(640, 480, 1);
+        BufferedImage template = crop(image, 400, 300, 48, 48);
+        AbstractCameraTest.TestCamera camera = createCamera(image);
+        Location expected = VisionUtils.getPixelLocation(camera, 430, 330);
+        Length searchRadius = new Length(1.5, LengthUnit.Millimeters);
+
+        TestVisionProvider fullResolution = new TestVisionProvider(image);
+        fullResolution.setCamera(camera);
+        fullResolution.setPyramidLevels(0);
+        TestVisionProvider pyramid = new TestVisionProvider(image);
+        pyramid.setCamera(camera);
+        pyramid.setPyramidLevels(2);
+
+        List<TemplateMatch> full = fullResolution.getTemplateMatches(template, expected, searchRadius);
+        List<TemplateMatch> coarse = pyramid.getTemplateMatches(template, expected, searchRadius);
+        Assert.assertFalse(full.isEmpty());
+        Assert.assertFalse(coarse.isEmpty());
+        Assert.assertEquals(full.get(0).location, coarse.get(0).location);
+        Assert.assertEquals(full.get(0).score, coarse.get(0).score, 1e-6);
+        Assert.assertEquals(VisionUtils.getPixelLocation(camera, 424, 324), full.get(0).location);
+    }
+
+    /**
+     * A search region no larger than the template still finds the match.
+     */
+    @Test
+    public void testSmallSearchRegion() throws Exception {
+        Mat image = createImage(640, 480, 1);
+        BufferedImage template = crop(image, 400, 300, 48, 48);
+        AbstractCameraTest.TestCamera camera = createCamera(image);
+        Location expected = VisionUtils.getPixelLocation(camera, 424, 324);
+        TestVisionProvider provider = new TestVisionProvider(image);
+        provider.setCamera(camera);
+        List<TemplateMatch> matches = provider.getTemplateMatches(template, expected,
+                new Length(0, LengthUnit.Millimeters));
+        Assert.assertEquals(1, matches.size());
+        Assert.assertEquals(expected, matches.get(0).location);
+    }
+
+    static AbstractCameraTest.TestCamera createCamera(Mat image) {
+        AbstractCameraTest.TestCamera camera = new AbstractCameraTest.TestCamera();
+        camera.setUnitsPerPixel(new Location(LengthUnit.Millimeters, 0.01, 0.01, 0, 0));
+        camera.frames.add(image);
+        return camera;
+    }
+
+    /**
+     * Smoothed noise, which matches at exactly one place and survives
+     * being reduced.
+     */
+    static Mat createImage(int width, int height, int channels) {
+        Mat mat = new Mat(height, width, CvType.makeType(CvType.CV_8U, channels));
+        Core.randu(mat, 0, 256);
+        Imgproc.GaussianBlur(mat, mat, new Size(7, 7), 0);
+        Core.normalize(mat, mat, 0, 255, Core.NORM_MINMAX);
+        return mat;
+    }
+
+    static BufferedImage crop(Mat mat, int x, int y, int width, int height) {
+        Mat roi = new Mat(mat, new Rect(x, y, width, height)).clone();
+        return OpenCvUtils.toBufferedImage(roi);
+    }
+
+    static class TestVisionProvider extends OpenCvVisionProvider {
+        private final Mat image;
+
+        TestVisionProvider(Mat image) {
+            this.image = image;
+        }
+
+        @Override
+        protected Mat getCameraImage() {
+            return image.clone();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.SerialLineReader;
+
+public class SerialLineReaderTest {
+    /**
+     * Lines split across reads, mixed line endings and lines that wrap
+     * around the end of the ring buffer must all come out intact.
+     */
+    @Test
+    public void testLines() {
+        final List<String> lines = new ArrayList<String>();
+        final List<Long> arrivals = new ArrayList<Long>();
+        SerialLineReader reader = new SerialLineReader(null, new SerialLineReader.Listener() {
+            @Override
+            public void lineReceived(String line, long arrivedNanos) {
+                lines.add(line);
+                arrivals.add(arrivedNanos);
+            }
+
+            @Override
+            public void readFailed(Exception e) {
+                Assert.fail(e.getMessage());
+            }
+        }, 32);
+
+        receive(reader, "o", 1);
+        receive(reader, "k\r\nerror: 2", 2);
+        receive(reader, "\n<Idle,MPos:1.000>\r\n", 3);
+        Assert.assertEquals("ok", lines.get(0));
+        Assert.assertEquals(1L, (long) arrivals.get(0));
+        Assert.assertEquals("error: 2", lines.get(1));
+        Assert.assertEquals(2L, (long) arrivals.get(1));
+        Assert.assertEquals("<Idle,MPos:1.000>", lines.get(2));
+        Assert.assertEquals(3, lines.size());
+
+        // Wraps around the ring.
+        for (int i = 0; i < 20; i++) {
+            receive(reader, "ok " + i + "\n", 4);
+            Assert.assertEquals("ok " + i, lines.get(lines.size() - 1));
+        }
+
+        // Too long for the ring, dropped, and the next line is intact.
+        receive(reader, "0123456789abcdef0123456789abcdefXYZ\nok\n", 5);
+        Assert.assertEquals("ok", lines.get(lines.size() - 1));
+        Assert.assertEquals(24, lines.size());
+    }
+
+    private static void receive(SerialLineReader reader, String s, long nanos) {
+        byte[] bytes = s.getBytes();
+        reader.received(bytes, bytes.length, nanos);
+    }
+}
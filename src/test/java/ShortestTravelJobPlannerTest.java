@@ -0,0 +1,98 @@
+import java.io.File;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.feeder.ReferenceTubeFeeder;
+import org.openpnp.model.Board;
+import org.openpnp.model.Board.Side;
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Job;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Placement;
+import org.openpnp.planner.ShortestTravelJobPlanner;
+import org.openpnp.planner.SimpleJobPlanner;
+import org.openpnp.planner.TravelEstimator;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.JobPlanner.PlacementSolution;
+import org.openpnp.spi.Machine;
+
+import com.google.common.io.Files;
+
+public class ShortestTravelJobPlannerTest {
+    /**
+     * Plans a job with placements scattered over several boards and two
+     * feeders on opposite sides of the machine and checks that every
+     * placement is planned exactly once with a compatible nozzle tip, and
+     * that the estimated travel is no worse than SimpleJobPlanner's.
+     */
+    @Test
+    public void testPlanner() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        Machine machine = Configuration.get().getMachine();
+        ReferenceTubeFeeder feeder = new ReferenceTubeFeeder();
+        feeder.setPart(Configuration.get().getPart("C-0805-100NF"));
+        feeder.setLocation(new Location(LengthUnit.Millimeters, 300, 0, 0, 0));
+        feeder.setEnabled(true);
+        machine.addFeeder(feeder);
+
+        Head head = machine.getHead("H1");
+        Job job = createJob(4, 25);
+
+        ShortestTravelJobPlanner planner = new ShortestTravelJobPlanner();
+        planner.setJob(job);
+        Set<Placement> planned = new HashSet<Placement>();
+        Set<PlacementSolution> solutions;
+        while ((solutions = planner.getNextPlacementSolutions(head)) != null) {
+            for (PlacementSolution solution : solutions) {
+                Assert.assertNotNull(solution.nozzle);
+                Assert.assertNotNull(solution.feeder);
+                Assert.assertTrue(solution.nozzleTip.canHandle(solution.placement.getPart()));
+                Assert.assertSame(solution.placement.getPart(), solution.feeder.getPart());
+                Assert.assertTrue(planned.add(solution.placement));
+            }
+        }
+        Assert.assertEquals(100, planned.size());
+
+        double simple = TravelEstimator.estimate(new SimpleJobPlanner(), job, head);
+        double shortest = TravelEstimator.estimate(new ShortestTravelJobPlanner(), job, head);
+        Assert.assertTrue(simple > 0);
+        Assert.assertTrue(shortest > 0);
+        Assert.assertTrue(shortest <= simple);
+
+        String report = TravelEstimator.report(job, head, new SimpleJobPlanner(), new ShortestTravelJobPlanner());
+        Assert.assertTrue(report, report.contains("SimpleJobPlanner"));
+        Assert.assertTrue(report, report.contains("ShortestTravelJobPlanner"));
+        Assert.assertTrue(report, report.contains(String.format("%.1f mm", simple)));
+        Assert.assertTrue(report, report.contains(String.format("%.1f mm", shortest)));
+        Assert.assertFalse(report, report.contains("unable to plan job"));
+    }
+
+    private static Job createJob(int boards, int placementsPerBoard) {
+        Random random = new Random(1);
+        Job job = new Job();
+        for (int i = 0; i < boards; i++) {
+            Board board = new Board();
+            board.setName("test" + i);
+            for (int j = 0; j < placementsPerBoard; j++) {
+                String partId = random.nextBoolean() ? "R-0805-10K" : "C-0805-100NF";
+                board.addPlacement(BasicJobTest.createPlacement("R" + j, partId,
+                        random.nextDouble() * 50, random.nextDouble() * 50, 0,
+                        random.nextInt(4) * 90, Side.Top));
+            }
+            BoardLocation boardLocation = new BoardLocation(board);
+            boardLocation.setLocation(new Location(LengthUnit.Millimeters, 60 * i, 100, 0, 0));
+            boardLocation.setSide(Side.Top);
+            job.addBoardLocation(boardLocation);
+        }
+        return job;
+    }
+}
@@ -0,0 +1,58 @@
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.MotionProfile;
+import org.openpnp.machine.reference.driver.TimedNullDriver;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+
+public class TimedNullDriverTest {
+    @Test
+    public void testTrapezoidal() {
+        // 100 mm at 100 mm/s with 1000 mm/s^2: 0.1 s to accelerate over
+        // 5 mm, 90 mm cruise, 0.1 s to decelerate.
+        Assert.assertEquals(1.1, MotionProfile.getMoveSeconds(100, 100, 1000, 0), 1e-9);
+        // Too short to reach full velocity: accelerate for half, decelerate
+        // for the other half.
+        Assert.assertEquals(2 * Math.sqrt(5 / 1000.0),
+                MotionProfile.getMoveSeconds(5, 100, 1000, 0), 1e-9);
+        Assert.assertEquals(0, MotionProfile.getMoveSeconds(0, 100, 1000, 0), 0);
+        Assert.assertEquals(2, MotionProfile.getMoveSeconds(-200, 100, 0, 0), 1e-9);
+    }
+
+    @Test
+    public void testSCurve() {
+        // Reaching 100 mm/s at 1000 mm/s^2 with 10000 mm/s^3 takes
+        // 0.1 + 0.1 s.
+        Assert.assertEquals(0.2, MotionProfile.getAccelerationSeconds(100, 1000, 10000), 1e-9);
+        Assert.assertEquals(100 / 100.0 + 0.2, MotionProfile.getMoveSeconds(100, 100, 1000, 10000), 1e-9);
+        // An S-curve is never faster than the trapezoid with the same limits
+        // and converges on it as jerk grows.
+        for (double d = 0.01; d < 200; d *= 1.7) {
+            double trapezoid = MotionProfile.getMoveSeconds(d, 100, 1000, 0);
+            double sCurve = MotionProfile.getMoveSeconds(d, 100, 1000, 10000);
+            Assert.assertTrue(sCurve > trapezoid);
+            Assert.assertEquals(trapezoid, MotionProfile.getMoveSeconds(d, 100, 1000, 1e12), 1e-4);
+        }
+        // Short move that never reaches full acceleration: four jerk
+        // phases of t each cover 2 * j * t^3.
+        double t = Math.cbrt(0.001 / 2 / 10000);
+        Assert.assertEquals(4 * t, MotionProfile.getMoveSeconds(0.001, 100, 1000, 10000), 1e-9);
+    }
+
+    @Test
+    public void testMoveSeconds() {
+        TimedNullDriver driver = new TimedNullDriver();
+        Location origin = new Location(LengthUnit.Millimeters, 0, 0, 0, 0);
+        double x = driver.getMoveSeconds(origin, origin.derive(100.0, null, null, null), 1);
+        double xy = driver.getMoveSeconds(origin, origin.derive(100.0, 100.0, null, null), 1);
+        // The limits are per axis, so the diagonal takes as long as either
+        // axis alone, while a move with a slower axis is held back by it.
+        Assert.assertEquals(x, xy, 1e-9);
+        Assert.assertTrue(driver.getMoveSeconds(origin, origin.derive(100.0, null, 100.0, null), 1) > x);
+        // Half speed takes longer, and NaN axes don't move.
+        Assert.assertTrue(driver.getMoveSeconds(origin, origin.derive(100.0, null, null, null), 0.5) > x);
+        Assert.assertEquals(x, driver.getMoveSeconds(origin,
+                new Location(LengthUnit.Millimeters, 100, Double.NaN, Double.NaN, Double.NaN), 1), 1e-12);
+        Assert.assertEquals(0, driver.getMoveSeconds(origin, origin, 1), 0);
+    }
+}
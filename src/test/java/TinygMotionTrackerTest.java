@@ -0,0 +1,54 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.machine.reference.driver.TinygMotionTracker;
+
+public class TinygMotionTrackerTest {
+    /**
+     * A stop report must only complete moves that were acknowledged before
+     * it, and a queue report only counts once the planner size is known.
+     */
+    @Test
+    public void testCompletion() throws Exception {
+        TinygMotionTracker tracker = new TinygMotionTracker();
+        Future<Void> a = tracker.written();
+        Future<Void> b = tracker.written();
+        Future<Void> c = tracker.written();
+
+        tracker.acknowledged(true);
+        tracker.stopped();
+        Assert.assertTrue(a.isDone());
+        Assert.assertFalse(b.isDone());
+
+        // Zero length move, never enters the planner.
+        tracker.acknowledged(false);
+        Assert.assertTrue(b.isDone());
+
+        tracker.acknowledged(true);
+        tracker.queueReport(28);
+        Assert.assertFalse(c.isDone());
+        tracker.setPlannerSize(28);
+        tracker.queueReport(27);
+        Assert.assertFalse(c.isDone());
+        Assert.assertEquals(1, tracker.getPending().size());
+        tracker.queueReport(28);
+        Assert.assertTrue(c.isDone());
+        Assert.assertTrue(tracker.getPending().isEmpty());
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        TinygMotionTracker tracker = new TinygMotionTracker();
+        Future<Void> a = tracker.written();
+        tracker.abort(new Exception("Disconnected"));
+        try {
+            a.get();
+            Assert.fail("Expected the move to fail");
+        }
+        catch (ExecutionException e) {
+            Assert.assertEquals("Disconnected", e.getCause().getMessage());
+        }
+    }
+}
@@ -1,5 +1,7 @@
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.List;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -10,6 +12,7 @@ import org.openpnp.CameraListener;
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.PropertySheetHolder;
@@ -29,6 +32,9 @@ public class VisionUtilsTest {
         Assert.assertEquals(pixelOffsets, new Location(LengthUnit.Millimeters, -220, 140, 0, 0));
         Location pixelLocation = VisionUtils.getPixelLocation(camera, 100, 100);
         Assert.assertEquals(pixelLocation, new Location(LengthUnit.Millimeters, -220, 140, 0, 0));
+        Point2D.Double pixels = VisionUtils.getLocationPixels(camera, pixelLocation);
+        Assert.assertEquals(100, pixels.x, 1e-9);
+        Assert.assertEquals(100, pixels.y, 1e-9);
     }
 
     static class TestCamera implements Camera {
@@ -62,6 +68,12 @@ public class VisionUtilsTest {
             
         }
 
+        @Override
+        public void moveAlong(List<Waypoint> path) throws Exception {
+            // TODO Auto-generated method stub
+            
+        }
+
         @Override
         public Location getLocation() {
             return new Location(LengthUnit.Millimeters, 0, 0, 0, 0);
@@ -145,6 +157,11 @@ public class VisionUtilsTest {
             
         }
 
+        @Override
+        public void startContinuousCapture(CameraListener listener,
+                int maximumFps, int maximumWidth) {
+        }
+
         @Override
         public void stopContinuousCapture(CameraListener listener) {
             // TODO Auto-generated method stub
@@ -191,6 +208,10 @@ public class VisionUtilsTest {
 			return null;
 		}
 
+		@Override
+		public void settle() {
+		}
+
 		@Override
 		public long getSettleTimeMs() {
 			// TODO Auto-generated method stub
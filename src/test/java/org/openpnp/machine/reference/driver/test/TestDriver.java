@@ -1,6 +1,7 @@
 package org.openpnp.machine.reference.driver.test;
 
 import java.io.IOException;
+import java.util.List;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -14,6 +15,7 @@ import org.openpnp.machine.reference.ReferenceNozzle;
 import org.openpnp.machine.reference.ReferencePasteDispenser;
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
+import org.openpnp.model.Waypoint;
 import org.openpnp.spi.PropertySheetHolder;
 import org.simpleframework.xml.Attribute;
 import org.slf4j.Logger;
@@ -75,6 +77,19 @@ public class TestDriver implements ReferenceDriver {
         }
     }
 
+    @Override
+    public void moveAlong(ReferenceHeadMountable hm, List<Waypoint> path)
+            throws Exception {
+        for (Waypoint waypoint : path) {
+            moveTo(hm, waypoint.getLocation(), waypoint.getSpeed());
+        }
+    }
+
+    @Override
+    public void waitForCompletion() throws Exception {
+        delegate.waitForCompletion();
+    }
+
     @Override
     public Location getLocation(ReferenceHeadMountable hm) {
         return location;
@@ -139,6 +154,19 @@ public class TestDriver implements ReferenceDriver {
             
         }
 
+        @Override
+        public void moveAlong(ReferenceHeadMountable hm, List<Waypoint> path)
+                throws Exception {
+            // TODO Auto-generated method stub
+            
+        }
+
+        @Override
+        public void waitForCompletion() throws Exception {
+            // TODO Auto-generated method stub
+            
+        }
+
         @Override
         public Location getLocation(ReferenceHeadMountable hm) {
             // TODO Auto-generated method stub